@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.data;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import java.util.Map;
+
+/**
+ * Dataservice to read the change generations of the served data sets. Generations are bumped by
+ * database triggers whenever the underlying tables are modified and a notification is sent on the
+ * channel {@link #NOTIFICATION_CHANNEL}.
+ */
+public interface DataGenerationDataService {
+
+    public static final String NOTIFICATION_CHANNEL = "data_generation";
+
+    /** @return the current generation of every tracked data type */
+    public Map<DataType, Long> findGenerations();
+}
@@ -11,16 +11,29 @@
 package ch.admin.bag.covidcertificate.backend.verifier.data;
 
 import ch.admin.bag.covidcertificate.backend.verifier.model.DbRevokedCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationListSyncState;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.RevokedCertsUpdateResponse;
 import java.time.Instant;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public interface RevokedCertDataService {
 
+    /** number of leading SHA-256 bytes of an uvci stored as its hash */
+    public static final int UVCI_HASH_LENGTH = 16;
+
     /** upserts the given revoked uvcis into the db */
     public RevokedCertsUpdateResponse replaceRevokedCerts(Set<String> revokedUvcis);
 
+    /**
+     * replaces the revoked uvcis in the db with the ones returned by the iterator. The uvcis are
+     * streamed into a staging table and reconciled with set-based statements, so the iterator may
+     * be backed by a download that doesn't fit into memory. Duplicates are ignored.
+     */
+    public RevokedCertsUpdateResponse replaceRevokedCerts(Iterator<String> revokedUvcis);
+
     /**
      * returns the next batch of released revoked certs after `since`
      *
@@ -36,5 +49,44 @@ public interface RevokedCertDataService {
      */
     public long findMaxReleasedRevokedCertPkId(Instant now);
 
+    /**
+     * passes all revoked certs, released or not, to the consumer row by row, ordered by pk id
+     *
+     * @param consumer
+     */
+    public void streamRevokedCerts(Consumer<DbRevokedCert> consumer);
+
+    /**
+     * passes all released revoked certs to the consumer row by row, ordered by pk id
+     *
+     * @param now
+     * @param consumer
+     */
+    public void streamReleasedRevokedCerts(Instant now, Consumer<DbRevokedCert> consumer);
+
+    /**
+     * passes the uvci hashes of all released revoked certs to the consumer row by row, ordered by
+     * hash (unsigned, byte by byte)
+     *
+     * @param now
+     * @param consumer
+     */
+    public void streamReleasedRevokedCertHashes(Instant now, Consumer<byte[]> consumer);
+
+    /**
+     * fills in the uvci hash of at most `batchSize` revoked certs stored before hashes were
+     * introduced
+     *
+     * @param batchSize
+     * @return the number of revoked certs that got a hash, 0 once all are done
+     */
+    public int backfillUvciHashes(int batchSize);
+
+    /** returns the state of the last applied upstream revocation list, null if there is none */
+    public RevocationListSyncState findRevocationListSyncState();
+
+    /** stores the state of the upstream revocation list that was just applied */
+    public void saveRevocationListSyncState(RevocationListSyncState syncState);
+
     public int getRevokedCertBatchSize();
 }
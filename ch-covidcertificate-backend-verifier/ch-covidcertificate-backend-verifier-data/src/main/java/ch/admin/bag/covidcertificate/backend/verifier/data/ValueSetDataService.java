@@ -10,6 +10,7 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.data;
 
+import ch.admin.bag.covidcertificate.backend.verifier.model.DbValueSet;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import java.util.List;
 import java.util.Map;
@@ -17,11 +18,13 @@ import java.util.Map;
 public interface ValueSetDataService {
 
     /**
-     * inserts the given value sets into the db
+     * inserts the given value sets into the db, unless they are equal to the latest version stored
+     * for their id
      *
      * @param valueSetsById
+     * @return the number of inserted (i.e. new or changed) value sets
      */
-    void insertValueSets(Map<String, String> valueSetsById) throws JsonProcessingException;
+    int insertValueSets(Map<String, String> valueSetsById) throws JsonProcessingException;
 
     /**
      * returns the latest value set for the given id
@@ -30,6 +33,12 @@ public interface ValueSetDataService {
      */
     String findLatestValueSet(String valueSetId);
 
+    /**
+     * returns the latest version of every value set together with its codes, ordered by value set
+     * id
+     */
+    List<DbValueSet> findLatestValueSets();
+
     /**
      * returns all known value-set ids
      *
@@ -12,6 +12,7 @@ package ch.admin.bag.covidcertificate.backend.verifier.data;
 
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.DscBatchInfo;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbCsca;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbDsc;
 import ch.admin.bag.covidcertificate.backend.verifier.model.exception.DgcSyncException;
@@ -19,6 +20,8 @@ import ch.admin.bag.covidcertificate.backend.verifier.model.sync.DscRestoreRespo
 import java.time.Duration;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 public interface VerifierDataService {
 
@@ -50,12 +53,23 @@ public interface VerifierDataService {
     /** inserts the given manual DSC into the db */
     void insertManualDsc(DbDsc dsc);
 
+    /**
+     * renders the JSON of all DSCs inserted before it was stored on insert
+     *
+     * @return number of updated DSCs
+     */
+    public int fillMissingDscJsons();
+
     /** removes all DSCs with key ids not in the given list that haven't been added manually */
     public int removeDscsNotIn(List<String> keyIdsToKeep) throws DgcSyncException;
 
     /** removes all DSCs signed by a CSCA not in the given list that haven't been added manually */
     public int removeDscsWithCscaNotIn(List<String> cscaKidsToKeep) throws DgcSyncException;
 
+    /**
+     * returns the latest deletion of every DSC key id that is marked for deletion and no longer
+     * active
+     */
     public List<DbDsc> findDscsMarkedForDeletion();
 
     public List<DbCsca> findCscasMarkedForDeletion();
@@ -77,6 +91,46 @@ public interface VerifierDataService {
     @Deprecated(since = "KeyControllerV2", forRemoval = true)
     public List<ClientCert> findDscsBefore(Long since, CertFormat certFormat, Date importedBefore);
 
+    /**
+     * returns size and highest pk id of the batch {@link #findDscsBefore} would return, without
+     * reading the DSCs
+     *
+     * @deprecated only used in KeyController V1
+     */
+    @Deprecated(since = "KeyControllerV2", forRemoval = true)
+    public DscBatchInfo findDscBatchInfoBefore(Long since, Date importedBefore);
+
+    /**
+     * passes the batch {@link #findDscsBefore} would return row by row to the consumer instead of
+     * collecting it into a list. Its {@link #findDscBatchInfoBefore batch info} is passed to
+     * `batchInfoConsumer` before the first row, read in the same transaction so both see the same
+     * DSCs, and so do the queries `batchInfoConsumer` runs itself.
+     *
+     * @deprecated only used in KeyController V1
+     */
+    @Deprecated(since = "KeyControllerV2", forRemoval = true)
+    public void streamDscsBefore(
+            Long since,
+            CertFormat certFormat,
+            Date importedBefore,
+            Consumer<DscBatchInfo> batchInfoConsumer,
+            Consumer<ClientCert> consumer);
+
+    /** returns all active DSCs in the requested format (including import time) ordered by pk id */
+    public List<ClientCert> findActiveDscs(CertFormat certFormat);
+
+    /**
+     * returns a fingerprint of the active DSCs. the fingerprint changes whenever a DSC is inserted
+     * or marked for deletion
+     */
+    public String findActiveDscFingerprint();
+
+    /** returns the sha256 digest (hex) over all active DSCs, maintained on every DSC write */
+    public String findDscDigest();
+
+    /** returns the sha256 digest (hex) over the active DSCs per origin */
+    public Map<String, String> findDscDigestsByOrigin();
+
     /** returns a list of key ids of all active DSCs */
     public List<String> findActiveDscKeyIds();
 
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.data.impl;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.DataGenerationDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import java.util.EnumMap;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+public class JdbcDataGenerationDataServiceImpl implements DataGenerationDataService {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(JdbcDataGenerationDataServiceImpl.class);
+
+    private final NamedParameterJdbcTemplate jt;
+
+    public JdbcDataGenerationDataServiceImpl(DataSource dataSource) {
+        this.jt = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public Map<DataType, Long> findGenerations() {
+        Map<DataType, Long> generations = new EnumMap<>(DataType.class);
+        jt.query(
+                "select data_type, generation from t_data_generation",
+                new MapSqlParameterSource(),
+                rs -> {
+                    try {
+                        generations.put(
+                                DataType.valueOf(rs.getString("data_type")),
+                                rs.getLong("generation"));
+                    } catch (IllegalArgumentException e) {
+                        logger.warn("unknown data type {}", rs.getString("data_type"));
+                    }
+                });
+        return generations;
+    }
+}
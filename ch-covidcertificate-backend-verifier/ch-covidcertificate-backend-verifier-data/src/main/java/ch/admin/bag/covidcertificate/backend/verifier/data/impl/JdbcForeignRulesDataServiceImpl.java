@@ -13,7 +13,8 @@ package ch.admin.bag.covidcertificate.backend.verifier.data.impl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.ForeignRulesDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.mapper.ForeignRulesRowMapper;
 import ch.admin.bag.covidcertificate.backend.verifier.model.ForeignRule;
-import java.time.LocalDateTime;
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.util.List;
 import javax.sql.DataSource;
 import org.slf4j.Logger;
@@ -58,9 +59,9 @@ public class JdbcForeignRulesDataServiceImpl implements ForeignRulesDataService
         params.addValue("rule_id", rule.getId());
         params.addValue("rule_version", rule.getVersion());
         params.addValue("rule_content", rule.getContent());
-        params.addValue("valid_from", rule.getValidFrom());
-        params.addValue("valid_until", rule.getValidUntil());
-        params.addValue("inserted_at", LocalDateTime.now());
+        params.addValue("valid_from", Timestamp.from(rule.getValidFrom()));
+        params.addValue("valid_until", Timestamp.from(rule.getValidUntil()));
+        params.addValue("inserted_at", Timestamp.from(Instant.now()));
         jt.update(sql, params);
     }
 
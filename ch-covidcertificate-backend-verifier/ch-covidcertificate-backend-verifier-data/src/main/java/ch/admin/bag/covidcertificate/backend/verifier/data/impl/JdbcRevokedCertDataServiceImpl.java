@@ -14,21 +14,29 @@ import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataServic
 import ch.admin.bag.covidcertificate.backend.verifier.data.mapper.RevokedCertRowMapper;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
 import ch.admin.bag.covidcertificate.backend.verifier.model.DbRevokedCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationListSyncState;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.RevokedCertsUpdateResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 import javax.sql.DataSource;
-import org.apache.commons.collections4.ListUtils;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.transaction.annotation.Transactional;
 
 public class JdbcRevokedCertDataServiceImpl implements RevokedCertDataService {
@@ -36,89 +44,125 @@ public class JdbcRevokedCertDataServiceImpl implements RevokedCertDataService {
     private static final Logger logger =
             LoggerFactory.getLogger(JdbcRevokedCertDataServiceImpl.class);
 
+    private static final int STREAMING_FETCH_SIZE = 10000;
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+    // truncated sha256 of an uvci, the same bytes the ws hashes on its own
+    private static final String UVCI_HASH_SQL =
+            "substring(sha256(convert_to(%s, 'UTF8')) from 1 for " + UVCI_HASH_LENGTH + ")";
+
     private final int revokedCertBatchSize;
     private final NamedParameterJdbcTemplate jt;
-    private final SimpleJdbcInsert revokedCertInsert;
+    private final NamedParameterJdbcTemplate streamingJt;
 
     public JdbcRevokedCertDataServiceImpl(DataSource dataSource, int revokedCertBatchSize) {
         this.jt = new NamedParameterJdbcTemplate(dataSource);
+        JdbcTemplate streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        streamingJdbcTemplate.setFetchSize(STREAMING_FETCH_SIZE);
+        this.streamingJt = new NamedParameterJdbcTemplate(streamingJdbcTemplate);
         this.revokedCertBatchSize = revokedCertBatchSize;
-        this.revokedCertInsert =
-                new SimpleJdbcInsert(dataSource)
-                        .withTableName("t_revoked_cert")
-                        .usingGeneratedKeyColumns("pk_revoked_cert_id", "imported_at");
     }
 
     @Transactional(readOnly = false)
     @Override
     public RevokedCertsUpdateResponse replaceRevokedCerts(Set<String> revokedUvcis) {
-        Set<String> existingUvcis = findAllRevokedUvcis();
-        int insertCount = insertNewRevokedCerts(revokedUvcis, existingUvcis);
-        int removeCount = removeRevokedCertsNotIn(revokedUvcis, existingUvcis);
-        return new RevokedCertsUpdateResponse(insertCount, removeCount);
+        return replaceRevokedCerts(
+                revokedUvcis != null ? revokedUvcis.iterator() : Collections.emptyIterator());
     }
 
-    private int insertNewRevokedCerts(Set<String> revokedUvcis, Set<String> existingUvcis) {
-        if (revokedUvcis != null && !revokedUvcis.isEmpty()) {
-            List<String> toInsert =
-                    revokedUvcis.stream()
-                            .filter(uvci -> !existingUvcis.contains(uvci))
-                            .collect(Collectors.toList());
-
-            // insert in batches
-            final int maxBatchSize = 10000;
-            for (List<String> batchToInsert : ListUtils.partition(toInsert, maxBatchSize)) {
-                revokedCertInsert.executeBatch(createParams(batchToInsert));
-            }
+    @Transactional(readOnly = false)
+    @Override
+    public RevokedCertsUpdateResponse replaceRevokedCerts(Iterator<String> revokedUvcis) {
+        // the staging table only lives until the end of the transaction
+        jt.update(
+                "create temp table if not exists tmp_revoked_cert (uvci text not null)"
+                        + " on commit drop",
+                new MapSqlParameterSource());
+        jt.update("truncate tmp_revoked_cert", new MapSqlParameterSource());
+        long stagedCount = copyToStagingTable(revokedUvcis);
+        // temp tables are never analyzed automatically
+        jt.update("analyze tmp_revoked_cert", new MapSqlParameterSource());
 
-            return toInsert.size();
-        } else {
-            return 0;
-        }
+        int insertCount =
+                jt.update(
+                        "insert into t_revoked_cert (uvci, uvci_hash)"
+                                + " select distinct s.uvci, "
+                                + String.format(UVCI_HASH_SQL, "s.uvci")
+                                + " from tmp_revoked_cert s"
+                                + " where not exists"
+                                + " (select 1 from t_revoked_cert r where r.uvci = s.uvci)"
+                                + " on conflict (uvci) do nothing",
+                        new MapSqlParameterSource());
+        int removeCount =
+                jt.update(
+                        "delete from t_revoked_cert r"
+                                + " where not exists"
+                                + " (select 1 from tmp_revoked_cert s where s.uvci = r.uvci)",
+                        new MapSqlParameterSource());
+        logger.debug("reconciled {} staged revoked uvcis", stagedCount);
+        return new RevokedCertsUpdateResponse(insertCount, removeCount);
     }
 
-    private Set<String> findAllRevokedUvcis() {
-        return new HashSet<>(
-                jt.queryForList(
-                        "select distinct uvci from t_revoked_cert",
-                        new MapSqlParameterSource(),
-                        String.class));
+    /** streams the uvcis into tmp_revoked_cert using COPY and returns the number of rows copied */
+    private long copyToStagingTable(Iterator<String> revokedUvcis) {
+        return jt.getJdbcTemplate()
+                .execute(
+                        (ConnectionCallback<Long>)
+                                connection -> copyToStagingTable(connection, revokedUvcis));
     }
 
-    private MapSqlParameterSource[] createParams(List<String> revokedUvcis) {
-        if (revokedUvcis == null) {
-            return null;
-        }
-
-        int size = revokedUvcis.size();
-        MapSqlParameterSource[] params = new MapSqlParameterSource[size];
-        for (int i = 0; i < size; i++) {
-            params[i] = new MapSqlParameterSource("uvci", revokedUvcis.get(i));
+    private long copyToStagingTable(Connection connection, Iterator<String> revokedUvcis)
+            throws SQLException {
+        CopyIn copyIn =
+                connection
+                        .unwrap(PGConnection.class)
+                        .getCopyAPI()
+                        .copyIn("copy tmp_revoked_cert (uvci) from stdin");
+        try {
+            StringBuilder chunk = new StringBuilder();
+            while (revokedUvcis.hasNext()) {
+                appendCopyRow(chunk, revokedUvcis.next());
+                if (chunk.length() >= COPY_CHUNK_SIZE) {
+                    writeToCopy(copyIn, chunk);
+                }
+            }
+            writeToCopy(copyIn, chunk);
+            return copyIn.endCopy();
+        } finally {
+            // e.g. the download backing the iterator failed, the transaction is rolled back
+            if (copyIn.isActive()) {
+                copyIn.cancelCopy();
+            }
         }
-        return params;
     }
 
-    private int removeRevokedCertsNotIn(Set<String> uvcisToKeep, Set<String> existingUvcis) {
-        String sql = "delete from t_revoked_cert";
-        if (uvcisToKeep != null && !uvcisToKeep.isEmpty()) {
-            sql += " where uvci in (:to_delete)";
-
-            List<String> toDelete =
-                    existingUvcis.stream()
-                            .filter(uvci -> !uvcisToKeep.contains(uvci))
-                            .collect(Collectors.toList());
-
-            // delete in batches
-            int deleteCount = 0;
-            final int maxBatchSize = 10000;
-            for (List<String> batchToDelete : ListUtils.partition(toDelete, maxBatchSize)) {
-                deleteCount +=
-                        jt.update(sql, new MapSqlParameterSource("to_delete", batchToDelete));
+    /** appends the uvci as one row in COPY text format */
+    private static void appendCopyRow(StringBuilder chunk, String uvci) {
+        for (int i = 0; i < uvci.length(); i++) {
+            char c = uvci.charAt(i);
+            switch (c) {
+                case '\\':
+                    chunk.append("\\\\");
+                    break;
+                case '\n':
+                    chunk.append("\\n");
+                    break;
+                case '\r':
+                    chunk.append("\\r");
+                    break;
+                case '\t':
+                    chunk.append("\\t");
+                    break;
+                default:
+                    chunk.append(c);
             }
-            return deleteCount;
-        } else {
-            return jt.update(sql, new MapSqlParameterSource());
         }
+        chunk.append('\n');
+    }
+
+    private static void writeToCopy(CopyIn copyIn, StringBuilder chunk) throws SQLException {
+        byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+        copyIn.writeToCopy(bytes, 0, bytes.length);
+        chunk.setLength(0);
     }
 
     @Transactional(readOnly = true)
@@ -128,7 +172,7 @@ public class JdbcRevokedCertDataServiceImpl implements RevokedCertDataService {
             since = 0L;
         }
         String sql =
-                "select pk_revoked_cert_id, uvci from t_revoked_cert"
+                "select pk_revoked_cert_id, uvci, imported_at from t_revoked_cert"
                         + " where pk_revoked_cert_id > :since"
                         + " and imported_at <= :release_up_to"
                         + " order by pk_revoked_cert_id asc"
@@ -162,6 +206,104 @@ public class JdbcRevokedCertDataServiceImpl implements RevokedCertDataService {
         }
     }
 
+    @Transactional(readOnly = true)
+    @Override
+    public void streamRevokedCerts(Consumer<DbRevokedCert> consumer) {
+        String sql =
+                "select pk_revoked_cert_id, uvci, imported_at from t_revoked_cert"
+                        + " order by pk_revoked_cert_id asc";
+        RevokedCertRowMapper rowMapper = new RevokedCertRowMapper();
+        streamingJt.query(
+                sql,
+                new MapSqlParameterSource(),
+                (RowCallbackHandler) rs -> consumer.accept(rowMapper.mapRow(rs, rs.getRow())));
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public void streamReleasedRevokedCerts(Instant now, Consumer<DbRevokedCert> consumer) {
+        String sql =
+                "select pk_revoked_cert_id, uvci, imported_at from t_revoked_cert"
+                        + " where imported_at <= :release_up_to"
+                        + " order by pk_revoked_cert_id asc";
+        MapSqlParameterSource params =
+                new MapSqlParameterSource(
+                        "release_up_to",
+                        Date.from(CacheUtil.roundToPreviousRevocationRetentionBucketStart(now)));
+        RevokedCertRowMapper rowMapper = new RevokedCertRowMapper();
+        // runs inside a transaction so the driver honours the fetch size and doesn't load the
+        // whole table at once
+        streamingJt.query(
+                sql,
+                params,
+                (RowCallbackHandler) rs -> consumer.accept(rowMapper.mapRow(rs, rs.getRow())));
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public void streamReleasedRevokedCertHashes(Instant now, Consumer<byte[]> consumer) {
+        // certs the backfill didn't get to yet are hashed on the fly
+        String sql =
+                "select coalesce(uvci_hash, "
+                        + String.format(UVCI_HASH_SQL, "uvci")
+                        + ") as hash from t_revoked_cert"
+                        + " where imported_at <= :release_up_to"
+                        + " order by hash asc";
+        MapSqlParameterSource params =
+                new MapSqlParameterSource(
+                        "release_up_to",
+                        Date.from(CacheUtil.roundToPreviousRevocationRetentionBucketStart(now)));
+        streamingJt.query(
+                sql, params, (RowCallbackHandler) rs -> consumer.accept(rs.getBytes("hash")));
+    }
+
+    @Transactional(readOnly = false)
+    @Override
+    public int backfillUvciHashes(int batchSize) {
+        return jt.update(
+                "update t_revoked_cert set uvci_hash = "
+                        + String.format(UVCI_HASH_SQL, "uvci")
+                        + " where pk_revoked_cert_id in"
+                        + " (select pk_revoked_cert_id from t_revoked_cert"
+                        + " where uvci_hash is null limit :batch_size)",
+                new MapSqlParameterSource("batch_size", batchSize));
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public RevocationListSyncState findRevocationListSyncState() {
+        try {
+            return jt.queryForObject(
+                    "select etag, last_modified, content_digest"
+                            + " from t_revocation_list_sync_state",
+                    new MapSqlParameterSource(),
+                    (rs, i) ->
+                            new RevocationListSyncState(
+                                    rs.getString("etag"),
+                                    rs.getString("last_modified"),
+                                    rs.getString("content_digest")));
+        } catch (EmptyResultDataAccessException e) {
+            return null;
+        }
+    }
+
+    @Transactional(readOnly = false)
+    @Override
+    public void saveRevocationListSyncState(RevocationListSyncState syncState) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        params.addValue("etag", syncState.getEtag());
+        params.addValue("last_modified", syncState.getLastModified());
+        params.addValue("content_digest", syncState.getContentDigest());
+        jt.update(
+                "insert into t_revocation_list_sync_state (etag, last_modified, content_digest)"
+                        + " values (:etag, :last_modified, :content_digest)"
+                        + " on conflict (id) do update set etag = excluded.etag,"
+                        + " last_modified = excluded.last_modified,"
+                        + " content_digest = excluded.content_digest,"
+                        + " updated_at = now()",
+                params);
+    }
+
     public int getRevokedCertBatchSize() {
         return revokedCertBatchSize;
     }
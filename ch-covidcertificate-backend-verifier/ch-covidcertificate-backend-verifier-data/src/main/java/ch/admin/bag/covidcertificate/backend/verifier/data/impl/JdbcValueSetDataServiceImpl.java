@@ -11,9 +11,12 @@
 package ch.admin.bag.covidcertificate.backend.verifier.data.impl;
 
 import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.data.mapper.ValueSetRowMapper;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DbValueSet;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.sql.Date;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -25,32 +28,52 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
-import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.transaction.annotation.Transactional;
 
 public class JdbcValueSetDataServiceImpl implements ValueSetDataService {
 
     private static final Logger logger = LoggerFactory.getLogger(JdbcValueSetDataServiceImpl.class);
 
+    private static final String CONTENT_HASH_SQL = "sha256(convert_to(:json_blob, 'UTF8'))";
+
     private final NamedParameterJdbcTemplate jt;
-    private final SimpleJdbcInsert valueSetInsert;
     private final int maxHistory;
 
     public JdbcValueSetDataServiceImpl(DataSource dataSource, int maxHistory) {
         this.jt = new NamedParameterJdbcTemplate(dataSource);
-        this.valueSetInsert =
-                new SimpleJdbcInsert(dataSource)
-                        .withTableName("t_value_set_data")
-                        .usingGeneratedKeyColumns("pk_value_set_data_id", "created_at");
         this.maxHistory = maxHistory;
     }
 
     @Override
     @Transactional(readOnly = false)
-    public void insertValueSets(Map<String, String> valueSetsById) throws JsonProcessingException {
-        if (valueSetsById != null && !valueSetsById.isEmpty()) {
-            valueSetInsert.executeBatch(createValueSetBatchParams(valueSetsById));
+    public int insertValueSets(Map<String, String> valueSetsById) throws JsonProcessingException {
+        if (valueSetsById == null || valueSetsById.isEmpty()) {
+            return 0;
+        }
+        // unchanged value sets insert nothing, so they neither grow the history nor bump the
+        // value set generation
+        int[] insertCounts =
+                jt.batchUpdate(
+                        "insert into t_value_set_data"
+                                + " (value_set_id, value_set_date, json_blob, value_set_codes,"
+                                + " content_hash)"
+                                + " select :value_set_id, :value_set_date, :json_blob,"
+                                + " cast(:value_set_codes as text[]), "
+                                + CONTENT_HASH_SQL
+                                + " where "
+                                + CONTENT_HASH_SQL
+                                + " is distinct from"
+                                + " (select content_hash from t_value_set_data"
+                                + " where value_set_id = :value_set_id"
+                                + " order by created_at desc, pk_value_set_data_id desc"
+                                + " limit 1)",
+                        createValueSetBatchParams(valueSetsById));
+        int inserted = 0;
+        for (int insertCount : insertCounts) {
+            // the driver may not report the counts of batched statements
+            inserted += insertCount == Statement.SUCCESS_NO_INFO ? 1 : insertCount;
         }
+        return inserted;
     }
 
     private SqlParameterSource[] createValueSetBatchParams(Map<String, String> valueSetsById)
@@ -71,6 +94,14 @@ public class JdbcValueSetDataServiceImpl implements ValueSetDataService {
         Map valueSets = new ObjectMapper().readValue(jsonBlob, Map.class);
         params.addValue("value_set_date", Date.valueOf(((String) valueSets.get("valueSetDate"))));
         params.addValue("json_blob", jsonBlob);
+        Object valueSetValues = valueSets.get("valueSetValues");
+        if (valueSetValues instanceof Map) {
+            // jackson keeps the document order of the keys
+            String[] codes = ((Map<String, ?>) valueSetValues).keySet().toArray(String[]::new);
+            params.addValue("value_set_codes", codes);
+        } else {
+            params.addValue("value_set_codes", null);
+        }
         return params;
     }
 
@@ -81,7 +112,7 @@ public class JdbcValueSetDataServiceImpl implements ValueSetDataService {
             return jt.queryForObject(
                     "select json_blob from t_value_set_data"
                             + " where value_set_id = :value_set_id"
-                            + " order by created_at desc"
+                            + " order by created_at desc, pk_value_set_data_id desc"
                             + " limit 1",
                     new MapSqlParameterSource("value_set_id", valueSetId),
                     String.class);
@@ -90,28 +121,30 @@ public class JdbcValueSetDataServiceImpl implements ValueSetDataService {
         }
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public List<DbValueSet> findLatestValueSets() {
+        return jt.query(
+                "select distinct on (value_set_id) value_set_id, json_blob, value_set_codes"
+                        + " from t_value_set_data"
+                        + " order by value_set_id, created_at desc, pk_value_set_data_id desc",
+                new ValueSetRowMapper());
+    }
+
     @Override
     @Transactional(readOnly = false)
     public void deleteOldValueSets() {
-        List<String> valueSetIds = findAllValueSetIds();
-        for (String valueSetId : valueSetIds) {
-            String pksToKeepSubquery =
-                    "select pk_value_set_data_id from t_value_set_data"
-                            + " where value_set_id = :value_set_id"
-                            + " order by created_at desc"
-                            + " limit :max_history";
-            MapSqlParameterSource params = new MapSqlParameterSource();
-            params.addValue("value_set_id", valueSetId);
-            params.addValue("max_history", maxHistory);
-            int removed =
-                    jt.update(
-                            "delete from t_value_set_data"
-                                    + " where value_set_id = :value_set_id and pk_value_set_data_id not in ("
-                                    + pksToKeepSubquery
-                                    + ")",
-                            params);
-            logger.debug("removed {} old entries for valueSetId {}", removed, valueSetId);
-        }
+        int removed =
+                jt.update(
+                        "delete from t_value_set_data where pk_value_set_data_id in"
+                                + " (select pk_value_set_data_id from"
+                                + " (select pk_value_set_data_id, row_number() over"
+                                + " (partition by value_set_id"
+                                + " order by created_at desc, pk_value_set_data_id desc) as n"
+                                + " from t_value_set_data) versions"
+                                + " where versions.n > :max_history)",
+                        new MapSqlParameterSource("max_history", maxHistory));
+        logger.debug("removed {} old value set entries", removed);
     }
 
     public List<String> findAllValueSetIds() {
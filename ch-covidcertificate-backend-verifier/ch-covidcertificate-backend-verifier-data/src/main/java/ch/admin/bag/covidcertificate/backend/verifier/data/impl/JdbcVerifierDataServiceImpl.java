@@ -14,9 +14,11 @@ import ch.admin.bag.covidcertificate.backend.verifier.data.VerifierDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.mapper.ClientCertRowMapper;
 import ch.admin.bag.covidcertificate.backend.verifier.data.mapper.CscaRowMapper;
 import ch.admin.bag.covidcertificate.backend.verifier.data.mapper.DscRowMapper;
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.DscJsonUtil;
 import ch.admin.bag.covidcertificate.backend.verifier.model.CertSource;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.DscBatchInfo;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbCsca;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbDsc;
 import ch.admin.bag.covidcertificate.backend.verifier.model.exception.DgcSyncException;
@@ -24,25 +26,36 @@ import ch.admin.bag.covidcertificate.backend.verifier.model.sync.DscRestoreRespo
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 public class JdbcVerifierDataServiceImpl implements VerifierDataService {
 
     private static final Logger logger = LoggerFactory.getLogger(JdbcVerifierDataServiceImpl.class);
 
+    private static final String ALL_ORIGINS_SCOPE = "";
+    private static final int STREAMING_FETCH_SIZE = 100;
+
     private final int dscBatchSize;
     private final NamedParameterJdbcTemplate jt;
+    private final NamedParameterJdbcTemplate streamingJt;
     private final SimpleJdbcInsert cscaInsert;
     private final SimpleJdbcInsert dscInsert;
     private final Duration keepDscsMarkedForDeletionDuration;
@@ -51,6 +64,9 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
             DataSource dataSource, int dscBatchSize, Duration keepDscsMarkedForDeletionDuration) {
         this.dscBatchSize = dscBatchSize;
         this.jt = new NamedParameterJdbcTemplate(dataSource);
+        JdbcTemplate streamingJdbcTemplate = new JdbcTemplate(dataSource);
+        streamingJdbcTemplate.setFetchSize(STREAMING_FETCH_SIZE);
+        this.streamingJt = new NamedParameterJdbcTemplate(streamingJdbcTemplate);
         this.cscaInsert =
                 new SimpleJdbcInsert(dataSource)
                         .withTableName("t_country_specific_certificate_authority")
@@ -125,6 +141,7 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
                 batchParams.add(getDscParams(dbDsc, CertSource.SYNC));
             }
             dscInsert.executeBatch(batchParams.toArray(new SqlParameterSource[batchParams.size()]));
+            updateDscDigests();
         }
     }
 
@@ -132,6 +149,46 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
     @Transactional(readOnly = false)
     public void insertManualDsc(DbDsc dsc) {
         dscInsert.execute(getDscParams(dsc, CertSource.MANUAL));
+        updateDscDigests();
+    }
+
+    @Override
+    @Transactional
+    public int fillMissingDscJsons() {
+        List<String> jsonColumns =
+                Arrays.stream(CertFormat.values())
+                        .map(DscJsonUtil::getJsonColumn)
+                        .collect(Collectors.toList());
+        List<DbDsc> dscs =
+                jt.query(
+                        "select * from t_document_signer_certificate where "
+                                + jsonColumns.stream()
+                                        .map(column -> column + " is null")
+                                        .collect(Collectors.joining(" or ")),
+                        new MapSqlParameterSource(),
+                        new DscRowMapper());
+        if (dscs.isEmpty()) {
+            // don't issue an empty update, it would still bump the DSC data generation
+            return 0;
+        }
+        String sql =
+                "update t_document_signer_certificate set "
+                        + jsonColumns.stream()
+                                .map(column -> column + " = :" + column)
+                                .collect(Collectors.joining(", "))
+                        + " where pk_dsc_id = :pk_dsc_id";
+        List<SqlParameterSource> batchParams = new ArrayList<>();
+        for (DbDsc dsc : dscs) {
+            var params = new MapSqlParameterSource();
+            params.addValue("pk_dsc_id", dsc.getId());
+            for (CertFormat certFormat : CertFormat.values()) {
+                params.addValue(
+                        DscJsonUtil.getJsonColumn(certFormat), DscJsonUtil.toJson(dsc, certFormat));
+            }
+            batchParams.add(params);
+        }
+        jt.batchUpdate(sql, batchParams.toArray(new SqlParameterSource[0]));
+        return dscs.size();
     }
 
     @Override
@@ -147,7 +204,9 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
             params.addValue("manual", CertSource.MANUAL.name());
             params.addValue("now", Date.from(Instant.now()));
             params.addValue("kids", keyIdsToKeep);
-            return jt.update(sql, params);
+            int removed = jt.update(sql, params);
+            updateDscDigests();
+            return removed;
         } else {
             throw new DgcSyncException(new Exception("empty DSC list to keep"));
         }
@@ -172,7 +231,9 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
             params.addValue("csca_key_ids", cscaKidsToKeep);
             params.addValue("manual", CertSource.MANUAL.name());
             params.addValue("now", Date.from(Instant.now()));
-            return jt.update(sql, params);
+            int removed = jt.update(sql, params);
+            updateDscDigests();
+            return removed;
         } else {
             throw new DgcSyncException(new Exception("empty CSCA list to keep"));
         }
@@ -185,7 +246,8 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
                 "select distinct on (key_id) * from t_document_signer_certificate"
                         + " where deleted_at is not null"
                         + " and key_id not in"
-                        + " (select key_id from t_document_signer_certificate where deleted_at is null)";
+                        + " (select key_id from t_document_signer_certificate where deleted_at is null)"
+                        + " order by key_id, deleted_at desc";
         return jt.query(sql, new MapSqlParameterSource(), new DscRowMapper());
     }
 
@@ -220,17 +282,7 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
     @Override
     @Transactional(readOnly = true)
     public List<ClientCert> findDscs(Long since, CertFormat certFormat, Long upTo) {
-        List<String> formatSpecificSelectFields;
-        switch (certFormat) {
-            case IOS:
-                formatSpecificSelectFields = List.of("subject_public_key_info");
-                break;
-            case ANDROID:
-                formatSpecificSelectFields = List.of("n", "e");
-                break;
-            default:
-                throw new RuntimeException("unexpected cert format received: " + certFormat);
-        }
+        List<String> formatSpecificSelectFields = getFormatSpecificSelectFields(certFormat);
 
         String sql =
                 "select pk_dsc_id,"
@@ -261,17 +313,7 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
     @Transactional(readOnly = true)
     public List<ClientCert> findDscsByCountry(
             Long since, CertFormat certFormat, Long upTo, String country) {
-        List<String> formatSpecificSelectFields;
-        switch (certFormat) {
-            case IOS:
-                formatSpecificSelectFields = List.of("subject_public_key_info");
-                break;
-            case ANDROID:
-                formatSpecificSelectFields = List.of("n", "e");
-                break;
-            default:
-                throw new RuntimeException("unexpected cert format received: " + certFormat);
-        }
+        List<String> formatSpecificSelectFields = getFormatSpecificSelectFields(certFormat);
 
         String sql =
                 "select pk_dsc_id,"
@@ -299,11 +341,20 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
         return jt.query(sql, params, new ClientCertRowMapper(certFormat));
     }
 
-    /** @deprecated only used in KeyController V1 */
+    private List<String> getFormatSpecificSelectFields(CertFormat certFormat) {
+        switch (certFormat) {
+            case IOS:
+                return List.of("subject_public_key_info");
+            case ANDROID:
+                return List.of("n", "e");
+            default:
+                throw new RuntimeException("unexpected cert format received: " + certFormat);
+        }
+    }
+
     @Override
     @Transactional(readOnly = true)
-    @Deprecated(since = "KeyControllerV2", forRemoval = true)
-    public List<ClientCert> findDscsBefore(Long since, CertFormat certFormat, Date importedBefore) {
+    public List<ClientCert> findActiveDscs(CertFormat certFormat) {
         String sql =
                 "select pk_dsc_id,"
                         + " key_id,"
@@ -313,21 +364,156 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
                         + " crv,"
                         + " x,"
                         + " y, "
-                        + "subject_public_key_info, "
-                        + "n, e"
+                        + String.join(", ", getFormatSpecificSelectFields(certFormat))
+                        + ", imported_at, "
+                        + DscJsonUtil.getJsonColumn(certFormat)
                         + " from t_document_signer_certificate"
+                        + " where deleted_at is null"
+                        + " order by pk_dsc_id asc";
+        ClientCertRowMapper clientCertRowMapper = new ClientCertRowMapper(certFormat);
+        return jt.query(
+                sql,
+                new MapSqlParameterSource(),
+                (rs, rowNum) -> {
+                    ClientCert clientCert = clientCertRowMapper.mapRow(rs, rowNum);
+                    clientCert.setImportedAt(rs.getTimestamp("imported_at").toInstant());
+                    clientCert.setJson(rs.getString(DscJsonUtil.getJsonColumn(certFormat)));
+                    return clientCert;
+                });
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public String findActiveDscFingerprint() {
+        try {
+            String sql =
+                    "select generation || ':' || digest from t_dsc_digest where scope = :scope";
+            return jt.queryForObject(
+                    sql, new MapSqlParameterSource("scope", ALL_ORIGINS_SCOPE), String.class);
+        } catch (EmptyResultDataAccessException e) {
+            return "";
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public String findDscDigest() {
+        try {
+            String sql = "select digest from t_dsc_digest where scope = :scope";
+            return jt.queryForObject(
+                    sql, new MapSqlParameterSource("scope", ALL_ORIGINS_SCOPE), String.class);
+        } catch (EmptyResultDataAccessException e) {
+            return "";
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<String, String> findDscDigestsByOrigin() {
+        String sql = "select scope, digest from t_dsc_digest where scope != :scope";
+        Map<String, String> digests = new HashMap<>();
+        jt.query(
+                sql,
+                new MapSqlParameterSource("scope", ALL_ORIGINS_SCOPE),
+                rs -> {
+                    digests.put(rs.getString("scope"), rs.getString("digest"));
+                });
+        return digests;
+    }
+
+    /**
+     * recomputes the sha256 digests of the active DSCs (see V0_14__dsc_digest.sql). must be called
+     * after every write that changes the set of active DSCs
+     */
+    private void updateDscDigests() {
+        jt.getJdbcOperations().execute("select update_dsc_digests()");
+    }
+
+    /** @deprecated only used in KeyController V1 */
+    @Override
+    @Transactional(readOnly = true)
+    @Deprecated(since = "KeyControllerV2", forRemoval = true)
+    public List<ClientCert> findDscsBefore(Long since, CertFormat certFormat, Date importedBefore) {
+        return jt.query(
+                getDscsBeforeSql(),
+                getDscsBeforeParams(since, importedBefore),
+                new ClientCertRowMapper(certFormat));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    @Deprecated(since = "KeyControllerV2", forRemoval = true)
+    public DscBatchInfo findDscBatchInfoBefore(Long since, Date importedBefore) {
+        String sql =
+                "select count(*) as batch_size, max(pk_dsc_id) as max_pk_dsc_id from ("
+                        + " select pk_dsc_id from t_document_signer_certificate"
                         + " where pk_dsc_id > :pk_dsc_id"
                         + " and imported_at < :before"
                         + " and deleted_at is null"
                         + " order by pk_dsc_id asc"
-                        + " limit :batch_size";
+                        + " limit :batch_size) batch";
+        return jt.queryForObject(
+                sql,
+                getDscsBeforeParams(since, importedBefore),
+                (rs, i) ->
+                        new DscBatchInfo(
+                                rs.getInt("batch_size"), rs.getObject("max_pk_dsc_id", Long.class)));
+    }
 
+    @Override
+    // a single snapshot for the batch info and the rows, even if DSCs are imported in between
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    @Deprecated(since = "KeyControllerV2", forRemoval = true)
+    public void streamDscsBefore(
+            Long since,
+            CertFormat certFormat,
+            Date importedBefore,
+            Consumer<DscBatchInfo> batchInfoConsumer,
+            Consumer<ClientCert> consumer) {
+        batchInfoConsumer.accept(findDscBatchInfoBefore(since, importedBefore));
+        ClientCertRowMapper rowMapper = new ClientCertRowMapper(certFormat);
+        // runs inside a transaction so the driver honours the fetch size and doesn't buffer the
+        // whole batch
+        streamingJt.query(
+                getDscsBeforeSql(DscJsonUtil.getJsonColumn(certFormat)),
+                getDscsBeforeParams(since, importedBefore),
+                (RowCallbackHandler)
+                        rs -> {
+                            ClientCert clientCert = rowMapper.mapRow(rs, rs.getRow());
+                            clientCert.setJson(
+                                    rs.getString(DscJsonUtil.getJsonColumn(certFormat)));
+                            consumer.accept(clientCert);
+                        });
+    }
+
+    private String getDscsBeforeSql(String... additionalSelectFields) {
+        return "select pk_dsc_id,"
+                + " key_id,"
+                + " origin,"
+                + " use,"
+                + " alg,"
+                + " crv,"
+                + " x,"
+                + " y, "
+                + "subject_public_key_info, "
+                + "n, e"
+                + Arrays.stream(additionalSelectFields)
+                        .map(field -> ", " + field)
+                        .collect(Collectors.joining())
+                + " from t_document_signer_certificate"
+                + " where pk_dsc_id > :pk_dsc_id"
+                + " and imported_at < :before"
+                + " and deleted_at is null"
+                + " order by pk_dsc_id asc"
+                + " limit :batch_size";
+    }
+
+    private MapSqlParameterSource getDscsBeforeParams(Long since, Date importedBefore) {
         var params = new MapSqlParameterSource();
         params.addValue("pk_dsc_id", since);
         params.addValue("batch_size", dscBatchSize);
         params.addValue("before", importedBefore);
-
-        return jt.query(sql, params, new ClientCertRowMapper(certFormat));
+        return params;
     }
 
     @Override
@@ -429,6 +615,10 @@ public class JdbcVerifierDataServiceImpl implements VerifierDataService {
         params.addValue("y", dbDsc.getY());
         params.addValue("source", source.name());
         params.addValue("deleted_at", null);
+        for (CertFormat certFormat : CertFormat.values()) {
+            params.addValue(
+                    DscJsonUtil.getJsonColumn(certFormat), DscJsonUtil.toJson(dbDsc, certFormat));
+        }
         return params;
     }
 
@@ -30,6 +30,7 @@ public class ClientCertRowMapper implements RowMapper<ClientCert> {
         var clientCert = new ClientCert();
         clientCert.setPkId(rs.getLong("pk_dsc_id"));
         clientCert.setKeyId(rs.getString("key_id"));
+        clientCert.setOrigin(rs.getString("origin"));
         clientCert.setUse(rs.getString("use"));
         Algorithm alg = Algorithm.valueOf(rs.getString("alg"));
         clientCert.setAlg(alg);
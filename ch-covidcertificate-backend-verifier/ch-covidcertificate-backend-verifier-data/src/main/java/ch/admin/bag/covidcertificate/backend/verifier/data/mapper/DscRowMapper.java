@@ -14,6 +14,7 @@ import ch.admin.bag.covidcertificate.backend.verifier.model.cert.Algorithm;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbDsc;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import org.springframework.jdbc.core.RowMapper;
 
 public class DscRowMapper implements RowMapper<DbDsc> {
@@ -26,6 +27,8 @@ public class DscRowMapper implements RowMapper<DbDsc> {
         dbDsc.setFkCsca(rs.getLong("fk_csca_id"));
         dbDsc.setCertificateRaw(rs.getString("certificate_raw"));
         dbDsc.setImportedAt(rs.getTimestamp("imported_at").toInstant());
+        Timestamp deletedAt = rs.getTimestamp("deleted_at");
+        dbDsc.setDeletedAt(deletedAt != null ? deletedAt.toInstant() : null);
         dbDsc.setOrigin(rs.getString("origin"));
         dbDsc.setUse(rs.getString("use"));
         dbDsc.setAlg(Algorithm.valueOf(rs.getString("alg")));
@@ -24,8 +24,8 @@ public class ForeignRulesRowMapper implements RowMapper<ForeignRule> {
         rule.setId(resultSet.getString("rule_id"));
         rule.setVersion(resultSet.getString("rule_version"));
         rule.setContent(resultSet.getString("rule_content"));
-        rule.setValidFrom(resultSet.getTimestamp("valid_from").toLocalDateTime());
-        rule.setValidUntil(resultSet.getTimestamp("valid_until").toLocalDateTime());
+        rule.setValidFrom(resultSet.getTimestamp("valid_from").toInstant());
+        rule.setValidUntil(resultSet.getTimestamp("valid_until").toInstant());
         return rule;
     }
 }
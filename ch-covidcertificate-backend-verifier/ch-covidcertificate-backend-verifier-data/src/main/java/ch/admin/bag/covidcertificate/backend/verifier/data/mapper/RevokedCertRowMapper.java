@@ -22,6 +22,7 @@ public class RevokedCertRowMapper implements RowMapper<DbRevokedCert> {
         var revokedCert = new DbRevokedCert();
         revokedCert.setPkId(resultSet.getLong("pk_revoked_cert_id"));
         revokedCert.setUvci(resultSet.getString("uvci"));
+        revokedCert.setImportedAt(resultSet.getTimestamp("imported_at").toInstant());
         return revokedCert;
     }
 }
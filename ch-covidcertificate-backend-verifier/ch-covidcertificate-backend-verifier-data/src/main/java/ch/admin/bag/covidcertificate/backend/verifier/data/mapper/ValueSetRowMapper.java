@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.data.mapper;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.DbValueSet;
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.springframework.jdbc.core.RowMapper;
+
+public class ValueSetRowMapper implements RowMapper<DbValueSet> {
+
+    @Override
+    public DbValueSet mapRow(ResultSet resultSet, int i) throws SQLException {
+        var valueSet = new DbValueSet();
+        valueSet.setValueSetId(resultSet.getString("value_set_id"));
+        valueSet.setJsonBlob(resultSet.getString("json_blob"));
+        Array codes = resultSet.getArray("value_set_codes");
+        if (codes != null) {
+            valueSet.setCodes(Arrays.asList((String[]) codes.getArray()));
+        }
+        return valueSet;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.data.util;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbDsc;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Renders the JSON of a DSC as it is served to the apps in a given {@link CertFormat}. The result
+ * is stored alongside the DSC so pages can be built without mapping and serializing every cert.
+ */
+public class DscJsonUtil {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private DscJsonUtil() {}
+
+    /** returns the column holding the pre-rendered JSON of a DSC in the given format */
+    public static String getJsonColumn(CertFormat certFormat) {
+        switch (certFormat) {
+            case IOS:
+                return "json_ios";
+            case ANDROID:
+                return "json_android";
+            default:
+                throw new IllegalArgumentException("unknown cert format " + certFormat);
+        }
+    }
+
+    /** maps the DSC exactly like ClientCertRowMapper maps the stored row */
+    public static ClientCert toClientCert(DbDsc dsc, CertFormat certFormat) {
+        var clientCert = new ClientCert();
+        clientCert.setPkId(dsc.getId());
+        clientCert.setKeyId(dsc.getKeyId());
+        clientCert.setOrigin(dsc.getOrigin());
+        clientCert.setUse(dsc.getUse());
+        clientCert.setAlg(dsc.getAlg());
+        switch (dsc.getAlg()) {
+            case ES256:
+                clientCert.setCrv(dsc.getCrv());
+                clientCert.setX(dsc.getX());
+                clientCert.setY(dsc.getY());
+                break;
+            case RS256:
+                switch (certFormat) {
+                    case IOS:
+                        clientCert.setSubjectPublicKeyInfo(dsc.getSubjectPublicKeyInfo());
+                        break;
+                    case ANDROID:
+                        clientCert.setN(dsc.getN());
+                        clientCert.setE(dsc.getE());
+                        break;
+                }
+                break;
+        }
+        return clientCert;
+    }
+
+    public static String toJson(DbDsc dsc, CertFormat certFormat) {
+        try {
+            return objectMapper.writeValueAsString(toClientCert(dsc, certFormat));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("couldn't serialize DSC " + dsc.getKeyId(), e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+CREATE TABLE t_dsc_digest
+(
+    scope VARCHAR(10) NOT NULL,
+    generation BIGINT NOT NULL,
+    digest CHAR(64) NOT NULL,
+    updated_at timestamp with time zone NOT NULL,
+    CONSTRAINT dsc_digest_pk_scope PRIMARY KEY (scope)
+);
+
+-- sha256 over (pk_dsc_id, key_id) of all active DSCs ordered by pk_dsc_id. scope '' covers all
+-- origins, every other scope a single origin. the generation is only bumped if the digest changed
+CREATE FUNCTION update_dsc_digests() RETURNS void AS $$
+    WITH current_digest AS (
+        SELECT '' AS scope,
+               encode(sha256(convert_to(coalesce(
+                   string_agg(pk_dsc_id || ':' || key_id, ',' ORDER BY pk_dsc_id), ''), 'UTF8')), 'hex') AS digest
+        FROM t_document_signer_certificate
+        WHERE deleted_at IS NULL
+        UNION ALL
+        SELECT origin,
+               encode(sha256(convert_to(
+                   string_agg(pk_dsc_id || ':' || key_id, ',' ORDER BY pk_dsc_id), 'UTF8')), 'hex')
+        FROM t_document_signer_certificate
+        WHERE deleted_at IS NULL
+        GROUP BY origin
+        UNION ALL
+        SELECT scope, encode(sha256(''::bytea), 'hex')
+        FROM t_dsc_digest
+        WHERE scope <> ''
+          AND scope NOT IN (SELECT origin FROM t_document_signer_certificate WHERE deleted_at IS NULL)
+    )
+    INSERT INTO t_dsc_digest (scope, generation, digest, updated_at)
+    SELECT scope, 1, digest, now() FROM current_digest
+    ON CONFLICT (scope) DO UPDATE
+        SET generation = t_dsc_digest.generation + 1,
+            digest = excluded.digest,
+            updated_at = excluded.updated_at
+        WHERE t_dsc_digest.digest <> excluded.digest;
+$$ LANGUAGE sql;
+
+SELECT update_dsc_digests();
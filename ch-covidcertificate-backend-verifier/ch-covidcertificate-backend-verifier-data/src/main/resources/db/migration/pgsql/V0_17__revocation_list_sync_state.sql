@@ -0,0 +1,12 @@
+-- validators and digest of the last applied upstream revocation list, shared by all instances so
+-- whichever instance holds the sync lock can send a conditional request
+CREATE TABLE t_revocation_list_sync_state
+(
+    id             integer                  NOT NULL DEFAULT 1,
+    etag           TEXT,
+    last_modified  TEXT,
+    content_digest CHARACTER VARYING(64)    NOT NULL,
+    updated_at     TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now(),
+    CONSTRAINT pk_t_revocation_list_sync_state PRIMARY KEY (id),
+    CONSTRAINT single_row CHECK (id = 1)
+);
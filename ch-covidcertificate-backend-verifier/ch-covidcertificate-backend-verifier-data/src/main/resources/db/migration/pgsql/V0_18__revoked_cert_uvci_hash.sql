@@ -0,0 +1,10 @@
+-- first 16 bytes of SHA-256(uvci) for hash prefix queries. new revoked certs get the hash on
+-- insert, existing ones are filled in batches by the uvci hash backfill
+ALTER TABLE t_revoked_cert ADD COLUMN uvci_hash BYTEA;
+CREATE INDEX idx_revoked_cert_uvci_hash ON t_revoked_cert (uvci_hash);
+
+-- filling in the hash doesn't change the revoked certs, don't bump their generation for it
+DROP TRIGGER trg_revoked_cert_data_generation ON t_revoked_cert;
+CREATE TRIGGER trg_revoked_cert_data_generation
+    AFTER INSERT OR UPDATE OF uvci, imported_at OR DELETE OR TRUNCATE ON t_revoked_cert
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_data_generation('REVOKED_CERT');
@@ -0,0 +1,2 @@
+-- the foreign rules are always read per country
+CREATE INDEX idx_foreign_rules_country ON t_foreign_rules (country);
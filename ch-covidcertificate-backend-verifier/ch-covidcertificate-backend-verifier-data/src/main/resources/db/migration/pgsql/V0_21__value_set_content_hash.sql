@@ -0,0 +1,38 @@
+-- SHA-256 of json_blob, value sets are only inserted if their content differs from the latest
+-- version stored for the same value set id
+ALTER TABLE t_value_set_data ADD COLUMN content_hash BYTEA;
+UPDATE t_value_set_data SET content_hash = sha256(convert_to(json_blob, 'UTF8'));
+ALTER TABLE t_value_set_data ALTER COLUMN content_hash SET NOT NULL;
+
+-- like bump_data_generation, but only if the statement changed any rows. expects the transition
+-- table of the trigger to be called changed_rows
+CREATE FUNCTION bump_data_generation_if_changed() RETURNS trigger AS $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM changed_rows) THEN
+        UPDATE t_data_generation
+        SET generation = generation + 1, updated_at = now()
+        WHERE data_type = TG_ARGV[0];
+        PERFORM pg_notify('data_generation', TG_ARGV[0]);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- inserts of unchanged value sets and cleanups without old versions don't touch any rows, they
+-- must not invalidate the value set caches
+DROP TRIGGER trg_value_set_data_generation ON t_value_set_data;
+CREATE TRIGGER trg_value_set_data_generation_insert
+    AFTER INSERT ON t_value_set_data
+    REFERENCING NEW TABLE AS changed_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_data_generation_if_changed('VALUE_SET');
+CREATE TRIGGER trg_value_set_data_generation_update
+    AFTER UPDATE ON t_value_set_data
+    REFERENCING NEW TABLE AS changed_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_data_generation_if_changed('VALUE_SET');
+CREATE TRIGGER trg_value_set_data_generation_delete
+    AFTER DELETE ON t_value_set_data
+    REFERENCING OLD TABLE AS changed_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_data_generation_if_changed('VALUE_SET');
+CREATE TRIGGER trg_value_set_data_generation_truncate
+    AFTER TRUNCATE ON t_value_set_data
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_data_generation('VALUE_SET');
@@ -0,0 +1,41 @@
+CREATE TABLE t_data_generation
+(
+    data_type VARCHAR(32) NOT NULL,
+    generation BIGINT NOT NULL,
+    updated_at timestamp with time zone NOT NULL,
+    CONSTRAINT data_generation_pk_data_type PRIMARY KEY (data_type)
+);
+
+INSERT INTO t_data_generation (data_type, generation, updated_at)
+VALUES ('DSC', 1, now()),
+       ('REVOKED_CERT', 1, now()),
+       ('VALUE_SET', 1, now()),
+       ('FOREIGN_RULES', 1, now());
+
+-- bumps the generation of the data type given as trigger argument and notifies listeners on
+-- channel 'data_generation'. notifications are only delivered once the transaction commits
+CREATE FUNCTION bump_data_generation() RETURNS trigger AS $$
+BEGIN
+    UPDATE t_data_generation
+    SET generation = generation + 1, updated_at = now()
+    WHERE data_type = TG_ARGV[0];
+    PERFORM pg_notify('data_generation', TG_ARGV[0]);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trg_dsc_data_generation
+    AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON t_document_signer_certificate
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_data_generation('DSC');
+
+CREATE TRIGGER trg_revoked_cert_data_generation
+    AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON t_revoked_cert
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_data_generation('REVOKED_CERT');
+
+CREATE TRIGGER trg_value_set_data_generation
+    AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON t_value_set_data
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_data_generation('VALUE_SET');
+
+CREATE TRIGGER trg_foreign_rules_data_generation
+    AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON t_foreign_rules
+    FOR EACH STATEMENT EXECUTE FUNCTION bump_data_generation('FOREIGN_RULES');
@@ -0,0 +1,5 @@
+-- JSON of each DSC as served to the apps, rendered on insert. rows inserted before this migration
+-- are filled in by the next DSC sync
+ALTER TABLE t_document_signer_certificate
+    ADD COLUMN json_ios TEXT,
+    ADD COLUMN json_android TEXT;
@@ -0,0 +1,14 @@
+-- the codes (keys of valueSetValues) of every value set in document order, so readers don't have
+-- to parse the json blob for them. null if the value set has no valueSetValues object
+ALTER TABLE t_value_set_data ADD COLUMN value_set_codes TEXT[];
+
+UPDATE t_value_set_data
+SET value_set_codes = ARRAY(
+    SELECT codes.code
+    FROM json_object_keys(json_blob::json -> 'valueSetValues') WITH ORDINALITY AS codes(code, n)
+    ORDER BY codes.n)
+WHERE json_typeof(json_blob::json -> 'valueSetValues') = 'object';
+
+-- latest version of every value set (distinct on value_set_id ... order by created_at desc)
+CREATE INDEX idx_value_set_data_value_set_id_created_at
+    ON t_value_set_data (value_set_id, created_at DESC);
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+class DataGenerationDataServiceTest extends BaseDataServiceTest {
+
+    @Autowired DataGenerationDataService dataGenerationDataService;
+    @Autowired VerifierDataService verifierDataService;
+    @Autowired RevokedCertDataService revokedCertDataService;
+    @Autowired ForeignRulesDataService foreignRulesDataService;
+
+    @Test
+    void findGenerationsTest() {
+        Map<DataType, Long> generations = dataGenerationDataService.findGenerations();
+        assertEquals(DataType.values().length, generations.size());
+        for (DataType dataType : DataType.values()) {
+            assertTrue(generations.get(dataType) >= 1);
+        }
+    }
+
+    @Test
+    void generationBumpedOnWriteTest() throws Exception {
+        Map<DataType, Long> before = dataGenerationDataService.findGenerations();
+
+        verifierDataService.removeDscsNotIn(List.of("keyid"));
+        Map<DataType, Long> afterDsc = dataGenerationDataService.findGenerations();
+        assertTrue(afterDsc.get(DataType.DSC) > before.get(DataType.DSC));
+        assertEquals(before.get(DataType.REVOKED_CERT), afterDsc.get(DataType.REVOKED_CERT));
+
+        revokedCertDataService.replaceRevokedCerts(Set.of("urn:uvci:01:CH:generation"));
+        Map<DataType, Long> afterRevoked = dataGenerationDataService.findGenerations();
+        assertTrue(
+                afterRevoked.get(DataType.REVOKED_CERT) > afterDsc.get(DataType.REVOKED_CERT));
+        assertEquals(afterDsc.get(DataType.DSC), afterRevoked.get(DataType.DSC));
+
+        foreignRulesDataService.removeRuleSet("DE");
+        Map<DataType, Long> afterRules = dataGenerationDataService.findGenerations();
+        assertTrue(
+                afterRules.get(DataType.FOREIGN_RULES)
+                        > afterRevoked.get(DataType.FOREIGN_RULES));
+        assertEquals(
+                afterRevoked.get(DataType.REVOKED_CERT), afterRules.get(DataType.REVOKED_CERT));
+    }
+}
@@ -13,7 +13,7 @@ package ch.admin.bag.covidcertificate.backend.verifier.data;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import ch.admin.bag.covidcertificate.backend.verifier.model.ForeignRule;
-import java.time.LocalDateTime;
+import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import javax.sql.DataSource;
 import org.junit.jupiter.api.BeforeAll;
@@ -34,22 +34,22 @@ class ForeignRulesDataServiceTest extends BaseDataServiceTest {
         atRule = new ForeignRule();
         atRule.setId("GR-AT-0039");
         atRule.setVersion("0.0.1");
-        atRule.setValidFrom(LocalDateTime.now().minus(1, ChronoUnit.DAYS));
-        atRule.setValidUntil(LocalDateTime.now().plus(1, ChronoUnit.YEARS));
+        atRule.setValidFrom(Instant.now().minus(1, ChronoUnit.DAYS));
+        atRule.setValidUntil(Instant.now().plus(365, ChronoUnit.DAYS));
         atRule.setContent("{}");
         atRule.setCountry("AT");
         deRule1 = new ForeignRule();
         deRule1.setId("GR-DE-0039");
         deRule1.setVersion("0.0.1");
-        deRule1.setValidFrom(LocalDateTime.now().minus(1, ChronoUnit.DAYS));
-        deRule1.setValidUntil(LocalDateTime.now().plus(1, ChronoUnit.YEARS));
+        deRule1.setValidFrom(Instant.now().minus(1, ChronoUnit.DAYS));
+        deRule1.setValidUntil(Instant.now().plus(365, ChronoUnit.DAYS));
         deRule1.setContent("{}");
         deRule1.setCountry("DE");
         deRule2 = new ForeignRule();
         deRule2.setId("GR-DE-0039");
         deRule2.setVersion("0.0.2");
-        deRule2.setValidFrom(LocalDateTime.now().minus(1, ChronoUnit.HOURS));
-        deRule2.setValidUntil(LocalDateTime.now().plus(1, ChronoUnit.YEARS));
+        deRule2.setValidFrom(Instant.now().minus(1, ChronoUnit.HOURS));
+        deRule2.setValidUntil(Instant.now().plus(365, ChronoUnit.DAYS));
         deRule2.setContent("{}");
         deRule2.setCountry("DE");
         dataService.insertRule(atRule);
@@ -10,14 +10,29 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.data;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DbRevokedCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationListSyncState;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.RevokedCertsUpdateResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import javax.sql.DataSource;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 
 class RevokedCertDataServiceTest extends BaseDataServiceTest {
 
@@ -62,4 +77,139 @@ class RevokedCertDataServiceTest extends BaseDataServiceTest {
                 maxReleasedPkId + newRevokedCertCount,
                 revokedCertDataService.findMaxReleasedRevokedCertPkId(now));
     }
+
+    @Test
+    void streamReleasedRevokedCertsTest() {
+        Instant now = Instant.now();
+        int releasedRevokedCertCount = 20;
+        revokedCertDataService.replaceRevokedCerts(
+                TestUtil.getRevokedCertUvcis(releasedRevokedCertCount));
+        TestUtil.releaseRevokedCerts(jt, now);
+        revokedCertDataService.replaceRevokedCerts(
+                TestUtil.getRevokedCertUvcis(releasedRevokedCertCount + 10));
+
+        // streams exactly what the batched queries return, in pk id order
+        List<DbRevokedCert> streamed = new ArrayList<>();
+        revokedCertDataService.streamReleasedRevokedCerts(now, streamed::add);
+        List<DbRevokedCert> expected = revokedCertDataService.findReleasedRevokedCerts(0L, now);
+        assertEquals(releasedRevokedCertCount, streamed.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getPkId(), streamed.get(i).getPkId());
+            assertEquals(expected.get(i).getUvci(), streamed.get(i).getUvci());
+        }
+        assertEquals(
+                revokedCertDataService.findMaxReleasedRevokedCertPkId(now),
+                streamed.get(streamed.size() - 1).getPkId().longValue());
+    }
+
+    @Test
+    void streamRevokedCertsTest() {
+        Instant now = Instant.now();
+        int releasedRevokedCertCount = 20;
+        revokedCertDataService.replaceRevokedCerts(
+                TestUtil.getRevokedCertUvcis(releasedRevokedCertCount));
+        TestUtil.releaseRevokedCerts(jt, now);
+        revokedCertDataService.replaceRevokedCerts(
+                TestUtil.getRevokedCertUvcis(releasedRevokedCertCount + 10));
+
+        // unreleased certs are streamed as well, in pk id order
+        List<DbRevokedCert> streamed = new ArrayList<>();
+        revokedCertDataService.streamRevokedCerts(streamed::add);
+        assertEquals(releasedRevokedCertCount + 10, streamed.size());
+        for (int i = 1; i < streamed.size(); i++) {
+            assertTrue(streamed.get(i - 1).getPkId() < streamed.get(i).getPkId());
+        }
+    }
+
+    @Test
+    void uvciHashTest() throws NoSuchAlgorithmException {
+        TestUtil.clearRevokedCerts(jt);
+        Instant now = Instant.now();
+        List<String> uvcis = List.of("uvci_1", "uvci_2", "uvci_3", "uvci_4");
+        revokedCertDataService.replaceRevokedCerts(uvcis.iterator());
+        TestUtil.releaseRevokedCerts(jt, now);
+
+        // simulate certs stored before the hash column existed
+        jt.update(
+                "update t_revoked_cert set uvci_hash = null where uvci in ('uvci_2', 'uvci_3')",
+                new MapSqlParameterSource());
+        List<byte[]> streamed = new ArrayList<>();
+        revokedCertDataService.streamReleasedRevokedCertHashes(now, streamed::add);
+
+        // hashes missing in the db are computed on the fly and all of them match sha256
+        List<byte[]> expected = new ArrayList<>();
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        for (String uvci : uvcis) {
+            expected.add(
+                    Arrays.copyOf(
+                            sha256.digest(uvci.getBytes(StandardCharsets.UTF_8)),
+                            RevokedCertDataService.UVCI_HASH_LENGTH));
+        }
+        expected.sort(Arrays::compareUnsigned);
+        assertEquals(expected.size(), streamed.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), streamed.get(i));
+        }
+
+        assertEquals(1, revokedCertDataService.backfillUvciHashes(1));
+        assertEquals(1, revokedCertDataService.backfillUvciHashes(10));
+        assertEquals(0, revokedCertDataService.backfillUvciHashes(10));
+        assertEquals(
+                0,
+                jt.queryForObject(
+                                "select count(*) from t_revoked_cert where uvci_hash is null",
+                                new MapSqlParameterSource(),
+                                Integer.class)
+                        .intValue());
+    }
+
+    @Test
+    void replaceRevokedCertsTest() {
+        TestUtil.clearRevokedCerts(jt);
+        RevokedCertsUpdateResponse response =
+                revokedCertDataService.replaceRevokedCerts(
+                        List.of("uvci_1", "uvci_2", "uvci_2", "uvci_3").iterator());
+        assertEquals(3, response.getInsertCount());
+        assertEquals(0, response.getRemoveCount());
+
+        // inserts new, removes missing and keeps escaped characters intact
+        response =
+                revokedCertDataService.replaceRevokedCerts(
+                        List.of("uvci_2", "uvci_3", "uvci_4", "uvci\t\\5").iterator());
+        assertEquals(2, response.getInsertCount());
+        assertEquals(1, response.getRemoveCount());
+        assertEquals(
+                Set.of("uvci_2", "uvci_3", "uvci_4", "uvci\t\\5"),
+                new HashSet<>(
+                        jt.queryForList(
+                                "select uvci from t_revoked_cert",
+                                new MapSqlParameterSource(),
+                                String.class)));
+
+        // an empty list removes everything
+        response = revokedCertDataService.replaceRevokedCerts(Set.of());
+        assertEquals(0, response.getInsertCount());
+        assertEquals(4, response.getRemoveCount());
+    }
+
+    @Test
+    void revocationListSyncStateTest() {
+        jt.update("delete from t_revocation_list_sync_state", new MapSqlParameterSource());
+        assertNull(revokedCertDataService.findRevocationListSyncState());
+
+        revokedCertDataService.saveRevocationListSyncState(
+                new RevocationListSyncState("\"etag_1\"", null, "digest_1"));
+        RevocationListSyncState syncState = revokedCertDataService.findRevocationListSyncState();
+        assertEquals("\"etag_1\"", syncState.getEtag());
+        assertNull(syncState.getLastModified());
+        assertEquals("digest_1", syncState.getContentDigest());
+
+        // there is only ever one state
+        revokedCertDataService.saveRevocationListSyncState(
+                new RevocationListSyncState(null, "Mon, 01 Nov 2021 10:00:00 GMT", "digest_2"));
+        syncState = revokedCertDataService.findRevocationListSyncState();
+        assertNull(syncState.getEtag());
+        assertEquals("Mon, 01 Nov 2021 10:00:00 GMT", syncState.getLastModified());
+        assertEquals("digest_2", syncState.getContentDigest());
+    }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.DbValueSet;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+class ValueSetDataServiceTest extends BaseDataServiceTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ValueSetDataServiceTest.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Autowired ValueSetDataService valueSetDataService;
+
+    @BeforeEach
+    void clearValueSets() {
+        jt.update("delete from t_value_set_data", new MapSqlParameterSource());
+    }
+
+    @Test
+    void findLatestValueSetsTest() throws Exception {
+        valueSetDataService.insertValueSets(
+                Map.of("vs-a", valueSet("vs-a", 1, 3), "vs-b", valueSet("vs-b", 1, 2)));
+        valueSetDataService.insertValueSets(Map.of("vs-a", valueSet("vs-a", 2, 4)));
+        valueSetDataService.insertValueSets(
+                Map.of("vs-c", "{\"valueSetId\":\"vs-c\",\"valueSetDate\":\"2021-06-01\"}"));
+
+        List<DbValueSet> valueSets = valueSetDataService.findLatestValueSets();
+        assertEquals(3, valueSets.size());
+
+        DbValueSet a = valueSets.get(0);
+        assertEquals("vs-a", a.getValueSetId());
+        assertEquals(valueSetDataService.findLatestValueSet("vs-a"), a.getJsonBlob());
+        // codes of the latest version in document order
+        assertEquals(List.of("vs-a-2-3", "vs-a-2-2", "vs-a-2-1", "vs-a-2-0"), a.getCodes());
+
+        DbValueSet b = valueSets.get(1);
+        assertEquals("vs-b", b.getValueSetId());
+        assertEquals(List.of("vs-b-1-1", "vs-b-1-0"), b.getCodes());
+
+        DbValueSet c = valueSets.get(2);
+        assertEquals("vs-c", c.getValueSetId());
+        assertNull(c.getCodes());
+    }
+
+    @Test
+    void insertUnchangedValueSetsTest() throws Exception {
+        assertEquals(
+                2,
+                valueSetDataService.insertValueSets(
+                        Map.of("vs-a", valueSet("vs-a", 1, 3), "vs-b", valueSet("vs-b", 1, 2))));
+        long generation = getValueSetGeneration();
+
+        // same content again, nothing is written and the caches stay valid
+        assertEquals(
+                0,
+                valueSetDataService.insertValueSets(
+                        Map.of("vs-a", valueSet("vs-a", 1, 3), "vs-b", valueSet("vs-b", 1, 2))));
+        assertEquals(2, countValueSetRows());
+        assertEquals(generation, getValueSetGeneration());
+
+        // only the changed value set gets a new version
+        assertEquals(
+                1,
+                valueSetDataService.insertValueSets(
+                        Map.of("vs-a", valueSet("vs-a", 2, 3), "vs-b", valueSet("vs-b", 1, 2))));
+        assertEquals(3, countValueSetRows());
+        assertTrue(getValueSetGeneration() > generation);
+
+        // going back to a previous content is a change as well
+        assertEquals(
+                1, valueSetDataService.insertValueSets(Map.of("vs-a", valueSet("vs-a", 1, 3))));
+        assertEquals(valueSet("vs-a", 1, 3), valueSetDataService.findLatestValueSet("vs-a"));
+    }
+
+    @Test
+    void deleteOldValueSetsTest() throws Exception {
+        int maxHistory = 10;
+        for (int version = 1; version <= maxHistory + 2; version++) {
+            valueSetDataService.insertValueSets(Map.of("vs-a", valueSet("vs-a", version, 2)));
+        }
+        valueSetDataService.insertValueSets(Map.of("vs-b", valueSet("vs-b", 1, 2)));
+
+        valueSetDataService.deleteOldValueSets();
+        assertEquals(maxHistory + 1, countValueSetRows());
+        assertEquals(
+                valueSet("vs-a", maxHistory + 2, 2),
+                valueSetDataService.findLatestValueSet("vs-a"));
+        assertEquals(valueSet("vs-b", 1, 2), valueSetDataService.findLatestValueSet("vs-b"));
+
+        // nothing left to clean up
+        long generation = getValueSetGeneration();
+        valueSetDataService.deleteOldValueSets();
+        assertEquals(maxHistory + 1, countValueSetRows());
+        assertEquals(generation, getValueSetGeneration());
+    }
+
+    /**
+     * compares the bulk query with loading every value set by id and extracting its codes from the
+     * json blob, as the rules controllers used to do
+     */
+    @Test
+    void findLatestValueSetsMatchesPerIdLookupTest() throws Exception {
+        insertValueSetVersions(5, 3, 4);
+        assertEquals(findLatestCodesPerId(), findLatestCodesInBulk());
+    }
+
+    /**
+     * times the bulk query against the per id lookup on a realistic amount of value sets. Excluded
+     * from the default test run, run it with {@code -Dsurefire.excludedGroups=none
+     * -Dgroups=benchmark}
+     */
+    @Test
+    @Tag("benchmark")
+    void findLatestValueSetsBenchmark() throws Exception {
+        int valueSetCount = 30;
+        insertValueSetVersions(valueSetCount, 10, 500);
+
+        int iterations = 20;
+        Map<String, List<String>> loopResult = null;
+        Map<String, List<String>> bulkResult = null;
+        long loopNanos = 0;
+        long bulkNanos = 0;
+        // the first round only warms up the connection pool and the jit
+        for (int round = 0; round <= iterations; round++) {
+            long start = System.nanoTime();
+            loopResult = findLatestCodesPerId();
+            long loopEnd = System.nanoTime();
+            bulkResult = findLatestCodesInBulk();
+            long bulkEnd = System.nanoTime();
+            if (round > 0) {
+                loopNanos += loopEnd - start;
+                bulkNanos += bulkEnd - loopEnd;
+            }
+        }
+        logger.info(
+                "latest codes of {} value sets: per id loop {} us, bulk query {} us",
+                valueSetCount,
+                loopNanos / iterations / 1000,
+                bulkNanos / iterations / 1000);
+        assertEquals(loopResult, bulkResult);
+    }
+
+    private void insertValueSetVersions(int valueSetCount, int versions, int codeCount)
+            throws Exception {
+        for (int version = 1; version <= versions; version++) {
+            Map<String, String> valueSets = new TreeMap<>();
+            for (int i = 0; i < valueSetCount; i++) {
+                String id = "vs-" + i;
+                valueSets.put(id, valueSet(id, version, codeCount));
+            }
+            valueSetDataService.insertValueSets(valueSets);
+        }
+    }
+
+    private Map<String, List<String>> findLatestCodesPerId() throws Exception {
+        Map<String, List<String>> result = new TreeMap<>();
+        for (String id : valueSetDataService.findAllValueSetIds()) {
+            String valueSet = valueSetDataService.findLatestValueSet(id);
+            Iterator<String> fieldNames =
+                    OBJECT_MAPPER.readTree(valueSet).get("valueSetValues").fieldNames();
+            List<String> codes = new ArrayList<>();
+            fieldNames.forEachRemaining(codes::add);
+            result.put(id, codes);
+        }
+        return result;
+    }
+
+    private Map<String, List<String>> findLatestCodesInBulk() {
+        Map<String, List<String>> result = new TreeMap<>();
+        for (DbValueSet valueSet : valueSetDataService.findLatestValueSets()) {
+            result.put(valueSet.getValueSetId(), valueSet.getCodes());
+        }
+        return result;
+    }
+
+    private long countValueSetRows() {
+        return jt.queryForObject(
+                "select count(*) from t_value_set_data", new MapSqlParameterSource(), Long.class);
+    }
+
+    private long getValueSetGeneration() {
+        return jt.queryForObject(
+                "select generation from t_data_generation where data_type = 'VALUE_SET'",
+                new MapSqlParameterSource(),
+                Long.class);
+    }
+
+    private static String valueSet(String id, int version, int codeCount) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"valueSetId\":\"").append(id).append("\",");
+        json.append("\"valueSetDate\":\"2021-06-").append(String.format("%02d", version));
+        json.append("\",\"valueSetValues\":{");
+        // descending, so document order differs from sort order
+        for (int i = codeCount - 1; i >= 0; i--) {
+            String code = id + "-" + version + "-" + i;
+            json.append("\"").append(code).append("\":{\"display\":\"").append(code);
+            json.append("\",\"lang\":\"en\",\"active\":true,\"version\":\"1\",");
+            json.append("\"system\":\"https://example.org\"}");
+            if (i > 0) {
+                json.append(",");
+            }
+        }
+        return json.append("}}").toString();
+    }
+}
@@ -14,19 +14,28 @@ import static ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil.
 import static ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil.getEcDsc;
 import static ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil.getRsaDsc;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.DscJsonUtil;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil;
 import ch.admin.bag.covidcertificate.backend.verifier.model.CertSource;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.DscBatchInfo;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbCsca;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbDsc;
 import ch.admin.bag.covidcertificate.backend.verifier.model.exception.DgcSyncException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -262,6 +271,138 @@ class VerifierDataServiceTest extends BaseDataServiceTest {
         assertEquals(1, verifierDataService.findDscs(maxDscPkId - 1, CertFormat.IOS, null).size());
     }
 
+    @Test
+    @Transactional
+    void dscDigestTest() throws Exception {
+        String emptyDigest = verifierDataService.findDscDigest();
+        String emptyFingerprint = verifierDataService.findActiveDscFingerprint();
+        assertEquals(64, emptyDigest.length());
+
+        verifierDataService.insertCscas(Collections.singletonList(getDefaultCsca(0, "CH")));
+        final var cscaId = verifierDataService.findCscas("CH").get(0).getId();
+        DbDsc chDsc = getRsaDsc(0, "CH", cscaId);
+        DbDsc deDsc = getEcDsc(1, "DE", cscaId);
+        verifierDataService.insertDscs(List.of(chDsc, deDsc));
+        String digest = verifierDataService.findDscDigest();
+        assertNotEquals(emptyDigest, digest);
+        assertNotEquals(emptyFingerprint, verifierDataService.findActiveDscFingerprint());
+        Map<String, String> digestsByOrigin = verifierDataService.findDscDigestsByOrigin();
+        assertNotEquals(digestsByOrigin.get("CH"), digestsByOrigin.get("DE"));
+
+        // removals that don't affect any active dsc keep digest and generation
+        String fingerprint = verifierDataService.findActiveDscFingerprint();
+        verifierDataService.removeDscsWithCscaNotIn(List.of(getDefaultCsca(0, "CH").getKeyId()));
+        assertEquals(fingerprint, verifierDataService.findActiveDscFingerprint());
+
+        // removing all DE dscs resets the DE digest
+        verifierDataService.removeDscsNotIn(List.of(chDsc.getKeyId()));
+        assertNotEquals(digest, verifierDataService.findDscDigest());
+        digestsByOrigin = verifierDataService.findDscDigestsByOrigin();
+        assertEquals(
+                "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                digestsByOrigin.get("DE"));
+    }
+
+    @Test
+    @Transactional
+    void findActiveDscsTest() throws Exception {
+        String emptyFingerprint = verifierDataService.findActiveDscFingerprint();
+        assertTrue(verifierDataService.findActiveDscs(CertFormat.ANDROID).isEmpty());
+
+        verifierDataService.insertCscas(Collections.singletonList(getDefaultCsca(0, "CH")));
+        final var cscaId = verifierDataService.findCscas("CH").get(0).getId();
+        List<DbDsc> dscs =
+                List.of(
+                        getRsaDsc(0, "CH", cscaId),
+                        getEcDsc(1, "DE", cscaId),
+                        getRsaDsc(2, "CH", cscaId));
+        verifierDataService.insertDscs(dscs);
+        String insertedFingerprint = verifierDataService.findActiveDscFingerprint();
+        assertNotEquals(emptyFingerprint, insertedFingerprint);
+
+        List<ClientCert> activeDscs = verifierDataService.findActiveDscs(CertFormat.ANDROID);
+        assertEquals(
+                dscs.stream().map(DbDsc::getKeyId).collect(Collectors.toList()),
+                activeDscs.stream().map(ClientCert::getKeyId).collect(Collectors.toList()));
+        assertEquals("DE", activeDscs.get(1).getOrigin());
+        assertNotNull(activeDscs.get(1).getImportedAt());
+        assertEquals(verifierDataService.findMaxDscPkId(), activeDscs.get(2).getPkId().longValue());
+
+        // marking a dsc for deletion changes the fingerprint
+        verifierDataService.removeDscsNotIn(
+                List.of(dscs.get(0).getKeyId(), dscs.get(1).getKeyId()));
+        assertEquals(2, verifierDataService.findActiveDscs(CertFormat.IOS).size());
+        assertNotEquals(insertedFingerprint, verifierDataService.findActiveDscFingerprint());
+        List<DbDsc> removedDscs = verifierDataService.findDscsMarkedForDeletion();
+        assertEquals(1, removedDscs.size());
+        assertEquals(dscs.get(2).getKeyId(), removedDscs.get(0).getKeyId());
+        assertNotNull(removedDscs.get(0).getDeletedAt());
+    }
+
+    @Test
+    @Transactional
+    void streamDscsBeforeTest() {
+        Date before = Date.from(Instant.now().plus(1, ChronoUnit.MINUTES));
+        DscBatchInfo emptyBatch = verifierDataService.findDscBatchInfoBefore(0L, before);
+        assertEquals(0, emptyBatch.getSize());
+        assertNull(emptyBatch.getMaxPkId());
+
+        verifierDataService.insertCscas(Collections.singletonList(getDefaultCsca(0, "CH")));
+        final var cscaId = verifierDataService.findCscas("CH").get(0).getId();
+        verifierDataService.insertDscs(
+                List.of(
+                        getRsaDsc(0, "CH", cscaId),
+                        getEcDsc(1, "DE", cscaId),
+                        getRsaDsc(2, "CH", cscaId)));
+
+        List<ClientCert> expected =
+                verifierDataService.findDscsBefore(0L, CertFormat.ANDROID, before);
+        List<DscBatchInfo> streamedBatchInfo = new ArrayList<>();
+        List<ClientCert> streamed = new ArrayList<>();
+        verifierDataService.streamDscsBefore(
+                0L, CertFormat.ANDROID, before, streamedBatchInfo::add, streamed::add);
+        assertEquals(
+                expected.stream().map(ClientCert::getKeyId).collect(Collectors.toList()),
+                streamed.stream().map(ClientCert::getKeyId).collect(Collectors.toList()));
+        assertEquals(1, streamedBatchInfo.size());
+        assertEquals(3, streamedBatchInfo.get(0).getSize());
+        assertEquals(
+                streamed.get(streamed.size() - 1).getPkId(),
+                streamedBatchInfo.get(0).getMaxPkId());
+
+        DscBatchInfo batch = verifierDataService.findDscBatchInfoBefore(0L, before);
+        assertEquals(3, batch.getSize());
+        assertEquals(verifierDataService.findMaxDscPkId(), batch.getMaxPkId().longValue());
+        DscBatchInfo nextBatch =
+                verifierDataService.findDscBatchInfoBefore(batch.getMaxPkId(), before);
+        assertEquals(0, nextBatch.getSize());
+    }
+
+    @Test
+    @Transactional
+    void dscJsonTest() {
+        verifierDataService.insertCscas(Collections.singletonList(getDefaultCsca(0, "CH")));
+        final var cscaId = verifierDataService.findCscas("CH").get(0).getId();
+        DbDsc rsaDsc = getRsaDsc(0, "CH", cscaId);
+        verifierDataService.insertDscs(List.of(rsaDsc));
+        for (CertFormat certFormat : CertFormat.values()) {
+            assertEquals(
+                    DscJsonUtil.toJson(rsaDsc, certFormat),
+                    verifierDataService.findActiveDscs(certFormat).get(0).getJson());
+        }
+        assertEquals(0, verifierDataService.fillMissingDscJsons());
+
+        // DSCs inserted before the json was stored
+        jt.update(
+                "update t_document_signer_certificate set json_ios = null, json_android = null",
+                new MapSqlParameterSource());
+        assertNull(verifierDataService.findActiveDscs(CertFormat.IOS).get(0).getJson());
+        assertEquals(1, verifierDataService.fillMissingDscJsons());
+        assertEquals(
+                DscJsonUtil.toJson(rsaDsc, CertFormat.IOS),
+                verifierDataService.findActiveDscs(CertFormat.IOS).get(0).getJson());
+    }
+
     @Test
     @Transactional
     void cleanUpDscsMarkedForDeletionTest() throws Exception {
@@ -11,12 +11,16 @@
 package ch.admin.bag.covidcertificate.backend.verifier.data.config;
 
 import ch.admin.bag.covidcertificate.backend.verifier.data.AppTokenDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.data.DataGenerationDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.ForeignRulesDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.VerifierDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcAppTokenDataServiceImpl;
+import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcDataGenerationDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcForeignRulesDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcRevokedCertDataServiceImpl;
+import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcValueSetDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcVerifierDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
 import java.time.Duration;
@@ -60,6 +64,17 @@ public class TestConfig {
         return new JdbcForeignRulesDataServiceImpl(dataSource);
     }
 
+    @Bean
+    public ValueSetDataService valueSetDataService(
+            DataSource dataSource, @Value("${value-set.max-history:10}") int maxHistory) {
+        return new JdbcValueSetDataServiceImpl(dataSource, maxHistory);
+    }
+
+    @Bean
+    public DataGenerationDataService dataGenerationDataService(DataSource dataSource) {
+        return new JdbcDataGenerationDataServiceImpl(dataSource);
+    }
+
     @Value("${ws.revocation-list.retention-bucket-duration:PT6H}")
     public void setRevocationRetentionBucketDuration(Duration bucketDuration) {
         CacheUtil.REVOCATION_RETENTION_BUCKET_DURATION = bucketDuration;
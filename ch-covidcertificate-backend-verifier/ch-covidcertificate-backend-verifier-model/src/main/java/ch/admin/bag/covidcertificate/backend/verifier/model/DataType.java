@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.model;
+
+/** Data sets whose change generation is tracked in t_data_generation */
+public enum DataType {
+    DSC,
+    REVOKED_CERT,
+    VALUE_SET,
+    FOREIGN_RULES;
+}
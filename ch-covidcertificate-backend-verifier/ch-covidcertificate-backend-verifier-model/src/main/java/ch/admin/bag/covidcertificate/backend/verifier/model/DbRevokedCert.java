@@ -10,9 +10,12 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.model;
 
+import java.time.Instant;
+
 public class DbRevokedCert {
     private Long pkId;
     private String uvci;
+    private Instant importedAt;
 
     public Long getPkId() {
         return pkId;
@@ -29,4 +32,12 @@ public class DbRevokedCert {
     public void setUvci(String uvci) {
         this.uvci = uvci;
     }
+
+    public Instant getImportedAt() {
+        return importedAt;
+    }
+
+    public void setImportedAt(Instant importedAt) {
+        this.importedAt = importedAt;
+    }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.model;
+
+import java.util.List;
+
+public class DbValueSet {
+    private String valueSetId;
+    private String jsonBlob;
+    private List<String> codes;
+
+    public String getValueSetId() {
+        return valueSetId;
+    }
+
+    public void setValueSetId(String valueSetId) {
+        this.valueSetId = valueSetId;
+    }
+
+    public String getJsonBlob() {
+        return jsonBlob;
+    }
+
+    public void setJsonBlob(String jsonBlob) {
+        this.jsonBlob = jsonBlob;
+    }
+
+    /** the keys of valueSetValues in document order, null if the value set has none */
+    public List<String> getCodes() {
+        return codes;
+    }
+
+    public void setCodes(List<String> codes) {
+        this.codes = codes;
+    }
+}
@@ -1,6 +1,6 @@
 package ch.admin.bag.covidcertificate.backend.verifier.model;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 import java.util.Locale.IsoCountryCode;
 
 public class ForeignRule {
@@ -8,8 +8,8 @@ public class ForeignRule {
     private String id;
     private String version;
     private String content;
-    private LocalDateTime validFrom;
-    private LocalDateTime validUntil;
+    private Instant validFrom;
+    private Instant validUntil;
 
     public String getCountry() {
         return country;
@@ -43,19 +43,19 @@ public class ForeignRule {
         this.content = content;
     }
 
-    public LocalDateTime getValidFrom() {
+    public Instant getValidFrom() {
         return validFrom;
     }
 
-    public void setValidFrom(LocalDateTime validFrom) {
+    public void setValidFrom(Instant validFrom) {
         this.validFrom = validFrom;
     }
 
-    public LocalDateTime getValidUntil() {
+    public Instant getValidUntil() {
         return validUntil;
     }
 
-    public void setValidUntil(LocalDateTime validUntil) {
+    public void setValidUntil(Instant validUntil) {
         this.validUntil = validUntil;
     }
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.model;
+
+import ch.ubique.openapi.docannotations.Documentation;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RevocationCheckResponse {
+    @Documentation(
+            description = "the revoked UVCIs of the request",
+            example = "[\"urn:uvci:01:CH:F0FDABC1708A81BB1A843891\"]")
+    private List<String> revokedCerts = new ArrayList<>();
+
+    public RevocationCheckResponse() {}
+
+    public RevocationCheckResponse(List<String> revokedCerts) {
+        this.revokedCerts = revokedCerts;
+    }
+
+    public List<String> getRevokedCerts() {
+        return revokedCerts;
+    }
+
+    public void setRevokedCerts(List<String> revokedCerts) {
+        this.revokedCerts = revokedCerts;
+    }
+}
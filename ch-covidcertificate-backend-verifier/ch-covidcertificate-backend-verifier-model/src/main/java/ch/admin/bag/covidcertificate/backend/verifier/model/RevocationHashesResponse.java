@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.model;
+
+import ch.ubique.openapi.docannotations.Documentation;
+import java.util.List;
+
+public class RevocationHashesResponse {
+    @Documentation(
+            description =
+                    "hex encoded first 16 bytes of the SHA-256 of all revoked UVCIs starting with"
+                            + " the requested prefix",
+            example = "[\"8c2f14e0b7d1c3a9f05e6b2d4a7c9e11\"]")
+    private List<String> hashes;
+
+    public RevocationHashesResponse() {}
+
+    public RevocationHashesResponse(List<String> hashes) {
+        this.hashes = hashes;
+    }
+
+    public List<String> getHashes() {
+        return hashes;
+    }
+
+    public void setHashes(List<String> hashes) {
+        this.hashes = hashes;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.model;
+
+/** ETag, Last-Modified and content digest of the last applied upstream revocation list */
+public class RevocationListSyncState {
+    private final String etag;
+    private final String lastModified;
+    private final String contentDigest;
+
+    public RevocationListSyncState(String etag, String lastModified, String contentDigest) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentDigest = contentDigest;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public String getContentDigest() {
+        return contentDigest;
+    }
+}
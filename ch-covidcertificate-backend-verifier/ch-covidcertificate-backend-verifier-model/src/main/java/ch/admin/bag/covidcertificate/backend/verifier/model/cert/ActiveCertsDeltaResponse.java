@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.model.cert;
+
+import ch.ubique.openapi.docannotations.Documentation;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ActiveCertsDeltaResponse {
+    @Documentation(
+            description =
+                    "key ids activated since `sinceGeneration`. contains all active key ids if `fullList` is set")
+    private List<String> addedKeyIds = new ArrayList<>();
+
+    @Documentation(description = "key ids removed since `sinceGeneration`")
+    private List<String> removedKeyIds = new ArrayList<>();
+
+    @Documentation(
+            description =
+                    "set if the delta couldn't be computed. the local list must be replaced by `addedKeyIds`")
+    private boolean fullList;
+
+    @Documentation(description = "`sinceGeneration` to set for the next delta request")
+    private Long generation;
+
+    @Documentation(
+            description = "describes how long the list response is valid for in ms",
+            example = "172800000")
+    private Duration validDuration = Duration.ofHours(48);
+
+    @Documentation(description = "up to which key id can be requested")
+    private Long upTo;
+
+    public ActiveCertsDeltaResponse() {}
+
+    public ActiveCertsDeltaResponse(
+            List<String> addedKeyIds,
+            List<String> removedKeyIds,
+            boolean fullList,
+            Long generation,
+            Long upTo) {
+        this.addedKeyIds = addedKeyIds != null ? addedKeyIds : new ArrayList<>();
+        this.removedKeyIds = removedKeyIds != null ? removedKeyIds : new ArrayList<>();
+        this.fullList = fullList;
+        this.generation = generation;
+        this.upTo = upTo;
+    }
+
+    public List<String> getAddedKeyIds() {
+        return addedKeyIds;
+    }
+
+    public void setAddedKeyIds(List<String> addedKeyIds) {
+        this.addedKeyIds = addedKeyIds;
+    }
+
+    public List<String> getRemovedKeyIds() {
+        return removedKeyIds;
+    }
+
+    public void setRemovedKeyIds(List<String> removedKeyIds) {
+        this.removedKeyIds = removedKeyIds;
+    }
+
+    public boolean isFullList() {
+        return fullList;
+    }
+
+    public void setFullList(boolean fullList) {
+        this.fullList = fullList;
+    }
+
+    public Long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(Long generation) {
+        this.generation = generation;
+    }
+
+    public Long getValidDuration() {
+        return validDuration.toMillis();
+    }
+
+    public void setValidDuration(Long durationInMs) {
+        this.validDuration = Duration.ofMillis(durationInMs);
+    }
+
+    public Long getUpTo() {
+        return upTo;
+    }
+
+    public void setUpTo(Long upTo) {
+        this.upTo = upTo;
+    }
+}
@@ -12,11 +12,19 @@ package ch.admin.bag.covidcertificate.backend.verifier.model.cert;
 
 import ch.ubique.openapi.docannotations.Documentation;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import java.time.Instant;
 
 public class ClientCert {
 
     @JsonIgnore private Long pkId;
 
+    @JsonIgnore private String origin;
+
+    @JsonIgnore private Instant importedAt;
+
+    /** pre-rendered JSON of this cert, null if not loaded */
+    @JsonIgnore private String json;
+
     @Documentation(description = "base64 encoded. shasum of x509")
     private String keyId;
 
@@ -61,6 +69,30 @@ public class ClientCert {
         this.pkId = pkId;
     }
 
+    public String getOrigin() {
+        return origin;
+    }
+
+    public void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    public Instant getImportedAt() {
+        return importedAt;
+    }
+
+    public void setImportedAt(Instant importedAt) {
+        this.importedAt = importedAt;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    public void setJson(String json) {
+        this.json = json;
+    }
+
     public String getKeyId() {
         return keyId;
     }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.model.cert;
+
+/** Size and highest pk id of a DSC batch, known before the batch itself is read */
+public class DscBatchInfo {
+
+    private final int size;
+    private final Long maxPkId;
+
+    public DscBatchInfo(int size, Long maxPkId) {
+        this.size = size;
+        this.maxPkId = maxPkId;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /** @return the highest pk id in the batch, null if the batch is empty */
+    public Long getMaxPkId() {
+        return maxPkId;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.model.cert;
+
+import ch.ubique.openapi.docannotations.Documentation;
+import java.util.ArrayList;
+import java.util.List;
+
+public class KeyLookupRequest {
+    @Documentation(description = "base64 (or base64url) encoded key IDs to look up")
+    private List<String> keyIds = new ArrayList<>();
+
+    public KeyLookupRequest() {}
+
+    public KeyLookupRequest(List<String> keyIds) {
+        this.keyIds = keyIds;
+    }
+
+    public List<String> getKeyIds() {
+        return keyIds;
+    }
+
+    public void setKeyIds(List<String> keyIds) {
+        this.keyIds = keyIds;
+    }
+}
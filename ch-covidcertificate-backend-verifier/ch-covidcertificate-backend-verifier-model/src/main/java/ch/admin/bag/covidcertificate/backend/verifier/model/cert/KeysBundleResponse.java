@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.model.cert;
+
+import ch.ubique.openapi.docannotations.Documentation;
+import java.util.ArrayList;
+import java.util.List;
+
+public class KeysBundleResponse {
+    @Documentation(description = "all active signer certs")
+    private List<ClientCert> certs = new ArrayList<>();
+
+    @Documentation(description = "`since` to continue with on keys/updates")
+    private Long nextSince;
+
+    public KeysBundleResponse() {}
+
+    public KeysBundleResponse(List<ClientCert> certs, Long nextSince) {
+        if (certs == null) {
+            certs = new ArrayList<>();
+        }
+        this.certs = certs;
+        this.nextSince = nextSince;
+    }
+
+    public List<ClientCert> getCerts() {
+        return certs;
+    }
+
+    public void setCerts(List<ClientCert> certs) {
+        this.certs = certs;
+    }
+
+    public Long getNextSince() {
+        return nextSince;
+    }
+
+    public void setNextSince(Long nextSince) {
+        this.nextSince = nextSince;
+    }
+}
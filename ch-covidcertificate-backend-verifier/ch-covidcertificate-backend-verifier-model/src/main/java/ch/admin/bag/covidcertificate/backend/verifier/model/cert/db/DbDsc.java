@@ -19,6 +19,7 @@ public class DbDsc {
     private Long fkCsca;
     private String certificateRaw;
     private Instant importedAt;
+    private Instant deletedAt;
     private String origin;
     private String use;
     private Algorithm alg;
@@ -73,6 +74,14 @@ public class DbDsc {
         this.importedAt = importedAt;
     }
 
+    public Instant getDeletedAt() {
+        return deletedAt;
+    }
+
+    public void setDeletedAt(Instant deletedAt) {
+        this.deletedAt = deletedAt;
+    }
+
     public String getOrigin() {
         return origin;
     }
@@ -177,6 +177,11 @@ public class DgcCertSyncer {
                         dbDscList.stream().map(DbDsc::getKeyId).collect(Collectors.toList()));
         // Insert DSCs
         verifierDataService.insertDscs(dscListToInsert);
+        // Render the JSON of DSCs inserted before it was stored along with them
+        final var filledDscJsonCount = verifierDataService.fillMissingDscJsons();
+        if (filledDscJsonCount > 0) {
+            logger.info("Rendered missing JSON of {} DSCs", filledDscJsonCount);
+        }
         logger.info(
                 "Downloaded {} DSC certificates: Dropped {}, Inserted {}, Removed {}, Left {} in DB",
                 dscTrustLists.length,
@@ -19,7 +19,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.cert.CertificateException;
 import java.time.Instant;
-import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
@@ -99,12 +99,14 @@ public class DgcForeignRulesSyncer {
                         });
         foreignRule.setContent(convertedNode.toString());
         var validUntil =
-                LocalDateTime.parse(
-                        rule.get("validTo").asText(), DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+                OffsetDateTime.parse(
+                        rule.get("validTo").asText(), DateTimeFormatter.ISO_OFFSET_DATE_TIME)
+                        .toInstant();
         foreignRule.setValidUntil(validUntil);
         var validFrom =
-                LocalDateTime.parse(
-                        rule.get("validTo").asText(), DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+                OffsetDateTime.parse(
+                        rule.get("validFrom").asText(), DateTimeFormatter.ISO_OFFSET_DATE_TIME)
+                        .toInstant();
         foreignRule.setValidFrom(validFrom);
         foreignRule.setVersion(rule.get("version").asText());
         foreignRule.setCountry(country);
@@ -34,11 +34,12 @@ public class DgcValueSetSyncer {
         var start = Instant.now();
         try {
             Map<String, String> valueSetsById = dgcValueSetClient.download();
-            valueSetDataService.insertValueSets(valueSetsById);
+            int changed = valueSetDataService.insertValueSets(valueSetsById);
             var end = Instant.now();
             logger.info(
-                    "Finished syncing {} value sets in {} ms",
+                    "Finished syncing {} value sets ({} new or changed) in {} ms",
                     valueSetsById.size(),
+                    changed,
                     end.toEpochMilli() - start.toEpochMilli());
         } catch (ValueSetFormatException e) {
             logger.error("received unexpected value set format", e);
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs cache refreshes on background threads, so requests keep being served from the current
+ * instance of a cache while the next one is built. At most one refresh per cache is queued at a
+ * time, requests that find the cache outdated while it is being refreshed don't queue another one.
+ */
+final class CacheRefresher {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheRefresher.class);
+
+    // threads are only started for caches without a pending refresh, so there are at most as
+    // many as there are caches
+    private static final ExecutorService EXECUTOR =
+            Executors.newCachedThreadPool(
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "cache-refresher");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+    private static final Set<Object> PENDING = ConcurrentHashMap.newKeySet();
+
+    private CacheRefresher() {}
+
+    /** runs `refresh` in the background unless a refresh of `cache` is pending already */
+    static void refreshInBackground(Object cache, Runnable refresh) {
+        if (!PENDING.add(cache)) {
+            return;
+        }
+        try {
+            EXECUTOR.execute(
+                    () -> {
+                        try {
+                            refresh.run();
+                        } catch (RuntimeException e) {
+                            // the current instance is kept, the next request triggers a retry
+                            logger.error(
+                                    "couldn't refresh {}", cache.getClass().getSimpleName(), e);
+                        } finally {
+                            PENDING.remove(cache);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            PENDING.remove(cache);
+            throw e;
+        }
+    }
+}
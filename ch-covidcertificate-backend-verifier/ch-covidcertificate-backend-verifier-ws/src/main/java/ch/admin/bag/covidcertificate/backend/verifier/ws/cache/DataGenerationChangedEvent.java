@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+
+/** Published by the {@link DataGenerationWatcher} when the generation of a data type changed */
+public class DataGenerationChangedEvent {
+
+    private final DataType dataType;
+    private final long generation;
+
+    public DataGenerationChangedEvent(DataType dataType, long generation) {
+        this.dataType = dataType;
+        this.generation = generation;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+}
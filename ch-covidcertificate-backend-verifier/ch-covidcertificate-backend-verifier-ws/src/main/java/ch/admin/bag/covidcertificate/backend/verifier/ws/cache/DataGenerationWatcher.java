@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.DataGenerationDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.sql.DataSource;
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+
+/**
+ * Keeps track of the change generations in t_data_generation. A background thread holds a
+ * dedicated connection, opened outside of the connection pool so it doesn't take one of the pooled
+ * connections for good, which LISTENs on the notification channel and re-reads the generations
+ * whenever a notification arrives, or at the latest after the poll interval. If listening fails
+ * (e.g. behind a transaction pooling proxy) the thread falls back to plain polling. A {@link
+ * DataGenerationChangedEvent} is published for every data type whose generation changed.
+ *
+ * <p>With a poll interval of zero no thread is started and every call to {@link
+ * #getGeneration(DataType)} reads from the db.
+ */
+public class DataGenerationWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DataGenerationWatcher.class);
+
+    private final DataSource listenDataSource;
+    private final DataGenerationDataService dataGenerationDataService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final long pollIntervalMillis;
+
+    private final Map<DataType, Long> generations = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private Thread thread;
+
+    public DataGenerationWatcher(
+            DataSource listenDataSource,
+            DataGenerationDataService dataGenerationDataService,
+            ApplicationEventPublisher eventPublisher,
+            Duration pollInterval) {
+        this.listenDataSource = listenDataSource;
+        this.dataGenerationDataService = dataGenerationDataService;
+        this.eventPublisher = eventPublisher;
+        this.pollIntervalMillis = pollInterval.toMillis();
+    }
+
+    public void start() {
+        if (pollIntervalMillis <= 0) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "data-generation-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * @param dataType the data type
+     * @return the last known generation of the data type, or -1 if it is not tracked
+     */
+    public long getGeneration(DataType dataType) {
+        if (pollIntervalMillis <= 0 || generations.isEmpty()) {
+            reload();
+        }
+        return generations.getOrDefault(dataType, -1L);
+    }
+
+    private void run() {
+        while (running) {
+            try (Connection connection = listenDataSource.getConnection()) {
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(
+                            "LISTEN " + DataGenerationDataService.NOTIFICATION_CHANNEL);
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+                logger.info("listening for data generation notifications");
+                // notifications sent before LISTEN was active are covered by this reload
+                reload();
+                while (running) {
+                    // returns early on notifications, otherwise acts as poll interval
+                    pgConnection.getNotifications((int) pollIntervalMillis);
+                    reload();
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("data generation listener failed, falling back to polling", e);
+                pollUntilReconnect();
+            }
+        }
+    }
+
+    private void pollUntilReconnect() {
+        try {
+            Thread.sleep(pollIntervalMillis);
+            reload();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.warn("couldn't poll data generations", e);
+        }
+    }
+
+    private void reload() {
+        List<DataGenerationChangedEvent> events = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<DataType, Long> entry :
+                    dataGenerationDataService.findGenerations().entrySet()) {
+                Long previous = generations.put(entry.getKey(), entry.getValue());
+                if (previous != null && !previous.equals(entry.getValue())) {
+                    events.add(new DataGenerationChangedEvent(entry.getKey(), entry.getValue()));
+                }
+            }
+        }
+        // publish outside of the lock, listeners may call back into getGeneration
+        for (DataGenerationChangedEvent event : events) {
+            logger.debug(
+                    "{} generation changed to {}", event.getDataType(), event.getGeneration());
+            eventPublisher.publishEvent(event);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbDsc;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of all active DSCs, sorted by pk id and split per {@link CertFormat} and per
+ * origin, together with the DSCs that are marked for deletion. Instances are built once per data
+ * change and then shared between all request threads.
+ */
+public class DscSnapshot {
+
+    /** sha256 of the empty string, the digest of an origin without active DSCs */
+    static final String EMPTY_DIGEST =
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private final String fingerprint;
+    private final long generation;
+    private final String digest;
+    private final Map<String, String> digestsByOrigin;
+    private final Map<CertFormat, Partition> all;
+    private final Map<CertFormat, Map<String, Partition>> byOrigin;
+    private final Map<CertFormat, KidIndex> kidIndexes;
+
+    private DscSnapshot(
+            String fingerprint,
+            long generation,
+            String digest,
+            Map<String, String> digestsByOrigin,
+            Map<CertFormat, Partition> all,
+            Map<CertFormat, Map<String, Partition>> byOrigin,
+            Map<CertFormat, KidIndex> kidIndexes) {
+        this.fingerprint = fingerprint;
+        this.generation = generation;
+        this.digest = digest;
+        this.digestsByOrigin = digestsByOrigin;
+        this.all = all;
+        this.byOrigin = byOrigin;
+        this.kidIndexes = kidIndexes;
+    }
+
+    /**
+     * @param fingerprint fingerprint of the data the snapshot was built from
+     * @param digest digest over all active DSCs as maintained in the db
+     * @param digestsByOrigin digests over the active DSCs per origin as maintained in the db
+     * @param dscsPerFormat active DSCs per cert format, each list sorted by pk id
+     * @param removedDscs DSCs marked for deletion whose key id is no longer active
+     */
+    public static DscSnapshot of(
+            String fingerprint,
+            String digest,
+            Map<String, String> digestsByOrigin,
+            Map<CertFormat, List<ClientCert>> dscsPerFormat,
+            List<DbDsc> removedDscs) {
+        long generation = 0L;
+        Map<String, List<DbDsc>> removedByOrigin = new HashMap<>();
+        for (DbDsc removed : removedDscs) {
+            generation = Math.max(generation, removed.getDeletedAt().toEpochMilli());
+            removedByOrigin
+                    .computeIfAbsent(removed.getOrigin(), k -> new ArrayList<>())
+                    .add(removed);
+        }
+
+        Map<CertFormat, Partition> all = new EnumMap<>(CertFormat.class);
+        Map<CertFormat, Map<String, Partition>> byOrigin = new EnumMap<>(CertFormat.class);
+        Map<CertFormat, KidIndex> kidIndexes = new EnumMap<>(CertFormat.class);
+        for (Map.Entry<CertFormat, List<ClientCert>> entry : dscsPerFormat.entrySet()) {
+            List<ClientCert> dscs = entry.getValue();
+            all.put(entry.getKey(), new Partition(dscs, removedDscs));
+            kidIndexes.put(entry.getKey(), new KidIndex(dscs));
+            Map<String, List<ClientCert>> grouped = new LinkedHashMap<>();
+            for (ClientCert dsc : dscs) {
+                grouped.computeIfAbsent(dsc.getOrigin(), k -> new ArrayList<>()).add(dsc);
+                generation = Math.max(generation, dsc.getImportedAt().toEpochMilli());
+            }
+            for (String origin : removedByOrigin.keySet()) {
+                grouped.computeIfAbsent(origin, k -> new ArrayList<>());
+            }
+            Map<String, Partition> partitions = new HashMap<>();
+            grouped.forEach(
+                    (origin, originDscs) ->
+                            partitions.put(
+                                    origin,
+                                    new Partition(
+                                            originDscs,
+                                            removedByOrigin.getOrDefault(origin, List.of()))));
+            byOrigin.put(entry.getKey(), partitions);
+        }
+        return new DscSnapshot(
+                fingerprint,
+                generation,
+                digest,
+                Map.copyOf(digestsByOrigin),
+                all,
+                byOrigin,
+                kidIndexes);
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * returns the digest generation of the fingerprint (`generation:digest`), it increases with
+     * every change of the active DSCs. 0 if there are none
+     */
+    public long getFingerprintGeneration() {
+        int separator = fingerprint.indexOf(':');
+        return separator > 0 ? Long.parseLong(fingerprint.substring(0, separator)) : 0L;
+    }
+
+    /**
+     * returns the time (epoch millis) of the latest import or deletion contained in this snapshot
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * returns the time (epoch millis) of the latest import or deletion of a DSC with the given
+     * origin (all origins if null). 0 if no DSC of the origin is known
+     */
+    public long getGeneration(String origin) {
+        if (origin == null) {
+            return generation;
+        }
+        // imports and deletions are the same for every cert format
+        for (Map<String, Partition> partitions : byOrigin.values()) {
+            Partition partition = partitions.get(origin);
+            if (partition != null) {
+                return partition.getGeneration();
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * returns the sha256 digest (hex) over the active DSCs with the given origin (all origins if
+     * null)
+     */
+    public String getDigest(String origin) {
+        if (origin == null) {
+            return digest;
+        }
+        return digestsByOrigin.getOrDefault(origin, EMPTY_DIGEST);
+    }
+
+    /** returns the partition of all active DSCs in the given format */
+    public Partition get(CertFormat certFormat) {
+        Partition partition = all.get(certFormat);
+        return partition != null ? partition : Partition.EMPTY;
+    }
+
+    /** returns the partition of the active DSCs in the given format with the given origin */
+    public Partition get(CertFormat certFormat, String origin) {
+        if (origin == null) {
+            return get(certFormat);
+        }
+        Partition partition = byOrigin.getOrDefault(certFormat, Map.of()).get(origin);
+        return partition != null ? partition : Partition.EMPTY;
+    }
+
+    /**
+     * returns the active DSCs in the given format with the given key id (base64 or base64url
+     * encoded)
+     */
+    public List<ClientCert> findByKeyId(CertFormat certFormat, String keyId) {
+        KidIndex kidIndex = kidIndexes.get(certFormat);
+        return kidIndex != null ? kidIndex.find(keyId) : List.of();
+    }
+
+    public static class Partition {
+
+        static final Partition EMPTY = new Partition(List.of(), List.of());
+
+        private final long[] pkIds;
+        private final List<ClientCert> dscs;
+        private final List<String> keyIds;
+        private final List<DbDsc> removedDscs;
+        private final long generation;
+
+        Partition(List<ClientCert> dscs, List<DbDsc> removedDscs) {
+            this.dscs = Collections.unmodifiableList(new ArrayList<>(dscs));
+            this.pkIds = new long[dscs.size()];
+            List<String> kids = new ArrayList<>(dscs.size());
+            for (int i = 0; i < dscs.size(); i++) {
+                pkIds[i] = dscs.get(i).getPkId();
+                kids.add(dscs.get(i).getKeyId());
+            }
+            this.keyIds = Collections.unmodifiableList(kids);
+            this.removedDscs = List.copyOf(removedDscs);
+            long latest = 0L;
+            for (ClientCert dsc : dscs) {
+                latest = Math.max(latest, dsc.getImportedAt().toEpochMilli());
+            }
+            for (DbDsc dsc : removedDscs) {
+                latest = Math.max(latest, dsc.getDeletedAt().toEpochMilli());
+            }
+            this.generation = latest;
+        }
+
+        /**
+         * returns at most `batchSize` DSCs with `since` < pk id <= `upTo`, ordered by pk id. same
+         * semantics as {@code VerifierDataService#findDscs}
+         */
+        public List<ClientCert> page(long since, Long upTo, int batchSize) {
+            int from = indexAfter(since);
+            int to = upTo != null ? indexAfter(upTo) : pkIds.length;
+            if (from >= to) {
+                return List.of();
+            }
+            return dscs.subList(from, (int) Math.min(to, (long) from + batchSize));
+        }
+
+        /** returns the key ids of all DSCs in this partition, ordered by pk id */
+        public List<String> getKeyIds() {
+            return keyIds;
+        }
+
+        /** returns the highest pk id in this partition or 0 if it is empty */
+        public long getMaxPkId() {
+            return pkIds.length > 0 ? pkIds[pkIds.length - 1] : 0L;
+        }
+
+        /** returns the key ids of the DSCs imported after the given time, ordered by pk id */
+        public List<String> getKeyIdsImportedAfter(long epochMillis) {
+            List<String> added = new ArrayList<>();
+            for (ClientCert dsc : dscs) {
+                if (dsc.getImportedAt().toEpochMilli() > epochMillis) {
+                    added.add(dsc.getKeyId());
+                }
+            }
+            return added;
+        }
+
+        /** returns the key ids of the DSCs removed after the given time */
+        public List<String> getKeyIdsRemovedAfter(long epochMillis) {
+            List<String> removed = new ArrayList<>();
+            for (DbDsc dsc : removedDscs) {
+                if (dsc.getDeletedAt().toEpochMilli() > epochMillis) {
+                    removed.add(dsc.getKeyId());
+                }
+            }
+            return removed;
+        }
+
+        /** returns the time (epoch millis) of the latest import or deletion in this partition */
+        public long getGeneration() {
+            return generation;
+        }
+
+        public int size() {
+            return pkIds.length;
+        }
+
+        // index of the first entry with a pk id strictly greater than the given one
+        private int indexAfter(long pkId) {
+            int idx = Arrays.binarySearch(pkIds, pkId);
+            return idx >= 0 ? idx + 1 : -(idx + 1);
+        }
+    }
+}
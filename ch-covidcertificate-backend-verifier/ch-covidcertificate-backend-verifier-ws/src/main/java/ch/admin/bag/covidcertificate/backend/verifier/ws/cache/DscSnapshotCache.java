@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.VerifierDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Holds the current {@link DscSnapshot}. Whenever the DSC generation reported by the {@link
+ * DataGenerationWatcher} changes, the fingerprint of the active DSCs (generation and digest from
+ * t_dsc_digest) is read from the db; the snapshot is only rebuilt if it changed. Until then the
+ * current snapshot is served, only the very first build blocks requests.
+ */
+public class DscSnapshotCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(DscSnapshotCache.class);
+
+    private final VerifierDataService verifierDataService;
+    private final DataGenerationWatcher dataGenerationWatcher;
+
+    private volatile DscSnapshot snapshot;
+    private volatile long snapshotDataGeneration = -1;
+
+    public DscSnapshotCache(
+            VerifierDataService verifierDataService, DataGenerationWatcher dataGenerationWatcher) {
+        this.verifierDataService = verifierDataService;
+        this.dataGenerationWatcher = dataGenerationWatcher;
+    }
+
+    public DscSnapshot get() {
+        long dataGeneration = dataGenerationWatcher.getGeneration(DataType.DSC);
+        DscSnapshot current = snapshot;
+        if (current == null) {
+            return refresh(dataGeneration);
+        }
+        if (dataGeneration != snapshotDataGeneration) {
+            CacheRefresher.refreshInBackground(
+                    this, () -> refresh(dataGenerationWatcher.getGeneration(DataType.DSC)));
+        }
+        return current;
+    }
+
+    /** Rebuilds the snapshot right away so the next request doesn't have to wait for it. */
+    @EventListener
+    public void onDataGenerationChanged(DataGenerationChangedEvent event) {
+        if (event.getDataType() == DataType.DSC) {
+            refresh(event.getGeneration());
+        }
+    }
+
+    private synchronized DscSnapshot refresh(long dataGeneration) {
+        DscSnapshot current = snapshot;
+        if (current != null && dataGeneration == snapshotDataGeneration) {
+            // another thread refreshed while we were waiting for the lock
+            return current;
+        }
+        // read the fingerprint before the rows so a concurrent change triggers another rebuild
+        String fingerprint = verifierDataService.findActiveDscFingerprint();
+        if (current == null || !current.getFingerprint().equals(fingerprint)) {
+            String digest = verifierDataService.findDscDigest();
+            Map<String, String> digestsByOrigin = verifierDataService.findDscDigestsByOrigin();
+            Map<CertFormat, List<ClientCert>> dscsPerFormat = new EnumMap<>(CertFormat.class);
+            for (CertFormat certFormat : CertFormat.values()) {
+                dscsPerFormat.put(certFormat, verifierDataService.findActiveDscs(certFormat));
+            }
+            current =
+                    DscSnapshot.of(
+                            fingerprint,
+                            digest,
+                            digestsByOrigin,
+                            dscsPerFormat,
+                            verifierDataService.findDscsMarkedForDeletion());
+            snapshot = current;
+            logger.info(
+                    "rebuilt DSC snapshot with {} active DSCs",
+                    current.get(CertFormat.ANDROID).size());
+        }
+        snapshotDataGeneration = dataGeneration;
+        return current;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.ForeignRulesDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import ch.admin.bag.covidcertificate.backend.verifier.model.ForeignRule;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.VerificationRulesCache.RenderedRules;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Holds the rendered foreign rules responses: the country list and, per country, the rules still
+ * in force together with the value set entry ids of the {@link VerificationRulesCache}. The
+ * stored rule JSON is spliced into the responses as is. Everything is rebuilt when the foreign
+ * rules generation reported by the {@link DataGenerationWatcher} changes, i.e. when the foreign
+ * rules syncer stored new rules, and a country's rules also when the value sets change or one of
+ * its rule versions expires or comes into force.
+ */
+public class ForeignRulesCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForeignRulesCache.class);
+
+    private final ObjectMapper objectMapper;
+    private final ForeignRulesDataService foreignRulesDataService;
+    private final DataGenerationWatcher dataGenerationWatcher;
+    private final VerificationRulesCache verificationRulesCache;
+    private final JwsMessageConverter jwsMessageConverter;
+    private final int validDuration;
+
+    private volatile RenderedCountries countries;
+    // only countries of the current country list are added, so the map can't grow unbounded
+    private final Map<String, RenderedCountryRules> rulesByCountry = new ConcurrentHashMap<>();
+
+    public ForeignRulesCache(
+            ForeignRulesDataService foreignRulesDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            VerificationRulesCache verificationRulesCache,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper,
+            int validDuration) {
+        this.foreignRulesDataService = foreignRulesDataService;
+        this.dataGenerationWatcher = dataGenerationWatcher;
+        this.verificationRulesCache = verificationRulesCache;
+        this.jwsMessageConverter = jwsMessageConverter;
+        this.objectMapper = objectMapper;
+        this.validDuration = validDuration;
+    }
+
+    public RenderedCountries getCountries() {
+        long dataGeneration = dataGenerationWatcher.getGeneration(DataType.FOREIGN_RULES);
+        RenderedCountries current = countries;
+        if (current == null || current.dataGeneration != dataGeneration) {
+            return refreshCountries(dataGeneration);
+        }
+        return current;
+    }
+
+    /** returns the rules of `country` in force at `now` or null if there are none */
+    public RenderedCountryRules getRules(String country, Instant now) {
+        RenderedCountries currentCountries = getCountries();
+        if (!currentCountries.countrySet.contains(country)) {
+            return null;
+        }
+        RenderedRules valueSets = verificationRulesCache.get();
+        RenderedCountryRules current = rulesByCountry.get(country);
+        if (current == null || !current.isValid(currentCountries, valueSets, now)) {
+            current = refreshRules(country, currentCountries, valueSets, now);
+        }
+        return current.isEmpty() ? null : current;
+    }
+
+    /**
+     * Rebuilds the country list right away, the rules of each country are rebuilt on their next
+     * request.
+     */
+    @EventListener
+    public void onDataGenerationChanged(DataGenerationChangedEvent event) {
+        if (event.getDataType() == DataType.FOREIGN_RULES) {
+            refreshCountries(event.getGeneration());
+        }
+    }
+
+    private synchronized RenderedCountries refreshCountries(long dataGeneration) {
+        RenderedCountries current = countries;
+        if (current != null && current.dataGeneration == dataGeneration) {
+            // another thread refreshed while we were waiting for the lock
+            return current;
+        }
+        List<String> countryList = new ArrayList<>(foreignRulesDataService.getCountries());
+        // sorted, so the response (and its etag) is the same on every instance
+        countryList.sort(Comparator.naturalOrder());
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("countries", countryList);
+        body.put("validDuration", validDuration);
+        current =
+                new RenderedCountries(
+                        dataGeneration, countryList, render(body, false), render(body, true));
+        countries = current;
+        rulesByCountry.keySet().retainAll(current.countrySet);
+        logger.info("rebuilt foreign rules country list for generation {}", dataGeneration);
+        return current;
+    }
+
+    private synchronized RenderedCountryRules refreshRules(
+            String country,
+            RenderedCountries currentCountries,
+            RenderedRules valueSets,
+            Instant now) {
+        RenderedCountryRules current = rulesByCountry.get(country);
+        if (current != null && current.isValid(currentCountries, valueSets, now)) {
+            // another thread refreshed while we were waiting for the lock
+            return current;
+        }
+        List<ForeignRule> rules =
+                selectRulesInForce(foreignRulesDataService.getRulesForCountry(country), now);
+        Instant validUntil = Instant.MAX;
+        List<RawValue> ruleContents = new ArrayList<>();
+        for (ForeignRule rule : rules) {
+            // the content was written by the syncer with jackson, no need to parse it again
+            ruleContents.add(new RawValue(rule.getContent()));
+            if (rule.getValidUntil().isBefore(validUntil)) {
+                validUntil = rule.getValidUntil();
+            }
+            if (rule.getValidFrom().isAfter(now) && rule.getValidFrom().isBefore(validUntil)) {
+                // the versions this one supersedes have to be dropped once it is in force
+                validUntil = rule.getValidFrom();
+            }
+        }
+        byte[] json = null;
+        byte[] jws = null;
+        if (!ruleContents.isEmpty()) {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("validDuration", validDuration);
+            body.put("rules", ruleContents);
+            body.put("valueSets", valueSets.getValueSets());
+            json = render(body, false);
+            jws = render(body, true);
+        }
+        current = new RenderedCountryRules(currentCountries, valueSets, validUntil, json, jws);
+        if (countries == currentCountries) {
+            rulesByCountry.put(country, current);
+        }
+        return current;
+    }
+
+    /**
+     * drops the rule versions that expired at `now` and the ones superseded by a later version of
+     * the same rule that is in force already. Versions that come into force later are kept so
+     * clients can switch over by themselves.
+     */
+    static List<ForeignRule> selectRulesInForce(List<ForeignRule> rules, Instant now) {
+        Map<String, Instant> latestValidFromById = new HashMap<>();
+        for (ForeignRule rule : rules) {
+            if (rule.getValidUntil().isAfter(now) && !rule.getValidFrom().isAfter(now)) {
+                latestValidFromById.merge(
+                        rule.getId(),
+                        rule.getValidFrom(),
+                        (a, b) -> a.isAfter(b) ? a : b);
+            }
+        }
+        List<ForeignRule> inForce = new ArrayList<>();
+        for (ForeignRule rule : rules) {
+            Instant latestValidFrom = latestValidFromById.get(rule.getId());
+            boolean superseded =
+                    latestValidFrom != null && rule.getValidFrom().isBefore(latestValidFrom);
+            if (rule.getValidUntil().isAfter(now) && !superseded) {
+                inForce.add(rule);
+            }
+        }
+        // sorted, so the response (and its etag) is the same on every instance
+        inForce.sort(
+                Comparator.comparing(ForeignRule::getId)
+                        .thenComparing(ForeignRule::getValidFrom)
+                        .thenComparing(ForeignRule::getVersion));
+        return inForce;
+    }
+
+    private byte[] render(Object body, boolean jws) {
+        if (jws) {
+            return jwsMessageConverter.sign(body).getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("could not serialize foreign rules", e);
+        }
+    }
+
+    public static class RenderedCountries {
+        private final long dataGeneration;
+        private final Set<String> countrySet;
+        private final RenderedVariant json;
+        private final RenderedVariant jws;
+
+        private RenderedCountries(
+                long dataGeneration, List<String> countries, byte[] json, byte[] jws) {
+            this.dataGeneration = dataGeneration;
+            this.countrySet = new HashSet<>(countries);
+            this.json = new RenderedVariant(json);
+            this.jws = new RenderedVariant(jws);
+        }
+
+        public RenderedVariant get(boolean jws) {
+            return jws ? this.jws : json;
+        }
+    }
+
+    public static class RenderedCountryRules {
+        private final RenderedCountries countries;
+        private final RenderedRules valueSets;
+        private final Instant validUntil;
+        private final RenderedVariant json;
+        private final RenderedVariant jws;
+
+        private RenderedCountryRules(
+                RenderedCountries countries,
+                RenderedRules valueSets,
+                Instant validUntil,
+                byte[] json,
+                byte[] jws) {
+            this.countries = countries;
+            this.valueSets = valueSets;
+            this.validUntil = validUntil;
+            this.json = json != null ? new RenderedVariant(json) : null;
+            this.jws = jws != null ? new RenderedVariant(jws) : null;
+        }
+
+        private boolean isValid(
+                RenderedCountries countries, RenderedRules valueSets, Instant now) {
+            return this.countries == countries
+                    && this.valueSets == valueSets
+                    && now.isBefore(validUntil);
+        }
+
+        private boolean isEmpty() {
+            return json == null;
+        }
+
+        public RenderedVariant get(boolean jws) {
+            return jws ? this.jws : json;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertsResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.GzipUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of fully rendered (and, for JWS, signed) response bodies. All entries belong
+ * to a single data generation and are dropped as soon as a newer generation is requested. Pages
+ * of older generations, requested by instances or threads still serving an older snapshot, are
+ * rendered but not stored. Concurrent misses for the same page are rendered only once.
+ */
+public class KeyPageCache {
+
+    private static final byte[] CERTS_PREFIX = "{\"certs\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CERTS_SUFFIX = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper;
+    private final JwsMessageConverter jwsMessageConverter;
+    private final Map<PageKey, byte[]> pages;
+    private final Map<PageKey, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    private long generation = -1;
+
+    public KeyPageCache(
+            JwsMessageConverter jwsMessageConverter, ObjectMapper objectMapper, int maxEntries) {
+        this.jwsMessageConverter = jwsMessageConverter;
+        this.objectMapper = objectMapper;
+        this.pages =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<PageKey, byte[]> eldest) {
+                        return size() > maxEntries;
+                    }
+                };
+    }
+
+    /**
+     * returns the rendered body of the page identified by `pageId` in the given generation. the
+     * body is only built via `bodySupplier` on a cache miss
+     */
+    public byte[] get(
+            long generation, String pageId, boolean jws, Supplier<Object> bodySupplier) {
+        return get(generation, pageId, jws, false, bodySupplier);
+    }
+
+    /** same as {@link #get(long, String, boolean, Supplier)}, optionally gzip compressed */
+    public byte[] get(
+            long generation,
+            String pageId,
+            boolean jws,
+            boolean gzip,
+            Supplier<Object> bodySupplier) {
+        PageKey key = new PageKey(generation, pageId, jws, gzip);
+        byte[] page = getCached(key);
+        if (page != null) {
+            return page;
+        }
+
+        CompletableFuture<byte[]> rendering = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, rendering);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            // the page might have been stored between the lookup and registering the rendering
+            page = getCached(key);
+            if (page == null) {
+                page = render(bodySupplier.get(), jws);
+                if (gzip) {
+                    page = GzipUtil.gzip(page);
+                }
+                put(key, page);
+            }
+            rendering.complete(page);
+            return page;
+        } catch (RuntimeException e) {
+            rendering.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    private synchronized byte[] getCached(PageKey key) {
+        if (key.generation > generation) {
+            pages.clear();
+            generation = key.generation;
+            return null;
+        }
+        return pages.get(key);
+    }
+
+    private synchronized void put(PageKey key, byte[] page) {
+        if (key.generation == generation) {
+            pages.put(key, page);
+        }
+    }
+
+    private byte[] render(Object body, boolean jws) {
+        if (jws) {
+            return jwsMessageConverter.sign(body).getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            if (body instanceof CertsResponse) {
+                return renderCerts(((CertsResponse) body).getCerts());
+            }
+            return objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("could not serialize page", e);
+        }
+    }
+
+    /**
+     * renders a {@link CertsResponse} by concatenating the pre-rendered JSON of the certs. only
+     * certs without pre-rendered JSON are serialized
+     */
+    private byte[] renderCerts(List<ClientCert> certs) throws JsonProcessingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(CERTS_PREFIX);
+        for (int i = 0; i < certs.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            ClientCert cert = certs.get(i);
+            if (cert.getJson() != null) {
+                out.writeBytes(cert.getJson().getBytes(StandardCharsets.UTF_8));
+            } else {
+                out.writeBytes(objectMapper.writeValueAsBytes(cert));
+            }
+        }
+        out.writeBytes(CERTS_SUFFIX);
+        return out.toByteArray();
+    }
+
+    private static class PageKey {
+        private final long generation;
+        private final String pageId;
+        private final boolean jws;
+        private final boolean gzip;
+
+        PageKey(long generation, String pageId, boolean jws, boolean gzip) {
+            this.generation = generation;
+            this.pageId = pageId;
+            this.jws = jws;
+            this.gzip = gzip;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) o;
+            return jws == other.jws
+                    && gzip == other.gzip
+                    && generation == other.generation
+                    && pageId.equals(other.pageId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(generation, pageId, jws, gzip);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lookup of DSCs by key id. Key ids are the first 8 bytes of the certificate hash, so they are
+ * decoded and kept as primitive longs in a sorted array. Any other key ids (not expected, but not
+ * rejected by the sync either) are kept in a plain map and only found by their exact value.
+ */
+public class KidIndex {
+
+    private static final int KID_LENGTH = 8;
+
+    private final long[] kids;
+    private final ClientCert[] dscs;
+    private final Map<String, List<ClientCert>> otherKids;
+
+    KidIndex(List<ClientCert> activeDscs) {
+        List<ClientCert> indexed = new ArrayList<>(activeDscs.size());
+        List<Long> indexedKids = new ArrayList<>(activeDscs.size());
+        Map<String, List<ClientCert>> other = new HashMap<>();
+        for (ClientCert dsc : activeDscs) {
+            byte[] kid = decode(dsc.getKeyId());
+            if (kid != null && kid.length == KID_LENGTH) {
+                indexed.add(dsc);
+                indexedKids.add(toLong(kid));
+            } else {
+                other.computeIfAbsent(dsc.getKeyId(), k -> new ArrayList<>()).add(dsc);
+            }
+        }
+        Integer[] order = new Integer[indexed.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(indexedKids::get));
+        this.kids = new long[order.length];
+        this.dscs = new ClientCert[order.length];
+        for (int i = 0; i < order.length; i++) {
+            kids[i] = indexedKids.get(order[i]);
+            dscs[i] = indexed.get(order[i]);
+        }
+        this.otherKids = other;
+    }
+
+    /**
+     * returns all active DSCs with the given key id (base64 or base64url encoded). usually one,
+     * more if the same key id is used by several DSCs. empty if the key id is unknown
+     */
+    public List<ClientCert> find(String keyId) {
+        byte[] kid = decode(keyId);
+        if (kid == null || kid.length != KID_LENGTH) {
+            return otherKids.getOrDefault(keyId, List.of());
+        }
+        long value = toLong(kid);
+        int idx = Arrays.binarySearch(kids, value);
+        if (idx < 0) {
+            return List.of();
+        }
+        // binary search hits any of the equal entries
+        int from = idx;
+        while (from > 0 && kids[from - 1] == value) {
+            from--;
+        }
+        int to = idx + 1;
+        while (to < kids.length && kids[to] == value) {
+            to++;
+        }
+        return List.of(Arrays.copyOfRange(dscs, from, to));
+    }
+
+    /** decodes a base64 or base64url encoded key id, null if it is neither */
+    static byte[] decode(String keyId) {
+        if (keyId == null) {
+            return null;
+        }
+        try {
+            return Base64.getDecoder().decode(keyId.replace('-', '+').replace('_', '/'));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long toLong(byte[] kid) {
+        long value = 0L;
+        for (byte b : kid) {
+            value = (value << 8) | (b & 0xFF);
+        }
+        return value;
+    }
+}
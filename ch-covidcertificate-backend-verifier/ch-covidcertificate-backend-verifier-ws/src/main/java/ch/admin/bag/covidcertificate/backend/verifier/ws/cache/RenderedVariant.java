@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+/** one rendered representation of a cached response together with its sha256 for strong etags */
+public class RenderedVariant {
+    private final byte[] body;
+    private final String sha256;
+
+    RenderedVariant(byte[] body) {
+        this.body = body;
+        this.sha256 = DigestUtils.sha256Hex(body);
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /** hex encoded sha256 of the body, so every variant gets its own etag */
+    public String getSha256() {
+        return sha256;
+    }
+}
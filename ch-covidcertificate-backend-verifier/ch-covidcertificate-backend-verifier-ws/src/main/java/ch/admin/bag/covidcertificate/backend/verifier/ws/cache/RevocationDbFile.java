@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+/**
+ * Metadata of a generated revocation db snapshot, written next to the snapshot as json sidecar so
+ * a restarted instance can serve it right away.
+ */
+public class RevocationDbFile {
+    private String fileName;
+    private String nextSince;
+    private long validDuration;
+    private long lastDownload;
+    private String sha256;
+
+    public RevocationDbFile() {}
+
+    public RevocationDbFile(
+            String fileName,
+            String nextSince,
+            long validDuration,
+            long lastDownload,
+            String sha256) {
+        this.fileName = fileName;
+        this.nextSince = nextSince;
+        this.validDuration = validDuration;
+        this.lastDownload = lastDownload;
+        this.sha256 = sha256;
+    }
+
+    /** name of the sqlite file in the snapshot directory */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /** `since` to use for the first revocationList request after loading the snapshot */
+    public String getNextSince() {
+        return nextSince;
+    }
+
+    public void setNextSince(String nextSince) {
+        this.nextSince = nextSince;
+    }
+
+    /** ms the snapshot is valid for after lastDownload */
+    public long getValidDuration() {
+        return validDuration;
+    }
+
+    public void setValidDuration(long validDuration) {
+        this.validDuration = validDuration;
+    }
+
+    /** epoch ms of the retention bucket start up to which the snapshot is released */
+    public long getLastDownload() {
+        return lastDownload;
+    }
+
+    public void setLastDownload(long lastDownload) {
+        this.lastDownload = lastDownload;
+    }
+
+    /** sha256 (hex) of the sqlite file */
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates the sqlite revocation db snapshots the apps load on first start from the current
+ * {@link RevocationSnapshot}, one per {@link CertFormat} with the schema the apps expect. Each
+ * snapshot is written to a new file which is then published by atomically replacing its json
+ * sidecar, so readers always see a complete file with matching metadata. The content only depends
+ * on the revocation snapshot and the file is named after its hash, so all instances serve the
+ * same bytes under the same etag and range requests can be spread over instances.
+ */
+public class RevocationDbGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationDbGenerator.class);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int INSERT_BATCH_SIZE = 10000;
+
+    private static final Map<CertFormat, List<String>> SCHEMAS =
+            Map.of(
+                    CertFormat.IOS,
+                    List.of(
+                            "CREATE TABLE revocations ( uvci text NOT NULL )",
+                            "CREATE TABLE \"metadata\" ("
+                                    + "\"validDuration\" integer NOT NULL DEFAULT '0',"
+                                    + "\"lastDownload\" integer NOT NULL DEFAULT '0',"
+                                    + "\"nextSince\" text)"),
+                    CertFormat.ANDROID,
+                    List.of(
+                            "CREATE TABLE revocations ( uvci text NOT NULL ,PRIMARY KEY (uvci))",
+                            "CREATE TABLE \"metadata\" ("
+                                    + "\"validDuration\" integer NOT NULL DEFAULT '0',"
+                                    + "\"lastDownload\" integer NOT NULL DEFAULT '0',"
+                                    + "\"nextSince\" text NOT NULL DEFAULT '' ,"
+                                    + " PRIMARY KEY (nextSince, validDuration, lastDownload))"));
+
+    private final RevocationSnapshotCache revocationSnapshotCache;
+    private final Path directory;
+    private final Duration validDuration;
+
+    // replaced as a whole on publish so requests read it without waiting for a generation
+    private volatile Map<CertFormat, RevocationDbFile> current = Map.of();
+    private final Map<CertFormat, RevocationDbFile> previous = new EnumMap<>(CertFormat.class);
+    private RevocationSnapshot generatedFrom;
+
+    public RevocationDbGenerator(
+            RevocationSnapshotCache revocationSnapshotCache,
+            Path directory,
+            Duration validDuration) {
+        this.revocationSnapshotCache = revocationSnapshotCache;
+        this.directory = directory;
+        this.validDuration = validDuration;
+    }
+
+    /** picks up the snapshots of a previous run so they are served until the first generation */
+    public synchronized void init() throws IOException {
+        Files.createDirectories(directory);
+        for (CertFormat certFormat : CertFormat.values()) {
+            Path sidecar = getSidecarPath(certFormat);
+            if (Files.exists(sidecar)) {
+                RevocationDbFile dbFile =
+                        OBJECT_MAPPER.readValue(sidecar.toFile(), RevocationDbFile.class);
+                if (Files.exists(getPath(dbFile))) {
+                    replaceCurrent(certFormat, dbFile);
+                }
+            }
+        }
+    }
+
+    /** writes new snapshots if the revocation snapshot changed since the last run */
+    public synchronized void generate() {
+        RevocationSnapshot snapshot = revocationSnapshotCache.get(Instant.now());
+        if (snapshot == generatedFrom) {
+            return;
+        }
+        // the release time instead of the generation time keeps the content the same everywhere
+        long lastDownload = snapshot.getReleasedUpTo().toEpochMilli();
+        try {
+            for (CertFormat certFormat : CertFormat.values()) {
+                publish(certFormat, write(certFormat, snapshot, lastDownload));
+            }
+            generatedFrom = snapshot;
+            logger.info(
+                    "generated revocation db snapshots with {} revoked certs", snapshot.size());
+        } catch (IOException | SQLException e) {
+            logger.error("couldn't generate revocation db snapshots", e);
+        }
+    }
+
+    /** returns the current snapshot in the given format, null if none was generated yet */
+    public RevocationDbFile get(CertFormat certFormat) {
+        return current.get(certFormat);
+    }
+
+    public Path getPath(RevocationDbFile dbFile) {
+        return directory.resolve(dbFile.getFileName());
+    }
+
+    private RevocationDbFile write(
+            CertFormat certFormat, RevocationSnapshot snapshot, long lastDownload)
+            throws IOException, SQLException {
+        Path tmp = directory.resolve(getFilePrefix(certFormat) + ".sqlite.tmp");
+        Files.deleteIfExists(tmp);
+        String nextSince = String.valueOf(snapshot.getMaxPkId());
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + tmp)) {
+            try (Statement statement = connection.createStatement()) {
+                // the file is only published once complete, no need for crash safety
+                statement.execute("PRAGMA journal_mode = OFF");
+                statement.execute("PRAGMA synchronous = OFF");
+                for (String ddl : SCHEMAS.get(certFormat)) {
+                    statement.execute(ddl);
+                }
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert =
+                    connection.prepareStatement("INSERT INTO revocations (uvci) VALUES (?)")) {
+                long since = 0L;
+                RevocationSnapshot.Page page;
+                do {
+                    page = snapshot.getPage(since, INSERT_BATCH_SIZE);
+                    for (String uvci : page.getUvcis()) {
+                        insert.setString(1, uvci);
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                    since = page.getNextSince();
+                } while (!page.isUpToDate());
+            }
+            try (PreparedStatement insert =
+                    connection.prepareStatement(
+                            "INSERT INTO \"metadata\" (validDuration, lastDownload, nextSince)"
+                                    + " VALUES (?, ?, ?)")) {
+                insert.setLong(1, validDuration.toMillis());
+                insert.setLong(2, lastDownload);
+                insert.setString(3, nextSince);
+                insert.executeUpdate();
+            }
+            connection.commit();
+        }
+        String sha256 = sha256(tmp);
+        String fileName = getFilePrefix(certFormat) + "-" + sha256 + ".sqlite";
+        Files.move(tmp, directory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+        return new RevocationDbFile(
+                fileName, nextSince, validDuration.toMillis(), lastDownload, sha256);
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try (InputStream is = Files.newInputStream(file)) {
+            return DigestUtils.sha256Hex(is);
+        }
+    }
+
+    private void publish(CertFormat certFormat, RevocationDbFile dbFile) throws IOException {
+        Path sidecar = getSidecarPath(certFormat);
+        Path tmp = directory.resolve(sidecar.getFileName() + ".tmp");
+        OBJECT_MAPPER.writeValue(tmp.toFile(), dbFile);
+        Files.move(tmp, sidecar, StandardCopyOption.ATOMIC_MOVE);
+
+        RevocationDbFile replaced = replaceCurrent(certFormat, dbFile);
+        if (replaced != null) {
+            previous.put(certFormat, replaced);
+        }
+        deleteOutdated(certFormat);
+    }
+
+    private RevocationDbFile replaceCurrent(CertFormat certFormat, RevocationDbFile dbFile) {
+        Map<CertFormat, RevocationDbFile> next = new EnumMap<>(CertFormat.class);
+        next.putAll(current);
+        RevocationDbFile replaced = next.put(certFormat, dbFile);
+        current = Collections.unmodifiableMap(next);
+        return replaced;
+    }
+
+    /**
+     * deletes all files of the given format except the current and the previous snapshot. the
+     * previous one is kept for requests that picked it up just before the rotation
+     */
+    private void deleteOutdated(CertFormat certFormat) throws IOException {
+        Set<String> keep = new HashSet<>();
+        keep.add(current.get(certFormat).getFileName());
+        if (previous.containsKey(certFormat)) {
+            keep.add(previous.get(certFormat).getFileName());
+        }
+        keep.add(getSidecarPath(certFormat).getFileName().toString());
+        try (DirectoryStream<Path> files =
+                Files.newDirectoryStream(directory, getFilePrefix(certFormat) + "*")) {
+            for (Path file : files) {
+                if (!keep.contains(file.getFileName().toString())) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private Path getSidecarPath(CertFormat certFormat) {
+        return directory.resolve(getFilePrefix(certFormat) + ".json");
+    }
+
+    private static String getFilePrefix(CertFormat certFormat) {
+        return "revocations-" + certFormat.name().toLowerCase(Locale.ROOT);
+    }
+}
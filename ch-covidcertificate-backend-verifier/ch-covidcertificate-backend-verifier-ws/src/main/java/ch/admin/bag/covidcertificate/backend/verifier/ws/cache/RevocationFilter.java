@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import java.nio.ByteBuffer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Blocked bloom filter over the SHA-256 hashes of revoked UVCIs. A negative answer means the UVCI
+ * is definitely not revoked, a positive one has to be confirmed with the full revocation list.
+ *
+ * <p>Serialized format (version 1, big endian): int version, int number of hash functions k, int
+ * number of blocks, int number of entries, followed by the blocks of 8 longs (512 bits) each. For
+ * a UVCI, h1 and h2 are the first and second 8 bytes of SHA-256(UTF-8 bytes of the UVCI) read as
+ * big endian longs. The block is h1 mod number of blocks (unsigned), the k bits within it are
+ * (a + i * b) mod 512 for i in [0, k) with a the upper and b the lower 32 bits of h2 where b's
+ * lowest bit is set. Bit n of a block is bit (n mod 64) of its long (n / 64).
+ */
+public class RevocationFilter {
+
+    public static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+    private static final int BLOCK_BITS = 512;
+    private static final int WORDS_PER_BLOCK = BLOCK_BITS / Long.SIZE;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_HASH_FUNCTIONS = 16;
+    // room for new revocations before the filter has to be resized
+    private static final double CAPACITY_HEADROOM = 1.25;
+
+    private final byte[] serialized;
+    private final ByteBuffer words;
+    private final int numHashFunctions;
+    private final int numBlocks;
+    private final int size;
+    private final int capacity;
+    private final long maxPkId;
+
+    private RevocationFilter(
+            byte[] serialized,
+            int numHashFunctions,
+            int numBlocks,
+            int size,
+            int capacity,
+            long maxPkId) {
+        this.serialized = serialized;
+        this.words = ByteBuffer.wrap(serialized).asReadOnlyBuffer();
+        this.numHashFunctions = numHashFunctions;
+        this.numBlocks = numBlocks;
+        this.size = size;
+        this.capacity = capacity;
+        this.maxPkId = maxPkId;
+    }
+
+    /** returns the serialized filter as served to the clients */
+    public Resource asResource() {
+        return new ByteArrayResource(serialized);
+    }
+
+    public boolean mightContain(String uvci) {
+        byte[] hash = DigestUtils.sha256(uvci);
+        ByteBuffer hashBuffer = ByteBuffer.wrap(hash);
+        int block = (int) Long.remainderUnsigned(hashBuffer.getLong(0), numBlocks);
+        long h2 = hashBuffer.getLong(Long.BYTES);
+        int a = (int) (h2 >>> 32);
+        int b = (int) h2 | 1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            int bit = (a + i * b) & (BLOCK_BITS - 1);
+            long word = words.getLong(HEADER_BYTES + wordIndex(block, bit) * Long.BYTES);
+            if ((word & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** returns the number of revoked UVCIs in the filter */
+    public int size() {
+        return size;
+    }
+
+    /** returns the number of UVCIs the filter was sized for */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** returns the highest revoked cert pk id the filter covers */
+    public long getMaxPkId() {
+        return maxPkId;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    /**
+     * returns the expected false positive rate at the current size. Blocks fill up unevenly, so
+     * the rate is averaged over the (poisson distributed) number of entries per block.
+     */
+    public double getFalsePositiveRate() {
+        double lambda = (double) size / numBlocks;
+        double probability = Math.exp(-lambda);
+        double falsePositiveRate = 0;
+        double covered = 0;
+        for (int entries = 0; covered < 1 - 1e-12 && entries < 10_000; entries++) {
+            if (entries > 0) {
+                probability *= lambda / entries;
+            }
+            double bitSet = 1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double) numHashFunctions * entries);
+            falsePositiveRate += probability * Math.pow(bitSet, numHashFunctions);
+            covered += probability;
+        }
+        return falsePositiveRate;
+    }
+
+    /** returns the size of the serialized filter in bytes */
+    public int getSizeInBytes() {
+        return serialized.length;
+    }
+
+    /** starts an empty filter for `expectedEntries` UVCIs at the given false positive rate */
+    public static Builder builder(int expectedEntries, double falsePositiveRate) {
+        int capacity = Math.max(MIN_CAPACITY, (int) (expectedEntries * CAPACITY_HEADROOM));
+        // bits per entry of a plain bloom filter plus ~10% for the uneven block load
+        double bitsPerEntry = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)) * 1.1;
+        long optimalHashFunctions = Math.round(-Math.log(falsePositiveRate) / Math.log(2));
+        int numHashFunctions =
+                (int) Math.max(1, Math.min(MAX_HASH_FUNCTIONS, optimalHashFunctions));
+        long numBlocks = (long) Math.ceil(capacity * bitsPerEntry / BLOCK_BITS);
+        if (numBlocks * WORDS_PER_BLOCK > Integer.MAX_VALUE / Long.BYTES) {
+            throw new IllegalArgumentException("revocation filter exceeds 2 GB");
+        }
+        return new Builder(
+                new long[(int) numBlocks * WORDS_PER_BLOCK], numHashFunctions, 0, capacity);
+    }
+
+    /** starts a copy of `filter` new UVCIs can be added to */
+    public static Builder builder(RevocationFilter filter) {
+        long[] words = new long[filter.numBlocks * WORDS_PER_BLOCK];
+        ByteBuffer.wrap(filter.serialized, HEADER_BYTES, words.length * Long.BYTES)
+                .asLongBuffer()
+                .get(words);
+        return new Builder(words, filter.numHashFunctions, filter.size, filter.capacity);
+    }
+
+    private static int wordIndex(int block, int bit) {
+        return block * WORDS_PER_BLOCK + (bit >>> 6);
+    }
+
+    public static class Builder {
+
+        private final long[] words;
+        private final int numHashFunctions;
+        private final int numBlocks;
+        private final int capacity;
+        private int size;
+
+        private Builder(long[] words, int numHashFunctions, int size, int capacity) {
+            this.words = words;
+            this.numHashFunctions = numHashFunctions;
+            this.numBlocks = words.length / WORDS_PER_BLOCK;
+            this.size = size;
+            this.capacity = capacity;
+        }
+
+        public Builder add(String uvci) {
+            ByteBuffer hash = ByteBuffer.wrap(DigestUtils.sha256(uvci));
+            int block = (int) Long.remainderUnsigned(hash.getLong(0), numBlocks);
+            long h2 = hash.getLong(Long.BYTES);
+            int a = (int) (h2 >>> 32);
+            int b = (int) h2 | 1;
+            for (int i = 0; i < numHashFunctions; i++) {
+                int bit = (a + i * b) & (BLOCK_BITS - 1);
+                words[wordIndex(block, bit)] |= 1L << bit;
+            }
+            size++;
+            return this;
+        }
+
+        /** builds the filter, covering all revoked certs up to `maxPkId` */
+        public RevocationFilter build(long maxPkId) {
+            ByteBuffer serialized = ByteBuffer.allocate(HEADER_BYTES + words.length * Long.BYTES);
+            serialized.putInt(VERSION).putInt(numHashFunctions).putInt(numBlocks).putInt(size);
+            serialized.asLongBuffer().put(words);
+            return new RevocationFilter(
+                    serialized.array(),
+                    numHashFunctions,
+                    numBlocks,
+                    size,
+                    capacity,
+                    maxPkId);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import java.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Holds the {@link RevocationFilter} of the current {@link RevocationSnapshot}. As long as no
+ * revoked cert was removed and the filter has room left, new revocations are added to a copy of
+ * the previous filter instead of hashing every UVCI again. The filter is rebuilt when a new
+ * snapshot is swapped in, until then the previous filter is served; only the very first build
+ * blocks requests.
+ */
+public class RevocationFilterCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationFilterCache.class);
+
+    private static final int BUILD_BATCH_SIZE = 10000;
+
+    private final RevocationSnapshotCache revocationSnapshotCache;
+    private final double falsePositiveRate;
+
+    private volatile RevocationFilter filter;
+    private volatile RevocationSnapshot filteredSnapshot;
+
+    public RevocationFilterCache(
+            RevocationSnapshotCache revocationSnapshotCache, double falsePositiveRate) {
+        this.revocationSnapshotCache = revocationSnapshotCache;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    public RevocationFilter get(Instant now) {
+        RevocationSnapshot snapshot = revocationSnapshotCache.get(now);
+        RevocationFilter current = filter;
+        if (current == null) {
+            return refresh(snapshot);
+        }
+        if (snapshot != filteredSnapshot) {
+            CacheRefresher.refreshInBackground(this, () -> refresh(snapshot));
+        }
+        return current;
+    }
+
+    /** Rebuilds the filter right away so requests don't have to wait for it. */
+    @EventListener
+    public void onRevocationSnapshotChanged(RevocationSnapshotChangedEvent event) {
+        refresh(event.getSnapshot());
+    }
+
+    private synchronized RevocationFilter refresh(RevocationSnapshot snapshot) {
+        if (snapshot == filteredSnapshot) {
+            // another thread refreshed while we were waiting for the lock
+            return filter;
+        }
+        if (filter != null && !revocationSnapshotCache.isCurrent(snapshot)) {
+            // a newer snapshot was swapped in meanwhile, its own refresh follows
+            return filter;
+        }
+        RevocationFilter current = filter;
+        RevocationFilter.Builder builder;
+        long since;
+        if (canExtend(current, snapshot)) {
+            builder = RevocationFilter.builder(current);
+            since = current.getMaxPkId();
+        } else {
+            builder = RevocationFilter.builder(snapshot.size(), falsePositiveRate);
+            since = 0L;
+        }
+        int added = 0;
+        RevocationSnapshot.Page page;
+        do {
+            page = snapshot.getPage(since, BUILD_BATCH_SIZE);
+            for (String uvci : page.getUvcis()) {
+                builder.add(uvci);
+            }
+            added += page.getUvcis().size();
+            since = page.getNextSince();
+        } while (!page.isUpToDate());
+        current = builder.build(snapshot.getMaxPkId());
+        filter = current;
+        filteredSnapshot = snapshot;
+        logger.info(
+                "{} revocation filter with {} revoked certs ({} new), {} bytes, fpr {}",
+                added < current.size() ? "extended" : "rebuilt",
+                current.size(),
+                added,
+                current.getSizeInBytes(),
+                current.getFalsePositiveRate());
+        return current;
+    }
+
+    /**
+     * a filter can only be extended if it still holds exactly the snapshot's certs up to its max
+     * pk id (bloom filters don't support removal) and won't exceed its capacity
+     */
+    private static boolean canExtend(RevocationFilter current, RevocationSnapshot snapshot) {
+        return current != null
+                && snapshot.size() <= current.getCapacity()
+                && snapshot.getMaxPkId() >= current.getMaxPkId()
+                && snapshot.countUpTo(current.getMaxPkId()) == current.size();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted array of the fixed length uvci hashes of all released revoked certs, kept in one direct
+ * buffer. Serves the hashes sharing a prefix with two binary searches, instances are shared
+ * between all request threads and only absolute buffer reads are used.
+ */
+public class RevocationHashIndex {
+
+    private final int hashLength;
+    private final int size;
+    private final ByteBuffer hashes;
+
+    private RevocationHashIndex(int hashLength, int size, ByteBuffer hashes) {
+        this.hashLength = hashLength;
+        this.size = size;
+        this.hashes = hashes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getHashLength() {
+        return hashLength;
+    }
+
+    /** returns all hashes starting with `prefix` in ascending order */
+    public List<byte[]> getBucket(byte[] prefix) {
+        if (prefix.length > hashLength) {
+            throw new IllegalArgumentException("prefix is longer than the hashes");
+        }
+        int from = firstIndexNotBelow(prefix, false);
+        int to = firstIndexNotBelow(prefix, true);
+        List<byte[]> bucket = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            byte[] hash = new byte[hashLength];
+            hashes.get(i * hashLength, hash);
+            bucket.add(hash);
+        }
+        return bucket;
+    }
+
+    /**
+     * returns the index of the first hash whose leading bytes compare greater than or equal to
+     * `prefix`, or strictly greater if `after` is set
+     */
+    private int firstIndexNotBelow(byte[] prefix, boolean after) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = comparePrefix(mid, prefix);
+            if (cmp < 0 || (after && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int comparePrefix(int index, byte[] prefix) {
+        int offset = index * hashLength;
+        for (int i = 0; i < prefix.length; i++) {
+            int cmp = Byte.compareUnsigned(hashes.get(offset + i), prefix[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    public static Builder builder(int hashLength) {
+        return new Builder(hashLength);
+    }
+
+    /** collects hashes in ascending (unsigned) order into a growing direct buffer */
+    public static class Builder {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final int hashLength;
+        private int size;
+        private ByteBuffer hashes;
+        private byte[] last;
+
+        private Builder(int hashLength) {
+            this.hashLength = hashLength;
+            this.hashes = ByteBuffer.allocateDirect(INITIAL_CAPACITY * hashLength);
+        }
+
+        public Builder add(byte[] hash) {
+            if (hash.length != hashLength) {
+                throw new IllegalArgumentException("hashes must be " + hashLength + " bytes");
+            }
+            if (last != null && Arrays.compareUnsigned(last, hash) > 0) {
+                throw new IllegalArgumentException("hashes must be added in ascending order");
+            }
+            int offset = size * hashLength;
+            if (offset + hashLength > hashes.capacity()) {
+                long capacity = 2L * hashes.capacity();
+                if (capacity > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("revoked uvci hashes exceed 2 GB");
+                }
+                hashes =
+                        ByteBuffer.allocateDirect((int) capacity)
+                                .put(hashes.limit(offset))
+                                .clear();
+            }
+            hashes.put(offset, hash);
+            last = hash;
+            size++;
+            return this;
+        }
+
+        public RevocationHashIndex build() {
+            return new RevocationHashIndex(hashLength, size, hashes.asReadOnlyBuffer());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
+import java.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Holds the {@link RevocationHashIndex} matching the current {@link RevocationSnapshot}. The
+ * hashes are loaded from the db already sorted whenever a new snapshot is swapped in, until then
+ * the previous index is served; only the very first build blocks requests.
+ */
+public class RevocationHashIndexCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationHashIndexCache.class);
+
+    private final RevokedCertDataService revokedCertDataService;
+    private final RevocationSnapshotCache revocationSnapshotCache;
+
+    private volatile RevocationHashIndex index;
+    private volatile RevocationSnapshot indexedSnapshot;
+
+    public RevocationHashIndexCache(
+            RevokedCertDataService revokedCertDataService,
+            RevocationSnapshotCache revocationSnapshotCache) {
+        this.revokedCertDataService = revokedCertDataService;
+        this.revocationSnapshotCache = revocationSnapshotCache;
+    }
+
+    public RevocationHashIndex get(Instant now) {
+        RevocationSnapshot snapshot = revocationSnapshotCache.get(now);
+        RevocationHashIndex current = index;
+        if (current == null) {
+            return refresh(snapshot);
+        }
+        if (snapshot != indexedSnapshot) {
+            CacheRefresher.refreshInBackground(this, () -> refresh(snapshot));
+        }
+        return current;
+    }
+
+    /** Rebuilds the index right away so requests don't have to wait for it. */
+    @EventListener
+    public void onRevocationSnapshotChanged(RevocationSnapshotChangedEvent event) {
+        refresh(event.getSnapshot());
+    }
+
+    private synchronized RevocationHashIndex refresh(RevocationSnapshot snapshot) {
+        if (snapshot == indexedSnapshot) {
+            // another thread refreshed while we were waiting for the lock
+            return index;
+        }
+        if (index != null && !revocationSnapshotCache.isCurrent(snapshot)) {
+            // a newer snapshot was swapped in meanwhile, its own refresh follows
+            return index;
+        }
+        RevocationHashIndex.Builder builder =
+                RevocationHashIndex.builder(RevokedCertDataService.UVCI_HASH_LENGTH);
+        revokedCertDataService.streamReleasedRevokedCertHashes(
+                snapshot.getReleasedUpTo(), builder::add);
+        RevocationHashIndex current = builder.build();
+        index = current;
+        indexedSnapshot = snapshot;
+        logger.info("rebuilt revocation hash index with {} revoked certs", current.size());
+        return current;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Holds the V1 revocation list, i.e. all revoked certs stored by the revocation list syncer, as
+ * fully rendered JSON and JWS bodies together with their sha256 for strong etags. Everything is
+ * rebuilt whenever the revoked cert generation reported by the {@link DataGenerationWatcher}
+ * changes, in between requests are served without touching the db or the upstream revocation list.
+ * While the list is rebuilt the previous one is served, only the very first build blocks requests.
+ */
+public class RevocationListV1Cache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationListV1Cache.class);
+
+    private final ObjectMapper objectMapper;
+    private final RevokedCertDataService revokedCertDataService;
+    private final DataGenerationWatcher dataGenerationWatcher;
+    private final JwsMessageConverter jwsMessageConverter;
+
+    private volatile RenderedList list;
+
+    public RevocationListV1Cache(
+            RevokedCertDataService revokedCertDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper) {
+        this.revokedCertDataService = revokedCertDataService;
+        this.dataGenerationWatcher = dataGenerationWatcher;
+        this.jwsMessageConverter = jwsMessageConverter;
+        this.objectMapper = objectMapper;
+    }
+
+    public RenderedList get() {
+        long dataGeneration = dataGenerationWatcher.getGeneration(DataType.REVOKED_CERT);
+        RenderedList current = list;
+        if (current == null) {
+            return refresh(dataGeneration);
+        }
+        if (current.dataGeneration != dataGeneration) {
+            CacheRefresher.refreshInBackground(
+                    this,
+                    () -> refresh(dataGenerationWatcher.getGeneration(DataType.REVOKED_CERT)));
+        }
+        return current;
+    }
+
+    /** Rebuilds the list right away so the next request doesn't have to wait for it. */
+    @EventListener
+    public void onDataGenerationChanged(DataGenerationChangedEvent event) {
+        if (event.getDataType() == DataType.REVOKED_CERT) {
+            refresh(event.getGeneration());
+        }
+    }
+
+    private synchronized RenderedList refresh(long dataGeneration) {
+        RenderedList current = list;
+        if (current != null && current.dataGeneration == dataGeneration) {
+            // another thread refreshed while we were waiting for the lock
+            return current;
+        }
+        List<String> revokedCerts = new ArrayList<>();
+        revokedCertDataService.streamRevokedCerts(
+                revokedCert -> revokedCerts.add(revokedCert.getUvci()));
+        RevocationResponse body = new RevocationResponse(revokedCerts);
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("could not serialize revocation list", e);
+        }
+        byte[] jws = jwsMessageConverter.sign(body).getBytes(StandardCharsets.UTF_8);
+        current = new RenderedList(dataGeneration, json, jws);
+        list = current;
+        logger.info("rebuilt v1 revocation list with {} revoked certs", revokedCerts.size());
+        return current;
+    }
+
+    public static class RenderedList {
+        private final long dataGeneration;
+        private final byte[] json;
+        private final byte[] jws;
+        private final String jsonSha256;
+        private final String jwsSha256;
+
+        private RenderedList(long dataGeneration, byte[] json, byte[] jws) {
+            this.dataGeneration = dataGeneration;
+            this.json = json;
+            this.jws = jws;
+            this.jsonSha256 = DigestUtils.sha256Hex(json);
+            this.jwsSha256 = DigestUtils.sha256Hex(jws);
+        }
+
+        /** hex encoded sha256 of the body, so every representation gets its own etag */
+        public String getSha256(boolean jws) {
+            return jws ? jwsSha256 : jsonSha256;
+        }
+
+        public byte[] getBody(boolean jws) {
+            return jws ? this.jws : json;
+        }
+    }
+}
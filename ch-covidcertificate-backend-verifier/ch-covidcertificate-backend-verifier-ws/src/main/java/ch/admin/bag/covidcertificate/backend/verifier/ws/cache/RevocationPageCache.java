@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rendered (and, for JWS, signed) revocation list pages of a {@link RevocationSnapshot}. Since all
+ * cached pages expire at the same retention bucket start, the pages of the upcoming bucket are
+ * {@link #prerender(Instant) pre-rendered} shortly before it starts: the chains from the most
+ * recent bucket boundaries, which is where clients that were up to date continue. The pre-rendered
+ * pages are swapped in together with the snapshot they belong to. Pages requested with any other
+ * `since` are rendered on demand, including the chain from the beginning, which holds the whole
+ * list. The same goes for the deltas up to the current snapshot clients are redirected to from
+ * the recent bucket boundaries, all other deltas are rendered on demand.
+ */
+public class RevocationPageCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationPageCache.class);
+
+    private final ObjectMapper objectMapper;
+    private final RevocationSnapshotCache revocationSnapshotCache;
+    private final JwsMessageConverter jwsMessageConverter;
+    private final int batchSize;
+    private final Duration leadTime;
+    private final int recentBuckets;
+    private final int maxOnDemandPages;
+
+    private volatile RenderedPages pages;
+    private volatile RenderedPages upcoming;
+
+    public RevocationPageCache(
+            RevocationSnapshotCache revocationSnapshotCache,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper,
+            int batchSize,
+            Duration leadTime,
+            int recentBuckets,
+            int maxOnDemandPages) {
+        this.revocationSnapshotCache = revocationSnapshotCache;
+        this.jwsMessageConverter = jwsMessageConverter;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.leadTime = leadTime;
+        this.recentBuckets = recentBuckets;
+        this.maxOnDemandPages = maxOnDemandPages;
+    }
+
+    /** returns the page of `snapshot` with the revoked certs after `since` */
+    public RenderedPage get(RevocationSnapshot snapshot, long since, boolean jws) {
+        return getPages(snapshot).get(since, jws);
+    }
+
+    /**
+     * returns the rendered delta of `snapshot` from `since` up to and including `until`, both
+     * have to be bucket boundaries of the snapshot (or 0 for `since`)
+     */
+    public byte[] getDelta(RevocationSnapshot snapshot, long since, long until, boolean jws) {
+        return getPages(snapshot).getDelta(since, until, jws);
+    }
+
+    /**
+     * pre-renders the pages and deltas of the next retention bucket from its recent bucket
+     * boundaries if it starts within the lead time and they aren't rendered for the current
+     * revoked cert generation yet
+     *
+     * @return the number of rendered pages
+     */
+    public int prerender(Instant now) {
+        Instant bucketStart = CacheUtil.roundToNextRevocationRetentionBucketStart(now);
+        if (Duration.between(now, bucketStart).compareTo(leadTime) > 0) {
+            return 0;
+        }
+        RevocationSnapshot snapshot = revocationSnapshotCache.prepare(bucketStart);
+        RenderedPages prepared = upcoming;
+        if (prepared != null && prepared.snapshot == snapshot) {
+            return 0;
+        }
+        prepared = new RenderedPages(snapshot);
+        // the chain and the delta from 0 hold the whole list, they are rendered on demand so it
+        // isn't kept on the heap for both the current and the upcoming bucket
+        int count = 0;
+        for (long boundary : snapshot.getRecentBucketBoundaries(recentBuckets)) {
+            count += prepared.renderChain(boundary);
+        }
+        long until = snapshot.getMaxPkId();
+        for (long boundary : snapshot.getRecentBucketBoundaries(recentBuckets)) {
+            if (boundary < until) {
+                prepared.renderDelta(boundary, until);
+            }
+        }
+        upcoming = prepared;
+        logger.info("pre-rendered {} revocation pages released at {}", count, bucketStart);
+        return count;
+    }
+
+    private RenderedPages getPages(RevocationSnapshot snapshot) {
+        RenderedPages current = pages;
+        if (current != null && current.snapshot == snapshot) {
+            return current;
+        }
+        RenderedPages swapped = swap(snapshot);
+        if (swapped != null) {
+            return swapped;
+        }
+        // a request that still holds a replaced snapshot, its pages are rendered without being
+        // cached so they don't replace the pages of the current snapshot
+        return new RenderedPages(snapshot);
+    }
+
+    /** swaps in the pages of `snapshot`, returns null if it isn't the current snapshot any more */
+    private synchronized RenderedPages swap(RevocationSnapshot snapshot) {
+        RenderedPages current = pages;
+        if (current != null && current.snapshot == snapshot) {
+            // another thread swapped while we were waiting for the lock
+            return current;
+        }
+        if (!revocationSnapshotCache.isCurrent(snapshot)) {
+            return null;
+        }
+        RenderedPages prepared = upcoming;
+        if (prepared != null && prepared.snapshot == snapshot) {
+            current = prepared;
+            upcoming = null;
+        } else {
+            current = new RenderedPages(snapshot);
+        }
+        pages = current;
+        return current;
+    }
+
+    private byte[] render(RevocationResponse body, boolean jws) {
+        if (jws) {
+            return jwsMessageConverter.sign(body).getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            return objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("could not serialize revocation page", e);
+        }
+    }
+
+    private class RenderedPages {
+        private final RevocationSnapshot snapshot;
+        // pages are keyed by the snapshot index they start at, all `since` values between two
+        // pk ids share a page
+        private final Map<PageKey, RenderedPage> renderedPages = new ConcurrentHashMap<>();
+        private final Map<DeltaKey, byte[]> renderedDeltas = new ConcurrentHashMap<>();
+        private int onDemandPages;
+
+        RenderedPages(RevocationSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        RenderedPage get(long since, boolean jws) {
+            PageKey key = new PageKey(snapshot.countUpTo(since), jws);
+            RenderedPage page = renderedPages.get(key);
+            if (page == null) {
+                page = render(since, jws);
+                if (reserveOnDemandPage()) {
+                    renderedPages.putIfAbsent(key, page);
+                }
+            }
+            return page;
+        }
+
+        byte[] getDelta(long since, long until, boolean jws) {
+            DeltaKey key = new DeltaKey(since, until, jws);
+            byte[] delta = renderedDeltas.get(key);
+            if (delta == null) {
+                delta = renderDelta(since, until, jws);
+                if (reserveOnDemandPage()) {
+                    renderedDeltas.putIfAbsent(key, delta);
+                }
+            }
+            return delta;
+        }
+
+        /** renders the JSON and the JWS delta from `since` up to and including `until` */
+        void renderDelta(long since, long until) {
+            for (boolean jws : new boolean[] {false, true}) {
+                renderedDeltas.computeIfAbsent(
+                        new DeltaKey(since, until, jws), key -> renderDelta(since, until, jws));
+            }
+        }
+
+        private byte[] renderDelta(long since, long until, boolean jws) {
+            return RevocationPageCache.this.render(
+                    new RevocationResponse(snapshot.getDelta(since, until)), jws);
+        }
+
+        /** renders the pages from `since` up to the (empty) up to date page */
+        int renderChain(long since) {
+            int count = 0;
+            while (true) {
+                int from = snapshot.countUpTo(since);
+                RenderedPage page = null;
+                for (boolean jws : new boolean[] {false, true}) {
+                    PageKey key = new PageKey(from, jws);
+                    page = renderedPages.get(key);
+                    if (page == null) {
+                        page = render(since, jws);
+                        renderedPages.put(key, page);
+                        count++;
+                    }
+                }
+                if (page.isUpToDate()) {
+                    return count;
+                }
+                since = page.getNextSince();
+            }
+        }
+
+        private RenderedPage render(long since, boolean jws) {
+            RevocationSnapshot.Page page = snapshot.getPage(since, batchSize);
+            return new RenderedPage(
+                    RevocationPageCache.this.render(new RevocationResponse(page.getUvcis()), jws),
+                    page.getNextSince(),
+                    page.isUpToDate());
+        }
+
+        private synchronized boolean reserveOnDemandPage() {
+            if (onDemandPages >= maxOnDemandPages) {
+                return false;
+            }
+            onDemandPages++;
+            return true;
+        }
+    }
+
+    public static class RenderedPage {
+        private final byte[] body;
+        private final long nextSince;
+        private final boolean upToDate;
+
+        RenderedPage(byte[] body, long nextSince, boolean upToDate) {
+            this.body = body;
+            this.nextSince = nextSince;
+            this.upToDate = upToDate;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /** returns the `since` to use for the next request */
+        public long getNextSince() {
+            return nextSince;
+        }
+
+        public boolean isUpToDate() {
+            return upToDate;
+        }
+    }
+
+    private static class PageKey {
+        private final int from;
+        private final boolean jws;
+
+        PageKey(int from, boolean jws) {
+            this.from = from;
+            this.jws = jws;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) o;
+            return from == other.from && jws == other.jws;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * from + (jws ? 1 : 0);
+        }
+    }
+
+    private static class DeltaKey {
+        private final long since;
+        private final long until;
+        private final boolean jws;
+
+        DeltaKey(long since, long until, boolean jws) {
+            this.since = since;
+            this.until = until;
+            this.jws = jws;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DeltaKey)) {
+                return false;
+            }
+            DeltaKey other = (DeltaKey) o;
+            return since == other.since && until == other.until && jws == other.jws;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Long.hashCode(since) + Long.hashCode(until)) + (jws ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Exact membership test for the revoked certs of a {@link RevocationSnapshot}. An open addressing
+ * table with linear probing holds a 64-bit hash and the snapshot index of every uvci in two
+ * primitive arrays, so a lookup costs one hash and usually one array slot. A matching hash is
+ * confirmed against the uvci bytes in the snapshot.
+ */
+public class RevocationSet {
+
+    // at most 50% of the slots are used, which keeps the probe sequences short
+    private static final int SLOTS_PER_ENTRY = 2;
+
+    private final RevocationSnapshot snapshot;
+    private final long[] hashes;
+    // snapshot index + 1 of the uvci in the slot, 0 for empty slots
+    private final int[] entries;
+    private final int mask;
+
+    private RevocationSet(RevocationSnapshot snapshot) {
+        this.snapshot = snapshot;
+        int slots = Integer.highestOneBit(Math.max(1, snapshot.size() * SLOTS_PER_ENTRY - 1)) << 1;
+        this.hashes = new long[slots];
+        this.entries = new int[slots];
+        this.mask = slots - 1;
+        for (int index = 0; index < snapshot.size(); index++) {
+            long hash = hash(snapshot.getUvciBytes(index));
+            int slot = (int) hash & mask;
+            while (entries[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            entries[slot] = index + 1;
+        }
+    }
+
+    public static RevocationSet of(RevocationSnapshot snapshot) {
+        return new RevocationSet(snapshot);
+    }
+
+    public RevocationSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public boolean contains(String uvci) {
+        byte[] bytes = uvci.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(bytes);
+        int slot = (int) hash & mask;
+        while (entries[slot] != 0) {
+            if (hashes[slot] == hash && snapshot.uvciEquals(entries[slot] - 1, bytes)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /** 64-bit FNV-1a with the murmur3 finalizer, so the low bits used for the slot are mixed */
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
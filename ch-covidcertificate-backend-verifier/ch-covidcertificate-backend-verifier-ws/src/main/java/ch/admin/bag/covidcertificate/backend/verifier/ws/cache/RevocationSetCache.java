@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import java.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Holds the {@link RevocationSet} of the current {@link RevocationSnapshot}. The set is rebuilt
+ * when a new snapshot is swapped in, until then the previous set is served; only the very first
+ * build blocks requests.
+ */
+public class RevocationSetCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationSetCache.class);
+
+    private final RevocationSnapshotCache revocationSnapshotCache;
+
+    private volatile RevocationSet set;
+
+    public RevocationSetCache(RevocationSnapshotCache revocationSnapshotCache) {
+        this.revocationSnapshotCache = revocationSnapshotCache;
+    }
+
+    public RevocationSet get(Instant now) {
+        RevocationSnapshot snapshot = revocationSnapshotCache.get(now);
+        RevocationSet current = set;
+        if (current == null) {
+            return refresh(snapshot);
+        }
+        if (current.getSnapshot() != snapshot) {
+            CacheRefresher.refreshInBackground(this, () -> refresh(snapshot));
+        }
+        return current;
+    }
+
+    /** Rebuilds the set right away so requests don't have to wait for it. */
+    @EventListener
+    public void onRevocationSnapshotChanged(RevocationSnapshotChangedEvent event) {
+        refresh(event.getSnapshot());
+    }
+
+    private synchronized RevocationSet refresh(RevocationSnapshot snapshot) {
+        RevocationSet current = set;
+        if (current != null && current.getSnapshot() == snapshot) {
+            // another thread refreshed while we were waiting for the lock
+            return current;
+        }
+        if (current != null && !revocationSnapshotCache.isCurrent(snapshot)) {
+            // a newer snapshot was swapped in meanwhile, its own refresh follows
+            return current;
+        }
+        current = RevocationSet.of(snapshot);
+        set = current;
+        logger.info("rebuilt revocation set with {} revoked certs", snapshot.size());
+        return current;
+    }
+}
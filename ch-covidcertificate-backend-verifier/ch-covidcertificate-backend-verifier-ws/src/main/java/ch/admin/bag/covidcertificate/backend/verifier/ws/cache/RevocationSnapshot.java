@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable view of all released revoked certs as of one revocation retention bucket, sorted by pk
+ * id. The pk ids, the offsets and the UTF-8 encoded UVCIs are kept in direct buffers so millions
+ * of entries neither live on the heap nor have to be traced by the GC. Instances are shared
+ * between all request threads, only absolute (thread safe) buffer reads are used.
+ */
+public class RevocationSnapshot {
+
+    private final Instant releasedUpTo;
+    private final int size;
+    private final LongBuffer pkIds;
+    // offsets[i] is the start of the i-th uvci in uvcis, offsets[size] the end of the last one
+    private final IntBuffer offsets;
+    private final ByteBuffer uvcis;
+    // highest pk id released at each past retention bucket start, ascending
+    private final long[] bucketBoundaries;
+
+    private RevocationSnapshot(
+            Instant releasedUpTo,
+            int size,
+            LongBuffer pkIds,
+            IntBuffer offsets,
+            ByteBuffer uvcis,
+            long[] bucketBoundaries) {
+        this.releasedUpTo = releasedUpTo;
+        this.size = size;
+        this.pkIds = pkIds;
+        this.offsets = offsets;
+        this.uvcis = uvcis;
+        this.bucketBoundaries = bucketBoundaries;
+    }
+
+    /** returns the start of the retention bucket up to which revoked certs are released */
+    public Instant getReleasedUpTo() {
+        return releasedUpTo;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** returns the highest pk id in this snapshot, 0 if it is empty */
+    public long getMaxPkId() {
+        return size > 0 ? pkIds.get(size - 1) : 0L;
+    }
+
+    /**
+     * returns the next batch of at most `batchSize` revoked certs with a pk id greater than
+     * `since`
+     */
+    public Page getPage(long since, int batchSize) {
+        int from = indexAfter(since);
+        int to = (int) Math.min(size, (long) from + batchSize);
+        List<String> page = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            page.add(getUvci(i));
+        }
+        long maxPkId = getMaxPkId();
+        long nextSince = to > from ? pkIds.get(to - 1) : maxPkId;
+        return new Page(page, nextSince, nextSince >= maxPkId);
+    }
+
+    /** returns the number of entries with a pk id of at most `pkId` */
+    public int countUpTo(long pkId) {
+        return indexAfter(pkId);
+    }
+
+    /**
+     * returns the highest pk id a client could have been handed as `since` at the start of a past
+     * retention bucket which is not greater than `since`, 0 if there is none. Deltas starting at
+     * such a boundary are shared by all clients that caught up in the same bucket.
+     */
+    public long getDeltaBase(long since) {
+        int index = Arrays.binarySearch(bucketBoundaries, since);
+        if (index >= 0) {
+            return bucketBoundaries[index];
+        }
+        int insertionPoint = -index - 1;
+        return insertionPoint > 0 ? bucketBoundaries[insertionPoint - 1] : 0L;
+    }
+
+    /**
+     * returns the (at most `count`) most recent retention bucket boundaries, see {@link
+     * #getDeltaBase(long)}, ascending
+     */
+    public long[] getRecentBucketBoundaries(int count) {
+        return Arrays.copyOfRange(
+                bucketBoundaries,
+                Math.max(0, bucketBoundaries.length - count),
+                bucketBoundaries.length);
+    }
+
+    /**
+     * returns whether `pkId` is the highest pk id released at the start of some retention bucket,
+     * see {@link #getDeltaBase(long)}. The highest pk id of the snapshot always is one.
+     */
+    public boolean isBucketBoundary(long pkId) {
+        return Arrays.binarySearch(bucketBoundaries, pkId) >= 0;
+    }
+
+    /** returns all uvcis with a pk id greater than `since` and at most `until` */
+    public List<String> getDelta(long since, long until) {
+        int from = indexAfter(since);
+        int to = Math.max(from, indexAfter(until));
+        List<String> delta = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            delta.add(getUvci(i));
+        }
+        return Collections.unmodifiableList(delta);
+    }
+
+    /** returns the index of the first entry with a pk id greater than `since` */
+    private int indexAfter(long since) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pkIds.get(mid) <= since) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private String getUvci(int index) {
+        return new String(getUvciBytes(index), StandardCharsets.UTF_8);
+    }
+
+    /** returns the UTF-8 encoded uvci at `index` (in pk id order) */
+    byte[] getUvciBytes(int index) {
+        int start = offsets.get(index);
+        byte[] bytes = new byte[offsets.get(index + 1) - start];
+        uvcis.get(start, bytes);
+        return bytes;
+    }
+
+    /** compares the uvci at `index` with the UTF-8 encoded `uvci` without copying it */
+    boolean uvciEquals(int index, byte[] uvci) {
+        int start = offsets.get(index);
+        if (offsets.get(index + 1) - start != uvci.length) {
+            return false;
+        }
+        for (int i = 0; i < uvci.length; i++) {
+            if (uvcis.get(start + i) != uvci[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static Builder builder(Instant releasedUpTo) {
+        return new Builder(releasedUpTo);
+    }
+
+    /** collects revoked certs in ascending pk id order into growing direct buffers */
+    public static class Builder {
+
+        private static final int INITIAL_CAPACITY = 1024;
+        private static final int AVERAGE_UVCI_LENGTH = 48;
+
+        private final Instant releasedUpTo;
+        private int size;
+        private LongBuffer pkIds = allocateLongs(INITIAL_CAPACITY);
+        private IntBuffer offsets = allocateInts(INITIAL_CAPACITY + 1);
+        private ByteBuffer uvcis = allocateBytes(INITIAL_CAPACITY * AVERAGE_UVCI_LENGTH);
+        private final Map<Instant, Long> maxPkIdByReleaseTime = new TreeMap<>();
+
+        private Builder(Instant releasedUpTo) {
+            this.releasedUpTo = releasedUpTo;
+            offsets.put(0, 0);
+        }
+
+        public Builder add(long pkId, String uvci) {
+            return add(pkId, uvci, releasedUpTo);
+        }
+
+        /**
+         * adds a revoked cert which was released at the start of the retention bucket
+         * `releasedAt`
+         */
+        public Builder add(long pkId, String uvci, Instant releasedAt) {
+            if (size > 0 && pkId <= pkIds.get(size - 1)) {
+                throw new IllegalArgumentException("revoked certs must be added in pk id order");
+            }
+            byte[] bytes = uvci.getBytes(StandardCharsets.UTF_8);
+            if (size == pkIds.capacity()) {
+                pkIds = allocateLongs(pkIds.capacity() * 2).put(pkIds.rewind());
+                offsets = allocateInts(pkIds.capacity() + 1).put(offsets.limit(size + 1));
+                pkIds.clear();
+                offsets.clear();
+            }
+            int start = offsets.get(size);
+            if (uvcis.capacity() - start < bytes.length) {
+                long capacity = Math.max(2L * uvcis.capacity(), (long) start + bytes.length);
+                if (capacity > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("revoked uvcis exceed 2 GB");
+                }
+                uvcis = allocateBytes((int) capacity).put(uvcis.limit(start)).clear();
+            }
+            pkIds.put(size, pkId);
+            uvcis.put(start, bytes);
+            offsets.put(size + 1, start + bytes.length);
+            size++;
+            maxPkIdByReleaseTime.merge(releasedAt, pkId, Math::max);
+            return this;
+        }
+
+        public RevocationSnapshot build() {
+            // a bucket's boundary also covers certs released in earlier buckets
+            long[] bucketBoundaries = new long[maxPkIdByReleaseTime.size()];
+            int count = 0;
+            for (long maxPkId : maxPkIdByReleaseTime.values()) {
+                if (count == 0 || maxPkId > bucketBoundaries[count - 1]) {
+                    bucketBoundaries[count++] = maxPkId;
+                }
+            }
+            return new RevocationSnapshot(
+                    releasedUpTo,
+                    size,
+                    pkIds.asReadOnlyBuffer(),
+                    offsets.asReadOnlyBuffer(),
+                    uvcis.asReadOnlyBuffer(),
+                    Arrays.copyOf(bucketBoundaries, count));
+        }
+
+        private static LongBuffer allocateLongs(int capacity) {
+            return allocateBytes(capacity * Long.BYTES).asLongBuffer();
+        }
+
+        private static IntBuffer allocateInts(int capacity) {
+            return allocateBytes(capacity * Integer.BYTES).asIntBuffer();
+        }
+
+        private static ByteBuffer allocateBytes(int capacity) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    public static class Page {
+
+        private final List<String> uvcis;
+        private final long nextSince;
+        private final boolean upToDate;
+
+        Page(List<String> uvcis, long nextSince, boolean upToDate) {
+            this.uvcis = Collections.unmodifiableList(uvcis);
+            this.nextSince = nextSince;
+            this.upToDate = upToDate;
+        }
+
+        public List<String> getUvcis() {
+            return uvcis;
+        }
+
+        /** returns the `since` to use for the next request */
+        public long getNextSince() {
+            return nextSince;
+        }
+
+        public boolean isUpToDate() {
+            return upToDate;
+        }
+    }
+}
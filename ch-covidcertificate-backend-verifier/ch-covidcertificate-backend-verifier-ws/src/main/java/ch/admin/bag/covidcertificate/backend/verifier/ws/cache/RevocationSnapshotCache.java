@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import java.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Holds the current {@link RevocationSnapshot}. The snapshot is rebuilt from the db whenever a new
+ * revocation retention bucket starts or the revoked cert generation reported by the {@link
+ * DataGenerationWatcher} changes, in between all pages are served from memory. The snapshot of
+ * the upcoming bucket can be {@link #prepare(Instant) prepared} ahead of time, it is swapped in
+ * at the bucket start if the revoked certs didn't change in the meantime.
+ *
+ * <p>After a generation change the current snapshot is served until the rebuilt one is swapped
+ * in, only the very first build and a bucket start without a prepared snapshot block requests.
+ * Every swap publishes a {@link RevocationSnapshotChangedEvent}.
+ */
+public class RevocationSnapshotCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationSnapshotCache.class);
+
+    private final RevokedCertDataService revokedCertDataService;
+    private final DataGenerationWatcher dataGenerationWatcher;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private volatile RevocationSnapshot snapshot;
+    private volatile long snapshotDataGeneration = -1;
+    private volatile PreparedSnapshot upcoming;
+    private final Object prepareLock = new Object();
+
+    public RevocationSnapshotCache(
+            RevokedCertDataService revokedCertDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            ApplicationEventPublisher eventPublisher) {
+        this.revokedCertDataService = revokedCertDataService;
+        this.dataGenerationWatcher = dataGenerationWatcher;
+        this.eventPublisher = eventPublisher;
+    }
+
+    public RevocationSnapshot get(Instant now) {
+        long dataGeneration = dataGenerationWatcher.getGeneration(DataType.REVOKED_CERT);
+        Instant releasedUpTo = CacheUtil.roundToPreviousRevocationRetentionBucketStart(now);
+        RevocationSnapshot current = snapshot;
+        if (current == null || !current.getReleasedUpTo().equals(releasedUpTo)) {
+            // the certs of the new bucket have to be released right at its start, so the previous
+            // snapshot can't be served any longer. Usually it was prepared and is only swapped in,
+            // the caches derived from it are rebuilt in the background
+            RevocationSnapshot swapped = swap(dataGeneration, now);
+            if (swapped != current) {
+                CacheRefresher.refreshInBackground(swapped, () -> publishChanged(swapped));
+            }
+            return swapped;
+        }
+        if (dataGeneration != snapshotDataGeneration) {
+            CacheRefresher.refreshInBackground(this, this::refresh);
+        }
+        return current;
+    }
+
+    /** Rebuilds the snapshot right away so the next request doesn't have to wait for it. */
+    @EventListener
+    public void onDataGenerationChanged(DataGenerationChangedEvent event) {
+        if (event.getDataType() == DataType.REVOKED_CERT) {
+            refresh(event.getGeneration(), Instant.now());
+        }
+    }
+
+    /** returns whether `snapshot` is the one currently served */
+    boolean isCurrent(RevocationSnapshot snapshot) {
+        return this.snapshot == snapshot;
+    }
+
+    /**
+     * builds the snapshot of the retention bucket starting at `bucketStart` unless it is already
+     * prepared for the current revoked cert generation
+     */
+    public RevocationSnapshot prepare(Instant bucketStart) {
+        synchronized (prepareLock) {
+            long dataGeneration = dataGenerationWatcher.getGeneration(DataType.REVOKED_CERT);
+            PreparedSnapshot prepared = upcoming;
+            if (prepared != null && prepared.matches(dataGeneration, bucketStart)) {
+                return prepared.snapshot;
+            }
+            RevocationSnapshot snapshot = build(bucketStart);
+            upcoming = new PreparedSnapshot(snapshot, dataGeneration);
+            logger.info(
+                    "prepared revocation snapshot with {} revoked certs released up to {}",
+                    snapshot.size(),
+                    snapshot.getReleasedUpTo());
+            return snapshot;
+        }
+    }
+
+    private boolean isOutdated(
+            RevocationSnapshot current, long dataGeneration, Instant releasedUpTo) {
+        return current == null
+                || dataGeneration != snapshotDataGeneration
+                || !current.getReleasedUpTo().equals(releasedUpTo);
+    }
+
+    private void refresh() {
+        refresh(dataGenerationWatcher.getGeneration(DataType.REVOKED_CERT), Instant.now());
+    }
+
+    private void refresh(long dataGeneration, Instant now) {
+        RevocationSnapshot previous = snapshot;
+        RevocationSnapshot current = swap(dataGeneration, now);
+        if (current != previous) {
+            publishChanged(current);
+        }
+    }
+
+    /** publishes the change unless the snapshot was replaced again in the meantime */
+    private void publishChanged(RevocationSnapshot swapped) {
+        if (isCurrent(swapped)) {
+            eventPublisher.publishEvent(new RevocationSnapshotChangedEvent(swapped));
+        }
+    }
+
+    private synchronized RevocationSnapshot swap(long dataGeneration, Instant now) {
+        Instant releasedUpTo = CacheUtil.roundToPreviousRevocationRetentionBucketStart(now);
+        RevocationSnapshot current = snapshot;
+        if (!isOutdated(current, dataGeneration, releasedUpTo)) {
+            // another thread refreshed while we were waiting for the lock
+            return current;
+        }
+        PreparedSnapshot prepared = upcoming;
+        if (prepared != null && !prepared.snapshot.getReleasedUpTo().isAfter(releasedUpTo)) {
+            // the prepared bucket has started, the snapshot is either used now or outdated
+            upcoming = null;
+        }
+        if (prepared != null && prepared.matches(dataGeneration, releasedUpTo)) {
+            current = prepared.snapshot;
+            logger.info("swapped in prepared revocation snapshot released up to {}", releasedUpTo);
+        } else {
+            current = build(now);
+            logger.info(
+                    "rebuilt revocation snapshot with {} revoked certs released up to {}",
+                    current.size(),
+                    releasedUpTo);
+        }
+        snapshot = current;
+        snapshotDataGeneration = dataGeneration;
+        return current;
+    }
+
+    private RevocationSnapshot build(Instant now) {
+        RevocationSnapshot.Builder builder =
+                RevocationSnapshot.builder(
+                        CacheUtil.roundToPreviousRevocationRetentionBucketStart(now));
+        revokedCertDataService.streamReleasedRevokedCerts(
+                now,
+                revokedCert ->
+                        builder.add(
+                                revokedCert.getPkId(),
+                                revokedCert.getUvci(),
+                                getReleasedAt(revokedCert.getImportedAt())));
+        return builder.build();
+    }
+
+    /** returns the retention bucket start at which a cert imported at `importedAt` is released */
+    private static Instant getReleasedAt(Instant importedAt) {
+        // certs imported exactly at a bucket start are released right away
+        return CacheUtil.roundToNextRevocationRetentionBucketStart(importedAt.minusMillis(1));
+    }
+
+    private static class PreparedSnapshot {
+        private final RevocationSnapshot snapshot;
+        private final long dataGeneration;
+
+        PreparedSnapshot(RevocationSnapshot snapshot, long dataGeneration) {
+            this.snapshot = snapshot;
+            this.dataGeneration = dataGeneration;
+        }
+
+        boolean matches(long dataGeneration, Instant releasedUpTo) {
+            return this.dataGeneration == dataGeneration
+                    && snapshot.getReleasedUpTo().equals(releasedUpTo);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+/**
+ * Published by the {@link RevocationSnapshotCache} after a new snapshot was swapped in, so the
+ * caches derived from it can be rebuilt before requests ask for them
+ */
+public class RevocationSnapshotChangedEvent {
+
+    private final RevocationSnapshot snapshot;
+
+    public RevocationSnapshotChangedEvent(RevocationSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public RevocationSnapshot getSnapshot() {
+        return snapshot;
+    }
+}
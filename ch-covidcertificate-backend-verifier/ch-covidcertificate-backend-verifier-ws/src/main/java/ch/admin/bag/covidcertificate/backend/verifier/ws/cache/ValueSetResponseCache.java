@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DbValueSet;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.model.valuesets.TestValueSets;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.model.valuesets.VaccineValueSets;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.model.valuesets.ValueSets;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.GzipUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Holds the rendered value set responses: the V1 metadata, i.e. the value sets bundled with the
+ * app plus the latest lab test manufacturers, as JSON and JWS, and the latest version of every
+ * value set as stored by the value set syncer. Everything is rendered, gzip compressed and hashed
+ * once per value set generation reported by the {@link DataGenerationWatcher}, requests only pick
+ * the bytes. While the responses are rebuilt the previous ones are served, only the very first
+ * build blocks requests.
+ */
+public class ValueSetResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ValueSetResponseCache.class);
+
+    public static final String LAB_TEST_MANUFACTURER_VALUE_SET_ID =
+            "covid-19-lab-test-manufacturer-and-name";
+
+    private final ObjectMapper objectMapper;
+    private final ValueSetDataService valueSetDataService;
+    private final DataGenerationWatcher dataGenerationWatcher;
+    private final JwsMessageConverter jwsMessageConverter;
+    // never modified after construction
+    private final Map testType;
+    private final VaccineValueSets vaccineValueSets;
+
+    private volatile RenderedValueSets valueSets;
+
+    public ValueSetResponseCache(
+            ValueSetDataService valueSetDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper)
+            throws IOException {
+        this.valueSetDataService = valueSetDataService;
+        this.dataGenerationWatcher = dataGenerationWatcher;
+        this.jwsMessageConverter = jwsMessageConverter;
+        this.objectMapper = objectMapper;
+        this.testType = readFileAsMap("valuesets/test-type.json");
+        this.vaccineValueSets = new VaccineValueSets();
+        vaccineValueSets.setMahManf(readFileAsMap("valuesets/vaccine-mah-manf.json"));
+        vaccineValueSets.setMedicinalProduct(
+                readFileAsMap("valuesets/vaccine-medicinal-product.json"));
+        vaccineValueSets.setProphylaxis(readFileAsMap("valuesets/vaccine-prophylaxis.json"));
+    }
+
+    /**
+     * maps a file to a generic {@link Map}
+     *
+     * @param path relative to classpath
+     */
+    private Map readFileAsMap(String path) throws IOException {
+        try (InputStream file = new ClassPathResource(path).getInputStream()) {
+            return objectMapper.readValue(file, Map.class);
+        }
+    }
+
+    public RenderedValueSets get() {
+        long dataGeneration = dataGenerationWatcher.getGeneration(DataType.VALUE_SET);
+        RenderedValueSets current = valueSets;
+        if (current == null) {
+            return refresh(dataGeneration);
+        }
+        if (current.dataGeneration != dataGeneration) {
+            CacheRefresher.refreshInBackground(
+                    this, () -> refresh(dataGenerationWatcher.getGeneration(DataType.VALUE_SET)));
+        }
+        return current;
+    }
+
+    /** Rebuilds the responses right away so the next request doesn't have to wait for them. */
+    @EventListener
+    public void onDataGenerationChanged(DataGenerationChangedEvent event) {
+        if (event.getDataType() == DataType.VALUE_SET) {
+            refresh(event.getGeneration());
+        }
+    }
+
+    private synchronized RenderedValueSets refresh(long dataGeneration) {
+        RenderedValueSets current = valueSets;
+        if (current != null && current.dataGeneration == dataGeneration) {
+            // another thread refreshed while we were waiting for the lock
+            return current;
+        }
+        Map<String, RenderedResponse> latestValueSets = new HashMap<>();
+        Map testManf = null;
+        for (DbValueSet valueSet : valueSetDataService.findLatestValueSets()) {
+            String jsonBlob = valueSet.getJsonBlob();
+            latestValueSets.put(
+                    valueSet.getValueSetId(),
+                    new RenderedResponse(jsonBlob.getBytes(StandardCharsets.UTF_8)));
+            if (LAB_TEST_MANUFACTURER_VALUE_SET_ID.equals(valueSet.getValueSetId())) {
+                try {
+                    testManf = objectMapper.readValue(jsonBlob, Map.class);
+                } catch (JsonProcessingException e) {
+                    logger.error("Parsing value set {} failed", valueSet.getValueSetId(), e);
+                }
+            }
+        }
+
+        // a new instance per generation, rendered responses never share mutable state
+        TestValueSets test = new TestValueSets();
+        test.setType(testType);
+        test.setManf(testManf);
+        ValueSets metadata = new ValueSets(test, vaccineValueSets);
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(metadata);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("could not serialize value sets", e);
+        }
+        byte[] jws = jwsMessageConverter.sign(metadata).getBytes(StandardCharsets.UTF_8);
+
+        current =
+                new RenderedValueSets(
+                        dataGeneration,
+                        new RenderedResponse(json),
+                        new RenderedResponse(jws),
+                        latestValueSets);
+        valueSets = current;
+        logger.info("rebuilt value set responses for value set generation {}", dataGeneration);
+        return current;
+    }
+
+    public static class RenderedValueSets {
+        private final long dataGeneration;
+        private final RenderedResponse metadataJson;
+        private final RenderedResponse metadataJws;
+        private final Map<String, RenderedResponse> latestValueSets;
+
+        private RenderedValueSets(
+                long dataGeneration,
+                RenderedResponse metadataJson,
+                RenderedResponse metadataJws,
+                Map<String, RenderedResponse> latestValueSets) {
+            this.dataGeneration = dataGeneration;
+            this.metadataJson = metadataJson;
+            this.metadataJws = metadataJws;
+            this.latestValueSets = latestValueSets;
+        }
+
+        /** the V1 metadata value sets */
+        public RenderedVariant getMetadata(boolean jws, boolean gzip) {
+            return (jws ? metadataJws : metadataJson).get(gzip);
+        }
+
+        /** the latest version of the value set with the given id or null if there is none */
+        public RenderedVariant getLatestValueSet(String valueSetId, boolean gzip) {
+            RenderedResponse valueSet = latestValueSets.get(valueSetId);
+            return valueSet != null ? valueSet.get(gzip) : null;
+        }
+    }
+
+    private static class RenderedResponse {
+        private final RenderedVariant plain;
+        private final RenderedVariant gzip;
+
+        RenderedResponse(byte[] body) {
+            this.plain = new RenderedVariant(body);
+            this.gzip = new RenderedVariant(GzipUtil.gzip(body));
+        }
+
+        RenderedVariant get(boolean gzip) {
+            return gzip ? this.gzip : plain;
+        }
+    }
+}
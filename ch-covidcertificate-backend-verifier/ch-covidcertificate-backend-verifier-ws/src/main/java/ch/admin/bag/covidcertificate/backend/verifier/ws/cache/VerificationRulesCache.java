@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DataType;
+import ch.admin.bag.covidcertificate.backend.verifier.model.DbValueSet;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.GzipUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+
+/**
+ * Holds the V2 verification rules document, i.e. the rules of verificationRulesV2.json without the
+ * disabled verification modes plus the ids of all value set entries. The document is built once
+ * per value set generation reported by the {@link DataGenerationWatcher} and rendered as JSON and
+ * JWS, each also gzip compressed, so requests don't touch the db or serialize anything. While the
+ * document is rebuilt the previous one is served, only the very first build blocks requests.
+ */
+public class VerificationRulesCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerificationRulesCache.class);
+
+    public static final String MODE_RULES = "modeRules";
+    private static final String VALUE_SETS_KEY = "valueSets";
+
+    private final ObjectMapper objectMapper;
+    private final ValueSetDataService valueSetDataService;
+    private final DataGenerationWatcher dataGenerationWatcher;
+    private final JwsMessageConverter jwsMessageConverter;
+    // never modified after construction, every document is built from a copy
+    private final ObjectNode rules;
+
+    private volatile RenderedRules document;
+
+    public VerificationRulesCache(
+            ValueSetDataService valueSetDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper,
+            String[] disabledVerificationModes)
+            throws IOException {
+        this.valueSetDataService = valueSetDataService;
+        this.dataGenerationWatcher = dataGenerationWatcher;
+        this.jwsMessageConverter = jwsMessageConverter;
+        this.objectMapper = objectMapper;
+        try (InputStream verificationRulesFile =
+                new ClassPathResource("verificationRulesV2.json").getInputStream()) {
+            this.rules = (ObjectNode) objectMapper.readTree(verificationRulesFile);
+        }
+        JsonNode modeRules = rules.get(MODE_RULES);
+        removeModes((ArrayNode) modeRules.get("activeModes"), disabledVerificationModes);
+        removeModes((ArrayNode) modeRules.get("verifierActiveModes"), disabledVerificationModes);
+        removeModes((ArrayNode) modeRules.get("walletActiveModes"), disabledVerificationModes);
+    }
+
+    private static void removeModes(ArrayNode modes, String[] modesToRemove) {
+        var modesIter = modes.iterator();
+        while (modesIter.hasNext()) {
+            var mode = modesIter.next();
+            for (String disabledMode : modesToRemove) {
+                if (disabledMode.equals(mode.get("id").asText())) {
+                    modesIter.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    public RenderedRules get() {
+        long dataGeneration = dataGenerationWatcher.getGeneration(DataType.VALUE_SET);
+        RenderedRules current = document;
+        if (current == null) {
+            return refresh(dataGeneration);
+        }
+        if (current.dataGeneration != dataGeneration) {
+            CacheRefresher.refreshInBackground(
+                    this, () -> refresh(dataGenerationWatcher.getGeneration(DataType.VALUE_SET)));
+        }
+        return current;
+    }
+
+    /** Rebuilds the document right away so the next request doesn't have to wait for it. */
+    @EventListener
+    public void onDataGenerationChanged(DataGenerationChangedEvent event) {
+        if (event.getDataType() == DataType.VALUE_SET) {
+            refresh(event.getGeneration());
+        }
+    }
+
+    private synchronized RenderedRules refresh(long dataGeneration) {
+        RenderedRules current = document;
+        if (current != null && current.dataGeneration == dataGeneration) {
+            // another thread refreshed while we were waiting for the lock
+            return current;
+        }
+        Map<String, List<String>> valueSets = loadValueSetValueIds();
+        ObjectNode rulesDocument = rules.deepCopy();
+        rulesDocument.set(VALUE_SETS_KEY, objectMapper.valueToTree(valueSets));
+        byte[] json;
+        Map<?, ?> body;
+        try {
+            json = objectMapper.writeValueAsBytes(rulesDocument);
+            body = objectMapper.treeToValue(rulesDocument, Map.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("could not serialize verification rules", e);
+        }
+        byte[] jws = jwsMessageConverter.sign(body).getBytes(StandardCharsets.UTF_8);
+        current = new RenderedRules(dataGeneration, valueSets, json, jws);
+        document = current;
+        logger.info("rebuilt verification rules for value set generation {}", dataGeneration);
+        return current;
+    }
+
+    /** returns the ids of the entries of the latest version of every value set, by value set id */
+    private Map<String, List<String>> loadValueSetValueIds() {
+        // sorted, so the document (and its etag) is the same on every instance
+        Map<String, List<String>> valueSets = new TreeMap<>();
+        for (DbValueSet valueSet : valueSetDataService.findLatestValueSets()) {
+            if (valueSet.getCodes() != null) {
+                valueSets.put(valueSet.getValueSetId(), valueSet.getCodes());
+            } else {
+                logger.error("value set {} has no valueSetValues", valueSet.getValueSetId());
+            }
+        }
+        return valueSets;
+    }
+
+    /** the rendered variants of one rules document with the sha256 of each for strong etags */
+    public static class RenderedRules {
+        private final long dataGeneration;
+        private final Map<String, List<String>> valueSets;
+        private final RenderedVariant json;
+        private final RenderedVariant jws;
+        private final RenderedVariant gzipJson;
+        private final RenderedVariant gzipJws;
+
+        private RenderedRules(
+                long dataGeneration, Map<String, List<String>> valueSets, byte[] json, byte[] jws) {
+            this.dataGeneration = dataGeneration;
+            this.valueSets = Collections.unmodifiableMap(valueSets);
+            this.json = new RenderedVariant(json);
+            this.jws = new RenderedVariant(jws);
+            this.gzipJson = new RenderedVariant(GzipUtil.gzip(json));
+            this.gzipJws = new RenderedVariant(GzipUtil.gzip(jws));
+        }
+
+        public RenderedVariant get(boolean jws, boolean gzip) {
+            if (jws) {
+                return gzip ? gzipJws : this.jws;
+            }
+            return gzip ? gzipJson : json;
+        }
+
+        /** the ids of the value set entries the document was built with, by value set id */
+        public Map<String, List<String>> getValueSets() {
+            return valueSets;
+        }
+    }
+}
@@ -11,15 +11,29 @@
 package ch.admin.bag.covidcertificate.backend.verifier.ws.client;
 
 import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationListSyncState;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.RevokedCertsUpdateResponse;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.RequestEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
@@ -27,27 +41,54 @@ public class RevocationListSyncer {
 
     private static final Logger logger = LoggerFactory.getLogger(RevocationListSyncer.class);
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // small batches keep the row locks short while the sync may run concurrently
+    private static final int HASH_BACKFILL_BATCH_SIZE = 10000;
+
     private final String baseurl;
     private final String endpoint = "/v1/revocation-list";
     private final RevokedCertDataService revokedCertDataService;
-    @Autowired private RestTemplate rt;
+    // streams the list to disk, so it mustn't carry interceptors that buffer the body
+    private final RestTemplate rt;
 
     public RevocationListSyncer(
-            String revokedCertsBaseUrl, RevokedCertDataService revokedCertDataService) {
+            String revokedCertsBaseUrl,
+            RevokedCertDataService revokedCertDataService,
+            RestTemplate rt) {
         this.baseurl = revokedCertsBaseUrl;
         this.revokedCertDataService = revokedCertDataService;
+        this.rt = rt;
     }
 
     public void updateRevokedCerts() {
         logger.info("updating revoked certs");
 
+        Path download = null;
         try {
             long start = System.currentTimeMillis();
-            Set<String> revokedCerts = downloadRevokedCerts();
-            logger.info("downloaded {} revoked certs", revokedCerts.size());
+            RevocationListSyncState syncState =
+                    revokedCertDataService.findRevocationListSyncState();
+            download = Files.createTempFile("revocation-list", ".json");
+            RevocationListSyncState downloaded = downloadRevokedCerts(syncState, download);
+            if (downloaded == null) {
+                logger.info("revoked certs not modified");
+                return;
+            }
+            if (syncState != null
+                    && syncState.getContentDigest().equals(downloaded.getContentDigest())) {
+                logger.info("revoked certs unchanged, skipping update");
+                revokedCertDataService.saveRevocationListSyncState(downloaded);
+                return;
+            }
 
-            RevokedCertsUpdateResponse updateResponse =
-                    revokedCertDataService.replaceRevokedCerts(revokedCerts);
+            RevokedCertsUpdateResponse updateResponse;
+            try (JsonParser parser = JSON_FACTORY.createParser(download.toFile())) {
+                UvciIterator revokedCerts = new UvciIterator(parser);
+                updateResponse = revokedCertDataService.replaceRevokedCerts(revokedCerts);
+                logger.info("downloaded {} revoked certs", revokedCerts.count);
+            }
+            // only stored once the list is applied, a failed update is retried in full
+            revokedCertDataService.saveRevocationListSyncState(downloaded);
 
             logger.info(
                     "finished updating revoked certs. inserted {}, removed {}. took {}ms",
@@ -56,21 +97,117 @@ public class RevocationListSyncer {
                     System.currentTimeMillis() - start);
         } catch (Exception e) {
             logger.error("revoked certs update failed", e);
+        } finally {
+            deleteQuietly(download);
         }
     }
 
-    private Set<String> downloadRevokedCerts() {
-        final var requestEndpoint = baseurl + endpoint;
-        final var uri = UriComponentsBuilder.fromHttpUrl(requestEndpoint).build().toUri();
-        final RequestEntity<Void> requestEntity =
-                RequestEntity.get(uri).headers(createDownloadHeaders()).build();
-        final var response = rt.exchange(requestEntity, String[].class).getBody();
-        return new HashSet<>(Arrays.asList(response));
+    /** hashes the uvcis of revoked certs stored before the uvci hash column existed */
+    public void backfillUvciHashes() {
+        long total = 0;
+        int updated;
+        do {
+            updated = revokedCertDataService.backfillUvciHashes(HASH_BACKFILL_BATCH_SIZE);
+            total += updated;
+        } while (updated == HASH_BACKFILL_BATCH_SIZE);
+        if (total > 0) {
+            logger.info("backfilled uvci hashes of {} revoked certs", total);
+        }
     }
 
-    private HttpHeaders createDownloadHeaders() {
+    /**
+     * downloads the revocation list to the given file unless it wasn't modified since the last
+     * sync
+     *
+     * @return the state of the downloaded list, null if the upstream answered 304
+     */
+    private RevocationListSyncState downloadRevokedCerts(
+            RevocationListSyncState syncState, Path download) {
+        return rt.execute(
+                UriComponentsBuilder.fromHttpUrl(baseurl + endpoint).build().toUri(),
+                HttpMethod.GET,
+                request -> request.getHeaders().addAll(createDownloadHeaders(syncState)),
+                response -> {
+                    if (response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+                        return null;
+                    }
+                    MessageDigest sha256 = DigestUtils.getSha256Digest();
+                    try (InputStream body =
+                            new DigestInputStream(response.getBody(), sha256)) {
+                        Files.copy(body, download, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    return new RevocationListSyncState(
+                            response.getHeaders().getETag(),
+                            response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED),
+                            Hex.encodeHexString(sha256.digest()));
+                });
+    }
+
+    private HttpHeaders createDownloadHeaders(RevocationListSyncState syncState) {
         HttpHeaders headers = new HttpHeaders();
         headers.add(HttpHeaders.ACCEPT, "application/json");
+        if (syncState != null) {
+            if (syncState.getEtag() != null) {
+                headers.add(HttpHeaders.IF_NONE_MATCH, syncState.getEtag());
+            }
+            if (syncState.getLastModified() != null) {
+                headers.add(HttpHeaders.IF_MODIFIED_SINCE, syncState.getLastModified());
+            }
+        }
         return headers;
     }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("couldn't delete {}", file, e);
+        }
+    }
+
+    /** reads the uvcis of a json array token by token */
+    private static class UvciIterator implements Iterator<String> {
+
+        private final JsonParser parser;
+        private JsonToken current;
+        private long count;
+
+        UvciIterator(JsonParser parser) throws IOException {
+            this.parser = parser;
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "expected an array of uvcis");
+            }
+            this.current = parser.nextToken();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (current == JsonToken.VALUE_STRING) {
+                return true;
+            } else if (current == JsonToken.END_ARRAY) {
+                return false;
+            }
+            // don't let a malformed list pass as a shorter one
+            throw new UncheckedIOException(
+                    new JsonParseException(parser, "expected a uvci but got " + current));
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                String uvci = parser.getText();
+                current = parser.nextToken();
+                count++;
+                return uvci;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 }
@@ -10,7 +10,10 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.config;
 
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationDbGenerator;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationPageCache;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.client.RevocationListSyncer;
+import java.time.Instant;
 import net.javacrumbs.shedlock.core.LockAssert;
 import net.javacrumbs.shedlock.spring.annotation.EnableSchedulerLock;
 import net.javacrumbs.shedlock.spring.annotation.SchedulerLock;
@@ -30,9 +33,16 @@ public class SchedulingConfig {
     private static final Logger logger = LoggerFactory.getLogger(SchedulingConfig.class);
 
     private final RevocationListSyncer revocationListSyncer;
+    private final RevocationDbGenerator revocationDbGenerator;
+    private final RevocationPageCache revocationPageCache;
 
-    public SchedulingConfig(RevocationListSyncer revocationListSyncer) {
+    public SchedulingConfig(
+            RevocationListSyncer revocationListSyncer,
+            RevocationDbGenerator revocationDbGenerator,
+            RevocationPageCache revocationPageCache) {
         this.revocationListSyncer = revocationListSyncer;
+        this.revocationDbGenerator = revocationDbGenerator;
+        this.revocationPageCache = revocationPageCache;
     }
 
     // Sync revocation list on start up
@@ -50,4 +60,25 @@ public class SchedulingConfig {
         LockAssert.assertLocked();
         revocationListSyncer.updateRevokedCerts();
     }
+
+    // Hash revoked certs stored before the hash column existed, new ones are hashed on insert
+    @Scheduled(fixedDelayString = "${revocationList.hash-backfill.interval:PT1H}", initialDelay = 0)
+    @SchedulerLock(name = "revoked_cert_hash_backfill", lockAtLeastFor = "PT15S")
+    public void backfillUvciHashes() {
+        LockAssert.assertLocked();
+        revocationListSyncer.backfillUvciHashes();
+    }
+
+    // Regenerate the revocation db snapshots on every instance, they are served from local disk
+    @Scheduled(fixedDelayString = "${ws.revocation-db.generation-interval:PT5M}", initialDelay = 0)
+    public void generateRevocationDb() {
+        revocationDbGenerator.generate();
+    }
+
+    // Pre-render the revocation pages on every instance shortly before the next retention bucket
+    // starts, all cached pages expire at that instant. Only does work within the lead time
+    @Scheduled(fixedDelayString = "${ws.revocation-list.prerender.interval:PT1M}")
+    public void prerenderRevocationPages() {
+        revocationPageCache.prerender(Instant.now());
+    }
 }
@@ -11,21 +11,39 @@
 package ch.admin.bag.covidcertificate.backend.verifier.ws.config;
 
 import ch.admin.bag.covidcertificate.backend.verifier.data.AppTokenDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.data.DataGenerationDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.ForeignRulesDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.VerifierDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcAppTokenDataServiceImpl;
+import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcDataGenerationDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcForeignRulesDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcRevokedCertDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcValueSetDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcVerifierDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.DataGenerationWatcher;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.DscSnapshotCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.ForeignRulesCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.KeyPageCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationDbGenerator;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationFilterCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationHashIndexCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationListV1Cache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationPageCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSetCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSnapshotCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.ValueSetResponseCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.VerificationRulesCache;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.client.RevocationListSyncer;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.DcgaController;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.ForeignRulesControllerV2;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.KeyController;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.KeyControllerV2;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.RevocationCheckController;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.RevocationFilterController;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.RevocationHashController;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.RevocationListController;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.RevocationListControllerV2;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.ValueSetsController;
@@ -34,8 +52,12 @@ import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.Verification
 import ch.admin.bag.covidcertificate.backend.verifier.ws.interceptor.HeaderInjector;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.RestTemplateHelper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -45,6 +67,7 @@ import java.time.Duration;
 import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import javax.sql.DataSource;
 import net.javacrumbs.shedlock.core.LockProvider;
 import net.javacrumbs.shedlock.provider.jdbctemplate.JdbcTemplateLockProvider;
@@ -52,10 +75,13 @@ import org.flywaydb.core.Flyway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -143,9 +169,22 @@ public abstract class WsBaseConfig implements WebMvcConfigurer {
 
     @Override
     public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(jwsMessageConverter());
+    }
+
+    /**
+     * configured like the jackson converter registered by spring mvc, so the bodies pre-rendered by
+     * the caches are serialized the same way as all other responses
+     */
+    @Bean
+    public ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json().build();
+    }
+
+    @Bean
+    public JwsMessageConverter jwsMessageConverter() {
         try {
-            converters.add(
-                    new JwsMessageConverter(jwsKeyStore(), p12KeyStorePassword.toCharArray()));
+            return new JwsMessageConverter(jwsKeyStore(), p12KeyStorePassword.toCharArray());
         } catch (KeyStoreException
                 | NoSuchAlgorithmException
                 | CertificateException
@@ -188,30 +227,197 @@ public abstract class WsBaseConfig implements WebMvcConfigurer {
     }
 
     @Bean
-    public KeyController keyController(VerifierDataService verifierDataService) {
-        return new KeyController(verifierDataService);
+    public KeyController keyController(
+            VerifierDataService verifierDataService,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper) {
+        return new KeyController(verifierDataService, jwsMessageConverter, objectMapper);
+    }
+
+    @Bean
+    public DataGenerationDataService dataGenerationDataService(DataSource dataSource) {
+        return new JdbcDataGenerationDataServiceImpl(dataSource);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public DataGenerationWatcher dataGenerationWatcher(
+            DataSource dataSource,
+            DataGenerationDataService dataGenerationDataService,
+            ApplicationEventPublisher eventPublisher,
+            @Value("${ws.data-generation.poll-interval:PT10S}") Duration pollInterval) {
+        return new DataGenerationWatcher(
+                getUnpooledDataSource(dataSource),
+                dataGenerationDataService,
+                eventPublisher,
+                pollInterval);
+    }
+
+    /**
+     * returns a data source opening plain driver connections with the url and credentials of the
+     * given connection pool, for connections that are held for the lifetime of the instance
+     */
+    protected DataSource getUnpooledDataSource(DataSource dataSource) {
+        if (dataSource instanceof HikariDataSource) {
+            HikariDataSource hikariDataSource = (HikariDataSource) dataSource;
+            if (hikariDataSource.getJdbcUrl() != null) {
+                return new DriverManagerDataSource(
+                        hikariDataSource.getJdbcUrl(),
+                        hikariDataSource.getUsername(),
+                        hikariDataSource.getPassword());
+            }
+            Properties props = hikariDataSource.getDataSourceProperties();
+            if (props.getProperty("url") != null) {
+                return new DriverManagerDataSource(
+                        props.getProperty("url"),
+                        props.getProperty("user"),
+                        props.getProperty("password"));
+            }
+        }
+        logger.warn("couldn't derive an unpooled data source, using the connection pool");
+        return dataSource;
+    }
+
+    @Bean
+    public DscSnapshotCache dscSnapshotCache(
+            VerifierDataService verifierDataService, DataGenerationWatcher dataGenerationWatcher) {
+        return new DscSnapshotCache(verifierDataService, dataGenerationWatcher);
+    }
+
+    @Bean
+    public KeyPageCache keyPageCache(
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper,
+            @Value("${ws.keys.page-cache.max-entries:1000}") int maxEntries) {
+        return new KeyPageCache(jwsMessageConverter, objectMapper, maxEntries);
+    }
+
+    @Bean
+    public KeyControllerV2 keyControllerV2(
+            DscSnapshotCache dscSnapshotCache,
+            KeyPageCache keyPageCache,
+            VerifierDataService verifierDataService,
+            @Value("${ws.keys.delta.safety-margin:PT10M}") Duration deltaSafetyMargin) {
+        return new KeyControllerV2(
+                dscSnapshotCache,
+                keyPageCache,
+                dscBatchSize,
+                verifierDataService.getKeepDscsMarkedForDeletionDuration(),
+                deltaSafetyMargin);
+    }
+
+    @Bean
+    public RevocationListV1Cache revocationListV1Cache(
+            RevokedCertDataService revokedCertDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper) {
+        return new RevocationListV1Cache(
+                revokedCertDataService, dataGenerationWatcher, jwsMessageConverter, objectMapper);
+    }
+
+    @Bean
+    public RevocationListController revocationListController(
+            RevocationListV1Cache revocationListV1Cache) {
+        return new RevocationListController(revocationListV1Cache);
+    }
+
+    @Bean
+    public RevocationSnapshotCache revocationSnapshotCache(
+            RevokedCertDataService revokedCertDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            ApplicationEventPublisher eventPublisher) {
+        return new RevocationSnapshotCache(
+                revokedCertDataService, dataGenerationWatcher, eventPublisher);
+    }
+
+    @Bean(initMethod = "init")
+    public RevocationDbGenerator revocationDbGenerator(
+            RevocationSnapshotCache revocationSnapshotCache,
+            @Value("${ws.revocation-db.directory:}") String directory,
+            @Value("${ws.revocation-db.valid-duration:PT48H}") Duration validDuration)
+            throws IOException {
+        // without a configured directory every instance writes to its own temp directory
+        return new RevocationDbGenerator(
+                revocationSnapshotCache,
+                directory.isEmpty()
+                        ? Files.createTempDirectory("revocation-db")
+                        : Path.of(directory),
+                validDuration);
+    }
+
+    @Bean
+    public RevocationFilterCache revocationFilterCache(
+            RevocationSnapshotCache revocationSnapshotCache,
+            @Value("${ws.revocation-filter.false-positive-rate:0.001}") double falsePositiveRate) {
+        return new RevocationFilterCache(revocationSnapshotCache, falsePositiveRate);
     }
 
     @Bean
-    public KeyControllerV2 keyControllerV2(VerifierDataService verifierDataService) {
-        return new KeyControllerV2(verifierDataService);
+    public RevocationFilterController revocationFilterController(
+            RevocationFilterCache revocationFilterCache) {
+        return new RevocationFilterController(revocationFilterCache);
     }
 
     @Bean
-    public RevocationListController revocationListController() {
-        return new RevocationListController(revokedCertsBaseUrl);
+    public RevocationHashIndexCache revocationHashIndexCache(
+            RevokedCertDataService revokedCertDataService,
+            RevocationSnapshotCache revocationSnapshotCache) {
+        return new RevocationHashIndexCache(revokedCertDataService, revocationSnapshotCache);
+    }
+
+    @Bean
+    public RevocationHashController revocationHashController(
+            RevocationHashIndexCache revocationHashIndexCache) {
+        return new RevocationHashController(revocationHashIndexCache);
+    }
+
+    @Bean
+    public RevocationSetCache revocationSetCache(RevocationSnapshotCache revocationSnapshotCache) {
+        return new RevocationSetCache(revocationSnapshotCache);
+    }
+
+    @Bean
+    public RevocationCheckController revocationCheckController(
+            RevocationSetCache revocationSetCache) {
+        return new RevocationCheckController(revocationSetCache);
+    }
+
+    @Bean
+    public RevocationPageCache revocationPageCache(
+            RevocationSnapshotCache revocationSnapshotCache,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper,
+            RevokedCertDataService revokedCertDataService,
+            @Value("${ws.revocation-list.prerender.lead-time:PT5M}") Duration leadTime,
+            @Value("${ws.revocation-list.prerender.recent-buckets:4}") int recentBuckets,
+            @Value("${ws.revocation-list.page-cache.max-on-demand-pages:1000}")
+                    int maxOnDemandPages) {
+        return new RevocationPageCache(
+                revocationSnapshotCache,
+                jwsMessageConverter,
+                objectMapper,
+                revokedCertDataService.getRevokedCertBatchSize(),
+                leadTime,
+                recentBuckets,
+                maxOnDemandPages);
     }
 
     @Bean
     public RevocationListControllerV2 revocationListControllerV2(
-            RevokedCertDataService revokedCertDataService) {
-        return new RevocationListControllerV2(revokedCertDataService);
+            RevocationSnapshotCache revocationSnapshotCache,
+            RevocationPageCache revocationPageCache,
+            RevocationDbGenerator revocationDbGenerator) {
+        return new RevocationListControllerV2(
+                revocationSnapshotCache, revocationPageCache, revocationDbGenerator);
     }
 
     @Bean
     public RevocationListSyncer revocationListSyncer(
             RevokedCertDataService revokedCertDataService) {
-        return new RevocationListSyncer(revokedCertsBaseUrl, revokedCertDataService);
+        return new RevocationListSyncer(
+                revokedCertsBaseUrl,
+                revokedCertDataService,
+                RestTemplateHelper.getStreamingRestTemplate());
     }
 
     @Bean
@@ -225,24 +431,62 @@ public abstract class WsBaseConfig implements WebMvcConfigurer {
         return new VerificationRulesController();
     }
 
+    @Bean
+    public VerificationRulesCache verificationRulesCache(
+            ValueSetDataService valueSetDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper)
+            throws IOException {
+        return new VerificationRulesCache(
+                valueSetDataService,
+                dataGenerationWatcher,
+                jwsMessageConverter,
+                objectMapper,
+                getDisabledVerificationModes());
+    }
+
     @Bean
     public VerificationRulesControllerV2 verificationRulesControllerV2(
-            ValueSetDataService valueSetDataService) throws IOException, NoSuchAlgorithmException {
-        return new VerificationRulesControllerV2(
-                valueSetDataService, getDisabledVerificationModes());
+            VerificationRulesCache verificationRulesCache) {
+        return new VerificationRulesControllerV2(verificationRulesCache);
+    }
+
+    @Bean
+    public ForeignRulesCache foreignRulesCache(
+            ForeignRulesDataService foreignRulesDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            VerificationRulesCache verificationRulesCache,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper) {
+        return new ForeignRulesCache(
+                foreignRulesDataService,
+                dataGenerationWatcher,
+                verificationRulesCache,
+                jwsMessageConverter,
+                objectMapper,
+                ForeignRulesControllerV2.FOREIGN_RULES_VALID_DURATION);
     }
 
     @Bean
-    public ForeignRulesControllerV2 foreignRulesControllerV2(
-            ValueSetDataService valueSetDataService, ForeignRulesDataService foreignRulesDataService) throws IOException {
-        return new ForeignRulesControllerV2(
-                valueSetDataService, foreignRulesDataService);
+    public ForeignRulesControllerV2 foreignRulesControllerV2(ForeignRulesCache foreignRulesCache) {
+        return new ForeignRulesControllerV2(foreignRulesCache);
     }
 
     @Bean
-    public ValueSetsController valueSetsController(ValueSetDataService valueSetDataService)
+    public ValueSetResponseCache valueSetResponseCache(
+            ValueSetDataService valueSetDataService,
+            DataGenerationWatcher dataGenerationWatcher,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper)
             throws IOException {
-        return new ValueSetsController(valueSetDataService);
+        return new ValueSetResponseCache(
+                valueSetDataService, dataGenerationWatcher, jwsMessageConverter, objectMapper);
+    }
+
+    @Bean
+    public ValueSetsController valueSetsController(ValueSetResponseCache valueSetResponseCache) {
+        return new ValueSetsController(valueSetResponseCache);
     }
 
     @Bean
@@ -257,8 +501,8 @@ public abstract class WsBaseConfig implements WebMvcConfigurer {
     }
 
     @Bean
-    public DcgaController dcgaController(ValueSetDataService valueSetDataService) {
-        return new DcgaController(valueSetDataService);
+    public DcgaController dcgaController(ValueSetResponseCache valueSetResponseCache) {
+        return new DcgaController(valueSetResponseCache);
     }
 
     @Bean
@@ -10,17 +10,20 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
-import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RenderedVariant;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.ValueSetResponseCache;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.GzipUtil;
 import ch.ubique.openapi.docannotations.Documentation;
-import java.security.NoSuchAlgorithmException;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -30,10 +33,10 @@ import org.springframework.web.context.request.WebRequest;
 @RequestMapping("/dcga/v1")
 public class DcgaController {
 
-    private final ValueSetDataService valueSetDataService;
+    private final ValueSetResponseCache valueSetResponseCache;
 
-    public DcgaController(ValueSetDataService valueSetDataService) {
-        this.valueSetDataService = valueSetDataService;
+    public DcgaController(ValueSetResponseCache valueSetResponseCache) {
+        this.valueSetResponseCache = valueSetResponseCache;
     }
 
     @Documentation(
@@ -43,25 +46,37 @@ public class DcgaController {
                 "304 => no changes since last request",
                 "404 => no value sets found for given valueSetId"
             },
-            responseHeaders = {"ETag:etag to set for next request:string"})
+            responseHeaders = {
+                "ETag:etag to set for next request:string",
+                "Content-Encoding:gzip if accepted by the client:string"
+            })
     @GetMapping(value = "/valueSets", produces = MediaType.APPLICATION_JSON_VALUE)
-    public @ResponseBody ResponseEntity<String> getValueSets(
+    public @ResponseBody ResponseEntity<byte[]> getValueSets(
             WebRequest request,
             @RequestParam(
                             required = false,
-                            defaultValue = "covid-19-lab-test-manufacturer-and-name")
-                    String valueSetId)
-            throws NoSuchAlgorithmException {
-        String valueSet = valueSetDataService.findLatestValueSet(valueSetId);
+                            defaultValue =
+                                    ValueSetResponseCache.LAB_TEST_MANUFACTURER_VALUE_SET_ID)
+                    String valueSetId,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                    String acceptEncoding) {
+        boolean gzip = GzipUtil.acceptsGzip(acceptEncoding);
+        RenderedVariant valueSet =
+                valueSetResponseCache.get().getLatestValueSet(valueSetId, gzip);
         if (valueSet == null) {
             return ResponseEntity.notFound().build();
         }
-        String etag = EtagUtil.getSha1HashForStrings(true, valueSet);
-        if (request.checkNotModified(etag)) {
+        if (request.checkNotModified(EtagUtil.toStrongEtag(valueSet.getSha256()))) {
             return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
         }
-        return ResponseEntity.ok()
-                .cacheControl(CacheControl.maxAge(CacheUtil.VALUE_SETS_MAX_AGE))
-                .body(valueSet);
+        ResponseEntity.BodyBuilder response =
+                ResponseEntity.ok()
+                        .cacheControl(CacheControl.maxAge(CacheUtil.VALUE_SETS_MAX_AGE))
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                        .contentType(MediaType.APPLICATION_JSON);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, GzipUtil.GZIP_ENCODING);
+        }
+        return response.body(valueSet.getBody());
     }
 }
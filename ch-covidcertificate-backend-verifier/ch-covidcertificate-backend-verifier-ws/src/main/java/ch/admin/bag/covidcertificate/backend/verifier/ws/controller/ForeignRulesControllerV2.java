@@ -10,27 +10,23 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
-import ch.admin.bag.covidcertificate.backend.verifier.data.ForeignRulesDataService;
-import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.ForeignRulesCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.ForeignRulesCache.RenderedCountryRules;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RenderedVariant;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.security.NoSuchAlgorithmException;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.MediaTypeUtil;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Objects;
-import java.util.stream.Collectors;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.context.request.WebRequest;
@@ -39,86 +35,56 @@ import org.springframework.web.context.request.WebRequest;
 @RequestMapping("trust/v2")
 public class ForeignRulesControllerV2 {
 
-    private static final Logger logger = LoggerFactory.getLogger(ForeignRulesControllerV2.class);
     public static final int FOREIGN_RULES_VALID_DURATION = 172800000;
 
-    private final ValueSetDataService valueSetDataService;
-    private final ForeignRulesDataService foreignRulesDataService;
+    private final ForeignRulesCache foreignRulesCache;
 
-    public ForeignRulesControllerV2(
-            ValueSetDataService valueSetDataService, ForeignRulesDataService dataService) {
-        this.foreignRulesDataService = dataService;
-        this.valueSetDataService = valueSetDataService;
+    public ForeignRulesControllerV2(ForeignRulesCache foreignRulesCache) {
+        this.foreignRulesCache = foreignRulesCache;
     }
 
     @GetMapping(value = "/foreignRules")
-    public @ResponseBody ResponseEntity<Map> getCountries() {
-        var countries = foreignRulesDataService.getCountries();
-        HashMap<String, Object> res = new HashMap<>();
-        res.put("countries", countries);
-        res.put("validDuration", FOREIGN_RULES_VALID_DURATION);
-        return ResponseEntity.ok().headers(getVerificationRulesHeaders()).body(res);
+    public @ResponseBody ResponseEntity<byte[]> getCountries(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        MediaType mediaType = MediaTypeUtil.getResponseMediaType(accept);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+        RenderedVariant countries =
+                foreignRulesCache
+                        .getCountries()
+                        .get(JwsMessageConverter.JWS_MEDIA_TYPE.equals(mediaType));
+        return ResponseEntity.ok()
+                .headers(getVerificationRulesHeaders())
+                .contentType(mediaType)
+                .body(countries.getBody());
     }
 
     @GetMapping(value = "/foreignRules/{country}")
-    public @ResponseBody ResponseEntity<Map> getForeignRules(
-            @PathVariable("country") String country, WebRequest request) {
-        ObjectMapper mapper = new ObjectMapper();
-        Map<String, Object> result = new HashMap<>();
-        result.put("validDuration", FOREIGN_RULES_VALID_DURATION);
-
-        // Add rules to output
-        var foreignRules = foreignRulesDataService.getRulesForCountry(country);
-        if (foreignRules.isEmpty()) {
+    public @ResponseBody ResponseEntity<byte[]> getForeignRules(
+            @PathVariable("country") String country,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            WebRequest request) {
+        MediaType mediaType = MediaTypeUtil.getResponseMediaType(accept);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+        RenderedCountryRules foreignRules =
+                foreignRulesCache.getRules(country, Instant.now());
+        if (foreignRules == null) {
             return ResponseEntity.notFound().build();
         }
+        RenderedVariant rules =
+                foreignRules.get(JwsMessageConverter.JWS_MEDIA_TYPE.equals(mediaType));
 
-        var rules =
-                foreignRules.stream()
-                        .map(
-                                rule -> {
-                                    try {
-                                        return mapper.readTree(rule.getContent());
-                                    } catch (JsonProcessingException e) {
-                                        logger.error("Failed to read foreign rule", e);
-                                        return null;
-                                    }
-                                })
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toList());
-        result.put("rules", rules);
-
-        // Add valuesets to output
-        var allIds = valueSetDataService.findAllValueSetIds();
-        HashMap<String, ArrayList<String>> valueSets = new HashMap<>();
-        for (var id : allIds) {
-            var valueSet = valueSetDataService.findLatestValueSet(id);
-            if (valueSet != null) {
-                try {
-                    var entryJson = mapper.readTree(valueSet);
-                    var fieldNameIterator = entryJson.get("valueSetValues").fieldNames();
-                    var valueSetValues = new ArrayList<String>();
-                    while (fieldNameIterator.hasNext()) {
-                        valueSetValues.add(fieldNameIterator.next());
-                    }
-                    valueSets.put(id, valueSetValues);
-                } catch (Exception ex) {
-                    logger.error("Serving Rules failed", ex);
-                }
-            }
-        }
-        result.put("valueSets", valueSets);
-        String etag = "";
-        try {
-            etag = EtagUtil.getSha1HashForStrings(true, mapper.writeValueAsString(result));
-        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
-            logger.error("Failed to calculate ETag for rules", e);
-        }
-        if (request.checkNotModified(etag)) {
+        if (request.checkNotModified(EtagUtil.toStrongEtag(rules.getSha256()))) {
             return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
         }
 
-        return ResponseEntity.ok().headers(getVerificationRulesHeaders()).body(result);
+        return ResponseEntity.ok()
+                .headers(getVerificationRulesHeaders())
+                .contentType(mediaType)
+                .body(rules.getBody());
     }
 
     private HttpHeaders getVerificationRulesHeaders() {
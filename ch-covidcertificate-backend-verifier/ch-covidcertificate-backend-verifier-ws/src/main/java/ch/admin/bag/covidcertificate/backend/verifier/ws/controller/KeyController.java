@@ -16,19 +16,29 @@ import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ActiveCertsResp
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertsResponse;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.DscBatchInfo;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.MediaTypeUtil;
 import ch.ubique.openapi.docannotations.Documentation;
-import java.sql.Date;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import javax.servlet.http.HttpServletResponse;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -47,9 +57,16 @@ public class KeyController {
     private static int KEYS_LIST_BUCKET_OFFSET_MIN = 10;
 
     private final VerifierDataService verifierDataService;
+    private final JwsMessageConverter jwsMessageConverter;
+    private final ObjectMapper objectMapper;
 
-    public KeyController(VerifierDataService verifierDataService) {
+    public KeyController(
+            VerifierDataService verifierDataService,
+            JwsMessageConverter jwsMessageConverter,
+            ObjectMapper objectMapper) {
         this.verifierDataService = verifierDataService;
+        this.jwsMessageConverter = jwsMessageConverter;
+        this.objectMapper = objectMapper;
     }
 
     @Documentation(
@@ -69,41 +86,94 @@ public class KeyController {
             responseHeaders = {
                 "X-Next-Since:`since` to set for next request:string",
                 "up-to-date:set to 'true' when no more certs to fetch:string"
-            })
+            },
+            serializedClass = CertsResponse.class)
     @CrossOrigin(origins = {"https://editor.swagger.io"})
     @GetMapping(value = "updates")
-    public @ResponseBody ResponseEntity<CertsResponse> getSignerCerts(
+    public void getSignerCerts(
             @RequestParam(required = false, defaultValue = "0") Long since,
-            @RequestParam CertFormat certFormat) {
+            @RequestParam CertFormat certFormat,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            HttpServletResponse response)
+            throws IOException {
+        MediaType mediaType = MediaTypeUtil.getResponseMediaType(accept);
+        if (mediaType == null) {
+            response.setStatus(HttpStatus.NOT_ACCEPTABLE.value());
+            return;
+        }
         Instant nextBucketRelease = CacheUtil.roundToNextKeysBucketStart(Instant.now());
         Instant previousBucketRelease =
                 nextBucketRelease
                         .minus(CacheUtil.KEYS_BUCKET_DURATION)
                         // ensure no keys are released that are not being returned by keys/list yet
                         .minus(KEYS_LIST_BUCKET_OFFSET_MIN, ChronoUnit.MINUTES);
+        Date importedBefore = Date.from(previousBucketRelease);
 
-        List<ClientCert> dscs =
-                verifierDataService.findDscsBefore(
-                        since, certFormat, Date.from(previousBucketRelease));
-        return ResponseEntity.ok()
-                .headers(getKeysUpdatesHeaders(dscs))
-                .headers(CacheUtil.createExpiresHeader(nextBucketRelease))
-                .body(new CertsResponse(dscs));
+        response.setContentType(mediaType.toString());
+        setHeaders(response, CacheUtil.createExpiresHeader(nextBucketRelease));
+        if (JwsMessageConverter.JWS_MEDIA_TYPE.equals(mediaType)) {
+            // the signature covers the whole body, so signed responses can't be streamed
+            List<ClientCert> dscs =
+                    verifierDataService.findDscsBefore(since, certFormat, importedBefore);
+            Long maxPkId = dscs.stream().map(ClientCert::getPkId).max(Long::compare).orElse(null);
+            setHeaders(response, getKeysUpdatesHeaders(new DscBatchInfo(dscs.size(), maxPkId)));
+            byte[] body =
+                    jwsMessageConverter
+                            .sign(new CertsResponse(dscs))
+                            .getBytes(StandardCharsets.UTF_8);
+            response.getOutputStream().write(body);
+            return;
+        }
+
+        try (JsonGenerator generator =
+                objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            verifierDataService.streamDscsBefore(
+                    since,
+                    certFormat,
+                    importedBefore,
+                    batchInfo -> {
+                        // headers have to be known before the first row is written. the batch
+                        // info is read in the transaction of the rows, so they match
+                        setHeaders(response, getKeysUpdatesHeaders(batchInfo));
+                        try {
+                            generator.writeStartObject();
+                            generator.writeArrayFieldStart("certs");
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    },
+                    dsc -> {
+                        try {
+                            if (dsc.getJson() != null) {
+                                generator.writeRawValue(dsc.getJson());
+                            } else {
+                                generator.writeObject(dsc);
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
     }
 
-    private HttpHeaders getKeysUpdatesHeaders(List<ClientCert> dscs) {
+    private HttpHeaders getKeysUpdatesHeaders(DscBatchInfo batchInfo) {
         HttpHeaders headers = new HttpHeaders();
         Long nextSince =
-                dscs.stream()
-                        .mapToLong(dsc -> dsc.getPkId())
-                        .max()
-                        .orElse(verifierDataService.findMaxDscPkId());
+                batchInfo.getMaxPkId() != null
+                        ? batchInfo.getMaxPkId()
+                        : verifierDataService.findMaxDscPkId();
         headers.add(NEXT_SINCE_HEADER, nextSince.toString());
-        boolean upToDate = dscs.size() < verifierDataService.getDscBatchSize();
+        boolean upToDate = batchInfo.getSize() < verifierDataService.getDscBatchSize();
         headers.add(UP_TO_DATE_HEADER, String.valueOf(upToDate));
         return headers;
     }
 
+    private static void setHeaders(HttpServletResponse response, HttpHeaders headers) {
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+    }
+
     @Documentation(
             description = "get all key IDs of active signer certs",
             responses = {
@@ -123,17 +193,20 @@ public class KeyController {
                         .minus(KEYS_LIST_BUCKET_OFFSET_MIN, ChronoUnit.MINUTES);
         Instant previousBucketRelease = nextBucketRelease.minus(CacheUtil.KEYS_BUCKET_DURATION);
 
-        List<String> activeKeyIds =
-                verifierDataService.findActiveDscKeyIdsBefore(Date.from(previousBucketRelease));
-        long maxDscPkId = verifierDataService.findMaxDscPkId();
-        List<String> etagComponents = new ArrayList<>(activeKeyIds);
-        etagComponents.add(String.valueOf(maxDscPkId));
-        // check etag
-        String currentEtag = EtagUtil.getUnsortedListEtag(true, etagComponents);
+        // check etag. the response is fully determined by the active dscs and the release cutoff
+        String currentEtag =
+                EtagUtil.getSha256HashForStrings(
+                        true,
+                        verifierDataService.findDscDigest(),
+                        String.valueOf(previousBucketRelease.toEpochMilli()));
         if (request.checkNotModified(currentEtag)) {
             return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
         }
 
+        List<String> activeKeyIds =
+                verifierDataService.findActiveDscKeyIdsBefore(Date.from(previousBucketRelease));
+        long maxDscPkId = verifierDataService.findMaxDscPkId();
+
         return ResponseEntity.ok()
                 .headers(CacheUtil.createExpiresHeader(nextBucketRelease))
                 .body(new ActiveCertsResponse(activeKeyIds, maxDscPkId));
@@ -10,23 +10,43 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
-import ch.admin.bag.covidcertificate.backend.verifier.data.VerifierDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ActiveCertsDeltaResponse;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ActiveCertsResponse;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertsResponse;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.KeyLookupRequest;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.KeysBundleResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.DscSnapshot;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.DscSnapshotCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.KeyPageCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.GzipUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.MediaTypeUtil;
 import ch.ubique.openapi.docannotations.Documentation;
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -39,11 +59,30 @@ public class KeyControllerV2 {
     private static final String NEXT_SINCE_HEADER = "X-Next-Since";
     private static final String UP_TO_DATE_HEADER = "up-to-date";
     private static final String UP_TO_HEADER = "up-to";
+    private static final int MAX_LOOKUP_KEY_IDS = 100;
 
-    private final VerifierDataService verifierDataService;
+    private final DscSnapshotCache dscSnapshotCache;
+    private final KeyPageCache keyPageCache;
+    private final int dscBatchSize;
+    private final Duration maxDeltaAge;
+    private final Duration deltaSafetyMargin;
 
-    public KeyControllerV2(VerifierDataService verifierDataService) {
-        this.verifierDataService = verifierDataService;
+    /**
+     * @param maxDeltaAge how long removals are kept in the db. older generations get a full list
+     * @param deltaSafetyMargin how far back changes are repeated in a delta to cover sync
+     *     transactions that committed after a client read its generation
+     */
+    public KeyControllerV2(
+            DscSnapshotCache dscSnapshotCache,
+            KeyPageCache keyPageCache,
+            int dscBatchSize,
+            Duration maxDeltaAge,
+            Duration deltaSafetyMargin) {
+        this.dscSnapshotCache = dscSnapshotCache;
+        this.keyPageCache = keyPageCache;
+        this.dscBatchSize = dscBatchSize;
+        this.maxDeltaAge = maxDeltaAge;
+        this.deltaSafetyMargin = deltaSafetyMargin;
     }
 
     @Documentation(
@@ -58,37 +97,51 @@ public class KeyControllerV2 {
     @Documentation(
             description = "get signer certificates",
             responses = {
-                "200 => next certificate batch after `since` up to `upTo` (optional). keep requesting until `up-to-date` header is `true`"
+                "200 => next certificate batch after `since` up to `upTo` (optional), restricted to `country` if set. keep requesting until `up-to-date` header is `true`"
             },
             responseHeaders = {
                 "X-Next-Since:`since` to set for next request:string",
                 "up-to-date:set to 'true' when no more certs to fetch:string"
-            })
+            },
+            serializedClass = CertsResponse.class)
     @CrossOrigin(origins = {"https://editor.swagger.io"})
     @GetMapping(value = "updates")
-    public @ResponseBody ResponseEntity<CertsResponse> getSignerCerts(
+    public @ResponseBody ResponseEntity<byte[]> getSignerCerts(
             @RequestParam(required = false, defaultValue = "0") Long since,
             @RequestParam Long upTo,
             @RequestParam CertFormat certFormat,
-            @RequestParam(required = false) String country) {
+            @RequestParam(required = false) String country,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         Instant now = Instant.now();
-        List<ClientCert> dscs = verifierDataService.findDscs(since, certFormat, upTo);
+        MediaType mediaType = MediaTypeUtil.getResponseMediaType(accept);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+        DscSnapshot snapshot = dscSnapshotCache.get();
+        // pages are cut from the partition of the requested country, so each country has its own
+        // `since`/`upTo` cursor
+        List<ClientCert> dscs = snapshot.get(certFormat, country).page(since, upTo, dscBatchSize);
+        byte[] body =
+                keyPageCache.get(
+                        snapshot.getFingerprintGeneration(),
+                        since + ":" + upTo + ":" + certFormat + ":" + country,
+                        JwsMessageConverter.JWS_MEDIA_TYPE.equals(mediaType),
+                        () -> new CertsResponse(dscs));
         return ResponseEntity.ok()
-                .headers(getKeysUpdatesHeaders(dscs, upTo, now, country))
-                .body(new CertsResponse(dscs));
+                .headers(getKeysUpdatesHeaders(snapshot, dscs, upTo, now, country))
+                .contentType(mediaType)
+                .body(body);
     }
 
     private HttpHeaders getKeysUpdatesHeaders(
-            List<ClientCert> dscs, Long upTo, Instant now, String country) {
+            DscSnapshot snapshot, List<ClientCert> dscs, Long upTo, Instant now, String country) {
         HttpHeaders headers =
                 CacheUtil.createExpiresHeader(CacheUtil.roundToNextKeysBucketStart(now));
         long maxDscPkId;
         if (upTo != null) {
             maxDscPkId = upTo;
-        } else if (country != null) {
-            maxDscPkId = verifierDataService.findMaxDscPkIdForCountry(country);
         } else {
-            maxDscPkId = verifierDataService.findMaxDscPkId();
+            maxDscPkId = snapshot.get(CertFormat.IOS, country).getMaxPkId();
         }
         Long nextSince = dscs.stream().mapToLong(ClientCert::getPkId).max().orElse(maxDscPkId);
         headers.add(NEXT_SINCE_HEADER, nextSince.toString());
@@ -97,6 +150,133 @@ public class KeyControllerV2 {
         return headers;
     }
 
+    @Documentation(
+            description =
+                    "get all active signer certs at once. meant for clients without any certs, which continue with keys/updates from `nextSince`",
+            responses = {
+                "200 => all active signer certs (restricted to `country` if set)",
+                "206 => requested range of the bundle, the whole bundle is sent if If-Range doesn't match",
+                "304 => no changes since last request"
+            },
+            responseHeaders = {
+                "ETag:strong etag of the bundle, also usable with If-Range:string",
+                "Content-Encoding:gzip if accepted by the client:string"
+            },
+            serializedClass = KeysBundleResponse.class)
+    @CrossOrigin(origins = {"https://editor.swagger.io"})
+    @GetMapping(value = "bundle")
+    public @ResponseBody ResponseEntity<Resource> getSignerCertsBundle(
+            @RequestParam CertFormat certFormat,
+            @RequestParam(required = false) String country,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                    String acceptEncoding,
+            WebRequest request) {
+        Instant now = Instant.now();
+        MediaType mediaType = MediaTypeUtil.getResponseMediaType(accept);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+        boolean jws = JwsMessageConverter.JWS_MEDIA_TYPE.equals(mediaType);
+        boolean gzip = GzipUtil.acceptsGzip(acceptEncoding);
+        DscSnapshot snapshot = dscSnapshotCache.get();
+
+        // the bundle only changes with the snapshot. every representation gets its own etag
+        String currentEtag =
+                EtagUtil.toStrongEtag(
+                        EtagUtil.getSha256HashForStrings(
+                                false,
+                                snapshot.getFingerprint(),
+                                certFormat.name(),
+                                String.valueOf(country),
+                                mediaType.toString(),
+                                String.valueOf(gzip)));
+        if (request.checkNotModified(currentEtag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        }
+
+        DscSnapshot.Partition activeDscs = snapshot.get(certFormat, country);
+        byte[] body =
+                keyPageCache.get(
+                        snapshot.getFingerprintGeneration(),
+                        "bundle:" + certFormat + ":" + country,
+                        jws,
+                        gzip,
+                        () ->
+                                new KeysBundleResponse(
+                                        activeDscs.page(0, null, activeDscs.size()),
+                                        activeDscs.getMaxPkId()));
+
+        HttpHeaders headers =
+                CacheUtil.createExpiresHeader(CacheUtil.roundToNextKeysBucketStart(now));
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            headers.add(HttpHeaders.CONTENT_ENCODING, GzipUtil.GZIP_ENCODING);
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(currentEtag)) {
+            // spring serves ranges of resource bodies but ignores If-Range, so a range of a newer
+            // bundle would be appended to an older one. Input stream resources are always sent
+            // whole.
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .contentType(mediaType)
+                    .contentLength(body.length)
+                    .body(new InputStreamResource(new ByteArrayInputStream(body)));
+        }
+        // range requests are served by spring for resource bodies
+        return ResponseEntity.ok()
+                .headers(headers)
+                .contentType(mediaType)
+                .body(new ByteArrayResource(body));
+    }
+
+    @Documentation(
+            description =
+                    "get the active signer certs with the given key ID. meant for clients that encounter a certificate signed with an unknown key",
+            responses = {
+                "200 => active signer certs with the key ID `kid` (base64url encoded)",
+                "404 => no active signer cert with that key ID"
+            })
+    @CrossOrigin(origins = {"https://editor.swagger.io"})
+    @GetMapping(value = "{kid}")
+    public @ResponseBody ResponseEntity<CertsResponse> getSignerCertsByKeyId(
+            @PathVariable String kid, @RequestParam CertFormat certFormat) {
+        List<ClientCert> dscs = dscSnapshotCache.get().findByKeyId(certFormat, kid);
+        if (dscs.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+                .headers(
+                        CacheUtil.createExpiresHeader(
+                                CacheUtil.roundToNextKeysBucketStart(Instant.now())))
+                .body(new CertsResponse(dscs));
+    }
+
+    @Documentation(
+            description = "get the active signer certs with any of the given key IDs",
+            responses = {
+                "200 => active signer certs with one of the requested key IDs. unknown key IDs are skipped",
+                "400 => more than " + MAX_LOOKUP_KEY_IDS + " key IDs requested"
+            })
+    @CrossOrigin(origins = {"https://editor.swagger.io"})
+    @PostMapping(value = "lookup")
+    public @ResponseBody ResponseEntity<CertsResponse> lookupSignerCerts(
+            @RequestBody KeyLookupRequest lookupRequest, @RequestParam CertFormat certFormat) {
+        List<String> keyIds = lookupRequest.getKeyIds();
+        if (keyIds == null || keyIds.size() > MAX_LOOKUP_KEY_IDS) {
+            return ResponseEntity.badRequest().build();
+        }
+        DscSnapshot snapshot = dscSnapshotCache.get();
+        Map<Long, ClientCert> dscs = new LinkedHashMap<>();
+        for (String keyId : keyIds) {
+            for (ClientCert dsc : snapshot.findByKeyId(certFormat, keyId)) {
+                dscs.putIfAbsent(dsc.getPkId(), dsc);
+            }
+        }
+        return ResponseEntity.ok().body(new CertsResponse(new ArrayList<>(dscs.values())));
+    }
+
     @Documentation(
             description = "get all key IDs of active signer certs",
             responses = {
@@ -112,32 +292,60 @@ public class KeyControllerV2 {
     public @ResponseBody ResponseEntity<ActiveCertsResponse> getActiveSignerCertKeyIds(
             WebRequest request, @RequestParam(required = false) String country) {
         Instant now = Instant.now();
-        long maxDscPkId;
-        if (country == null) {
-            maxDscPkId = verifierDataService.findMaxDscPkId();
-        } else {
-            maxDscPkId = verifierDataService.findMaxDscPkIdForCountry(country);
-        }
-
-        List<String> activeKeyIds;
-        if (country == null) {
-            activeKeyIds = verifierDataService.findActiveDscKeyIds();
-        } else {
-            activeKeyIds = verifierDataService.findActiveDscKeyIdsByCountry(country);
-        }
-        List<String> etagComponents = new ArrayList<>(activeKeyIds);
-        etagComponents.add(String.valueOf(maxDscPkId));
-        // check etag
-        String currentEtag = EtagUtil.getUnsortedListEtag(true, etagComponents);
+        DscSnapshot snapshot = dscSnapshotCache.get();
+        // check etag. the digest covers all active key ids and pk ids of the requested origin
+        String currentEtag = EtagUtil.toWeakEtag(snapshot.getDigest(country));
         if (request.checkNotModified(currentEtag)) {
             return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
         }
 
+        // key ids and pk ids are the same for every cert format
+        DscSnapshot.Partition activeDscs = snapshot.get(CertFormat.IOS, country);
+        long maxDscPkId = activeDscs.getMaxPkId();
+        List<String> activeKeyIds = activeDscs.getKeyIds();
+
         return ResponseEntity.ok()
                 .headers(getKeysListHeaders(maxDscPkId, now))
                 .body(new ActiveCertsResponse(activeKeyIds, maxDscPkId));
     }
 
+    @Documentation(
+            description =
+                    "get the key IDs of signer certs activated and removed since the generation of a previous response",
+            responses = {
+                "200 => key IDs added and removed since `sinceGeneration`. if `fullList` is set, `addedKeyIds` contains all active key IDs"
+            },
+            responseHeaders = {"up-to: `upTo` to set for next keys/update request:string"})
+    @CrossOrigin(origins = {"https://editor.swagger.io"})
+    @GetMapping(value = "list/delta")
+    public @ResponseBody ResponseEntity<ActiveCertsDeltaResponse> getActiveSignerCertKeyIdsDelta(
+            @RequestParam Long sinceGeneration, @RequestParam(required = false) String country) {
+        Instant now = Instant.now();
+        DscSnapshot snapshot = dscSnapshotCache.get();
+        DscSnapshot.Partition activeDscs = snapshot.get(CertFormat.IOS, country);
+        long generation = snapshot.getGeneration(country);
+        long maxDscPkId = activeDscs.getMaxPkId();
+
+        ActiveCertsDeltaResponse delta;
+        if (sinceGeneration < now.minus(maxDeltaAge).toEpochMilli()
+                || sinceGeneration > generation) {
+            // removals this old are no longer known (or the generation is not one of ours)
+            delta =
+                    new ActiveCertsDeltaResponse(
+                            activeDscs.getKeyIds(), List.of(), true, generation, maxDscPkId);
+        } else {
+            long since = sinceGeneration - deltaSafetyMargin.toMillis();
+            delta =
+                    new ActiveCertsDeltaResponse(
+                            activeDscs.getKeyIdsImportedAfter(since),
+                            activeDscs.getKeyIdsRemovedAfter(since),
+                            false,
+                            generation,
+                            maxDscPkId);
+        }
+        return ResponseEntity.ok().headers(getKeysListHeaders(maxDscPkId, now)).body(delta);
+    }
+
     private HttpHeaders getKeysListHeaders(Long upTo, Instant now) {
         HttpHeaders headers =
                 CacheUtil.createExpiresHeader(CacheUtil.roundToNextKeysBucketStart(now));
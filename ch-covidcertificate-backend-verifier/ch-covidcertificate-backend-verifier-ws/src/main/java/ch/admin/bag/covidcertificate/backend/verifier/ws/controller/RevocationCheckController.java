@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationCheckRequest;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationCheckResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSet;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSetCache;
+import ch.ubique.openapi.docannotations.Documentation;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+@Controller
+@RequestMapping("trust/v2")
+@Documentation(description = "Endpoint to check batches of certificates for revocation")
+public class RevocationCheckController {
+
+    private static final int MAX_CHECK_UVCIS = 1000;
+
+    private final RevocationSetCache revocationSetCache;
+
+    public RevocationCheckController(RevocationSetCache revocationSetCache) {
+        this.revocationSetCache = revocationSetCache;
+    }
+
+    @Documentation(
+            description =
+                    "check up to "
+                            + MAX_CHECK_UVCIS
+                            + " UVCIs against the released revoked certificates, for"
+                            + " verifiers that don't want to mirror the revocation list",
+            responses = {
+                "200 => the revoked UVCIs of the request, in request order",
+                "400 => missing list or more than " + MAX_CHECK_UVCIS + " UVCIs"
+            })
+    @CrossOrigin(origins = {"https://editor.swagger.io"})
+    @PostMapping(value = "/revocationCheck")
+    public @ResponseBody ResponseEntity<RevocationCheckResponse> checkRevokedCerts(
+            @RequestBody RevocationCheckRequest checkRequest) {
+        List<String> uvcis = checkRequest.getUvcis();
+        if (uvcis == null || uvcis.size() > MAX_CHECK_UVCIS) {
+            return ResponseEntity.badRequest().build();
+        }
+        RevocationSet revocationSet = revocationSetCache.get(Instant.now());
+        List<String> revoked = new ArrayList<>();
+        for (String uvci : uvcis) {
+            if (uvci != null && revocationSet.contains(uvci)) {
+                revoked.add(uvci);
+            }
+        }
+        return ResponseEntity.ok().body(new RevocationCheckResponse(revoked));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationFilter;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationFilterCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
+import ch.ubique.openapi.docannotations.Documentation;
+import java.io.IOException;
+import java.time.Instant;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
+
+@Controller
+@RequestMapping("trust/v2")
+@Documentation(
+        description =
+                "Endpoint to obtain a probabilistic filter of the revoked certificates for offline"
+                        + " verifiers")
+public class RevocationFilterController {
+
+    private static final String NEXT_SINCE_HEADER = "X-Next-Since";
+    private static final String FILTER_VERSION_HEADER = "X-Filter-Version";
+    private static final String FILTER_ENTRIES_HEADER = "X-Filter-Entries";
+    private static final String FILTER_FALSE_POSITIVE_RATE_HEADER = "X-Filter-False-Positive-Rate";
+
+    private final RevocationFilterCache revocationFilterCache;
+
+    public RevocationFilterController(RevocationFilterCache revocationFilterCache) {
+        this.revocationFilterCache = revocationFilterCache;
+    }
+
+    @Documentation(
+            description =
+                    "get a blocked bloom filter over the SHA-256 hashes of all released revoked"
+                            + " UVCIs. A UVCI not contained in the filter is not revoked",
+            responses = {
+                "200 => current revocation filter",
+                "206 => requested range of the filter",
+                "304 => no changes since last request"
+            },
+            responseHeaders = {
+                "X-Next-Since:`since` of the revocationList the filter is up to date with:string",
+                "X-Filter-Version:version of the binary filter format:string",
+                "X-Filter-Entries:number of revoked UVCIs in the filter:string",
+                "X-Filter-False-Positive-Rate:expected false positive rate of the filter:string",
+                "ETag:strong etag of the filter, also usable with If-Range:string"
+            })
+    @CrossOrigin(origins = {"https://editor.swagger.io"})
+    @GetMapping(value = "/revocationFilter")
+    public @ResponseBody ResponseEntity<Resource> getRevocationFilter(WebRequest request)
+            throws IOException {
+        Instant now = Instant.now();
+        RevocationFilter filter = revocationFilterCache.get(now);
+        // the bits only depend on the format, the dimensions and the revoked certs
+        String etag =
+                EtagUtil.getSha256HashForStrings(
+                        false,
+                        String.valueOf(RevocationFilter.VERSION),
+                        String.valueOf(filter.getNumHashFunctions()),
+                        String.valueOf(filter.getSizeInBytes()),
+                        String.valueOf(filter.size()),
+                        String.valueOf(filter.getMaxPkId()));
+        String strongEtag = EtagUtil.toStrongEtag(etag);
+        if (request.checkNotModified(strongEtag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        }
+        HttpHeaders headers =
+                CacheUtil.createExpiresHeader(
+                        CacheUtil.roundToNextRevocationRetentionBucketStart(now));
+        headers.add(NEXT_SINCE_HEADER, String.valueOf(filter.getMaxPkId()));
+        headers.add(FILTER_VERSION_HEADER, String.valueOf(RevocationFilter.VERSION));
+        headers.add(FILTER_ENTRIES_HEADER, String.valueOf(filter.size()));
+        headers.add(
+                FILTER_FALSE_POSITIVE_RATE_HEADER, String.valueOf(filter.getFalsePositiveRate()));
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(strongEtag)) {
+            // spring serves ranges of resource bodies but ignores If-Range, so a range of a newer
+            // filter would be appended to an older one. Input stream resources are always sent
+            // whole.
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .contentLength(filter.getSizeInBytes())
+                    .body(new InputStreamResource(filter.asResource().getInputStream()));
+        }
+        // range requests are served by spring for resource bodies
+        return ResponseEntity.ok()
+                .headers(headers)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(filter.asResource());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationHashesResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationHashIndexCache;
+import ch.ubique.openapi.docannotations.Documentation;
+import java.time.Instant;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+@Controller
+@RequestMapping("trust/v2")
+@Documentation(
+        description =
+                "Endpoint to check a certificate for revocation without revealing which one is"
+                        + " checked")
+public class RevocationHashController {
+
+    // 1 to 3 bytes: long enough for small buckets, short enough for every bucket to be shared by
+    // many revoked certs
+    private static final Pattern PREFIX_PATTERN = Pattern.compile("([0-9a-fA-F]{2}){1,3}");
+
+    private final RevocationHashIndexCache revocationHashIndexCache;
+
+    public RevocationHashController(RevocationHashIndexCache revocationHashIndexCache) {
+        this.revocationHashIndexCache = revocationHashIndexCache;
+    }
+
+    @Documentation(
+            description =
+                    "get the hashes (first 16 bytes of SHA-256 of the UTF-8 encoded UVCI) of all"
+                            + " released revoked certificates starting with the given prefix. A"
+                            + " certificate is revoked if its hash is in the list",
+            responses = {
+                "200 => hashes starting with the prefix",
+                "400 => prefix isn't 1 to 3 hex encoded bytes"
+            })
+    @CrossOrigin(origins = {"https://editor.swagger.io"})
+    @GetMapping(value = "/revocationHashes/{prefix}")
+    public @ResponseBody ResponseEntity<RevocationHashesResponse> getRevocationHashes(
+            @PathVariable String prefix) throws DecoderException {
+        if (!PREFIX_PATTERN.matcher(prefix).matches()) {
+            return ResponseEntity.badRequest().build();
+        }
+        Instant now = Instant.now();
+        List<String> hashes =
+                revocationHashIndexCache.get(now).getBucket(Hex.decodeHex(prefix)).stream()
+                        .map(Hex::encodeHexString)
+                        .collect(Collectors.toList());
+        return ResponseEntity.ok()
+                .headers(
+                        CacheUtil.createExpiresHeader(
+                                CacheUtil.roundToNextRevocationRetentionBucketStart(now)))
+                .body(new RevocationHashesResponse(hashes));
+    }
+}
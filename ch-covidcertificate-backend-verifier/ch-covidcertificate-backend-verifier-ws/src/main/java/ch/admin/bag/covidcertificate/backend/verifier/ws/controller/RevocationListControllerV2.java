@@ -10,32 +10,43 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
-import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
-import ch.admin.bag.covidcertificate.backend.verifier.model.DbRevokedCert;
 import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationDbFile;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationDbGenerator;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationPageCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationPageCache.RenderedPage;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSnapshot;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSnapshotCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.MediaTypeUtil;
 import ch.ubique.openapi.docannotations.Documentation;
-import java.nio.file.Files;
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.List;
-import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.client.HttpStatusCodeException;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
-
-import java.io.InputStream;
-import org.springframework.core.io.ClassPathResource;
-import java.io.IOException;
+import org.springframework.web.context.request.WebRequest;
 
 @Controller
 @RequestMapping("trust/v2")
@@ -46,78 +57,189 @@ public class RevocationListControllerV2 {
 
     private static final String NEXT_SINCE_HEADER = "X-Next-Since";
     private static final String UP_TO_DATE_HEADER = "up-to-date";
-    private final byte[] revocationDb;
-    private final String revocationDbNextSince;
 
-    private final RevokedCertDataService revokedCertDataService;
+    // deltas never change, spring's CacheControl doesn't know the immutable directive yet
+    private static final String DELTA_CACHE_CONTROL =
+            CacheControl.maxAge(Duration.ofDays(365)).cachePublic().getHeaderValue()
+                    + ", immutable";
 
-    public RevocationListControllerV2(RevokedCertDataService revokedCertDataService) {
-        this.revokedCertDataService = revokedCertDataService;
-        ClassPathResource dbFile =
-                new ClassPathResource("revocations.sqlite");
-        byte[] revocationDb;
-        String revocationDbNextSince;
-        try{
-            revocationDb = dbFile.getInputStream().readAllBytes();
-            revocationDbNextSince = new ObjectMapper()
-            .readTree(new ClassPathResource("revocation_metadata.json").getInputStream()).get("nextSince").asText();
-        }catch(IOException e){
-            logger.warn("Could not read revocation SQLite DB");
-            revocationDb = null;
-            revocationDbNextSince = null;
-        }
-        this.revocationDb = revocationDb;
-        this.revocationDbNextSince = revocationDbNextSince;
+    private final RevocationSnapshotCache revocationSnapshotCache;
+    private final RevocationPageCache revocationPageCache;
+    private final RevocationDbGenerator revocationDbGenerator;
+
+    public RevocationListControllerV2(
+            RevocationSnapshotCache revocationSnapshotCache,
+            RevocationPageCache revocationPageCache,
+            RevocationDbGenerator revocationDbGenerator) {
+        this.revocationSnapshotCache = revocationSnapshotCache;
+        this.revocationPageCache = revocationPageCache;
+        this.revocationDbGenerator = revocationDbGenerator;
     }
 
     @Documentation(
             description = "get list of revoked certificates",
-            responses = {"200 => next batch of revoked certificates"},
+            responses = {
+                "200 => next batch of revoked certificates",
+                "406 => neither JSON nor JWS accepted"
+            },
             responseHeaders = {
                 "X-Next-Since:`since` to set for next request:string",
                 "up-to-date:set to 'true' when no more certs to fetch:string"
-            })
+            },
+            serializedClass = RevocationResponse.class)
     @CrossOrigin(origins = {"https://editor.swagger.io"})
     @GetMapping(value = "/revocationList")
-    public @ResponseBody ResponseEntity<RevocationResponse> getRevokedCerts(
-            @RequestParam(required = false, defaultValue = "0") Long since)
+    public @ResponseBody ResponseEntity<byte[]> getRevokedCerts(
+            @RequestParam(required = false, defaultValue = "0") Long since,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
             throws HttpStatusCodeException {
         Instant now = Instant.now();
-        List<DbRevokedCert> revokedCerts =
-                revokedCertDataService.findReleasedRevokedCerts(since, now);
-        List<String> revokedUvcis =
-                revokedCerts.stream().map(DbRevokedCert::getUvci).collect(Collectors.toList());
+        MediaType mediaType = MediaTypeUtil.getResponseMediaType(accept);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+        // pages are pre-rendered for the snapshot of the upcoming retention bucket
+        RenderedPage page =
+                revocationPageCache.get(
+                        revocationSnapshotCache.get(now),
+                        since,
+                        JwsMessageConverter.JWS_MEDIA_TYPE.equals(mediaType));
         return ResponseEntity.ok()
-                .headers(getRevokedCertsHeaders(revokedCerts, now))
-                .body(new RevocationResponse(revokedUvcis));
+                .headers(getRevokedCertsHeaders(page, now))
+                .contentType(mediaType)
+                .body(page.getBody());
     }
 
     @Documentation(
-            description = "get (pruned) database of revocations",
-            responses = {"200 => current database as of last deployment"},
+            description =
+                    "get the delta to catch up from `since` to the currently released revocations"
+                            + " in a single request",
+            responses = {
+                "302 => redirect to the immutable delta covering `since`",
+                "204 => no more certs to fetch"
+            },
             responseHeaders = {
-                "X-Next-Since:`since` to set for next request:string"
+                "X-Next-Since:`since` to set after applying the delta:string",
+                "up-to-date:set to 'true' when no more certs to fetch:string"
             })
     @CrossOrigin(origins = {"https://editor.swagger.io"})
-    @GetMapping(value = "/revocationDb")        
-    public @ResponseBody ResponseEntity<byte[]> getRevocationDb() throws IOException{
-        if(revocationDb == null){
+    @GetMapping(value = "/revocationList/delta")
+    public @ResponseBody ResponseEntity<Void> redirectToRevokedCertsDelta(
+            @RequestParam(required = false, defaultValue = "0") Long since) {
+        Instant now = Instant.now();
+        RevocationSnapshot snapshot = revocationSnapshotCache.get(now);
+        long until = snapshot.getMaxPkId();
+        HttpHeaders headers =
+                CacheUtil.createExpiresHeader(
+                        CacheUtil.roundToNextRevocationRetentionBucketStart(now));
+        headers.add(NEXT_SINCE_HEADER, String.valueOf(until));
+        if (since >= until) {
+            headers.add(UP_TO_DATE_HEADER, "true");
+            return ResponseEntity.noContent().headers(headers).build();
+        }
+        // relative to the request path, resolves to revocationList/delta/{since}/{until}
+        headers.setLocation(URI.create("delta/" + snapshot.getDeltaBase(since) + "/" + until));
+        headers.add(UP_TO_DATE_HEADER, "false");
+        return ResponseEntity.status(HttpStatus.FOUND).headers(headers).build();
+    }
+
+    @Documentation(
+            description =
+                    "get all revoked certificates released after `since` up to and including"
+                            + " `until`. Both have to be retention bucket boundaries as handed out"
+                            + " by the delta redirect (`since` may also be 0). The content never"
+                            + " changes, so it can be cached forever",
+            responses = {
+                "200 => revoked certificates between `since` and `until`",
+                "404 => `since` or `until` isn't a released bucket boundary",
+                "406 => neither JSON nor JWS accepted"
+            },
+            responseHeaders = {"X-Next-Since:`since` to set after applying the delta:string"},
+            serializedClass = RevocationResponse.class)
+    @CrossOrigin(origins = {"https://editor.swagger.io"})
+    @GetMapping(value = "/revocationList/delta/{since}/{until}")
+    public @ResponseBody ResponseEntity<byte[]> getRevokedCertsDelta(
+            @PathVariable long since,
+            @PathVariable long until,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        MediaType mediaType = MediaTypeUtil.getResponseMediaType(accept);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+        RevocationSnapshot snapshot = revocationSnapshotCache.get(Instant.now());
+        // only the deltas handed out by the redirect exist, anything else would let clients fill
+        // the caches (and the CDN) with arbitrary ranges
+        if (since >= until
+                || !snapshot.isBucketBoundary(until)
+                || (since != 0 && !snapshot.isBucketBoundary(since))) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok().header(NEXT_SINCE_HEADER, revocationDbNextSince).body(revocationDb);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, DELTA_CACHE_CONTROL)
+                // the same url serves JSON and JWS
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+                .header(NEXT_SINCE_HEADER, String.valueOf(until))
+                .contentType(mediaType)
+                .body(
+                        revocationPageCache.getDelta(
+                                snapshot,
+                                since,
+                                until,
+                                JwsMessageConverter.JWS_MEDIA_TYPE.equals(mediaType)));
     }
 
+    @Documentation(
+            description = "get (pruned) database of revocations",
+            responses = {
+                "200 => current revocation database as sqlite file",
+                "206 => requested range of the database",
+                "304 => no changes since last request",
+                "404 => no database generated yet"
+            },
+            responseHeaders = {
+                "X-Next-Since:`since` to set for next request:string",
+                "ETag:strong etag of the database, the same on all instances and also usable with"
+                        + " If-Range:string"
+            })
+    @CrossOrigin(origins = {"https://editor.swagger.io"})
+    @GetMapping(value = "/revocationDb")
+    public @ResponseBody ResponseEntity<Resource> getRevocationDb(
+            @RequestParam(required = false, defaultValue = "IOS") CertFormat certFormat,
+            WebRequest request)
+            throws IOException {
+        RevocationDbFile dbFile = revocationDbGenerator.get(certFormat);
+        if (dbFile == null) {
+            return ResponseEntity.notFound().build();
+        }
+        String etag = EtagUtil.toStrongEtag(dbFile.getSha256());
+        if (request.checkNotModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
+        }
+        FileSystemResource file = new FileSystemResource(revocationDbGenerator.getPath(dbFile));
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            // spring serves ranges of resource bodies but ignores If-Range, so a range of a newer
+            // file would be appended to an older one. Input stream resources are always sent
+            // whole.
+            return ResponseEntity.ok()
+                    .header(NEXT_SINCE_HEADER, dbFile.getNextSince())
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .contentLength(file.contentLength())
+                    .body(new InputStreamResource(file.getInputStream()));
+        }
+        // streamed from disk, range requests are served by spring for resource bodies
+        return ResponseEntity.ok()
+                .header(NEXT_SINCE_HEADER, dbFile.getNextSince())
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(file);
+    }
 
-    private HttpHeaders getRevokedCertsHeaders(List<DbRevokedCert> revokedCerts, Instant now) {
+    private HttpHeaders getRevokedCertsHeaders(RenderedPage page, Instant now) {
         HttpHeaders headers =
                 CacheUtil.createExpiresHeader(
                         CacheUtil.roundToNextRevocationRetentionBucketStart(now));
-        long maxPkId = revokedCertDataService.findMaxReleasedRevokedCertPkId(now);
-        Long nextSince =
-                revokedCerts.stream().mapToLong(DbRevokedCert::getPkId).max().orElse(maxPkId);
-        headers.add(NEXT_SINCE_HEADER, nextSince.toString());
-        boolean upToDate = nextSince >= maxPkId;
-        headers.add(UP_TO_DATE_HEADER, String.valueOf(upToDate));
+        headers.add(NEXT_SINCE_HEADER, String.valueOf(page.getNextSince()));
+        headers.add(UP_TO_DATE_HEADER, String.valueOf(page.isUpToDate()));
         return headers;
     }
 }
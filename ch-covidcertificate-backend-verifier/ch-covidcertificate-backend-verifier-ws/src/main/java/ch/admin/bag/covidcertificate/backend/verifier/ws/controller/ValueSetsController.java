@@ -10,26 +10,23 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
-import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
-import ch.admin.bag.covidcertificate.backend.verifier.ws.model.valuesets.TestValueSets;
-import ch.admin.bag.covidcertificate.backend.verifier.ws.model.valuesets.VaccineValueSets;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RenderedVariant;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.ValueSetResponseCache;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.model.valuesets.ValueSets;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.GzipUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.MediaTypeUtil;
 import ch.ubique.openapi.docannotations.Documentation;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import java.io.File;
-import java.io.IOException;
-import java.util.Map;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.context.request.WebRequest;
@@ -38,71 +35,52 @@ import org.springframework.web.context.request.WebRequest;
 @RequestMapping("trust/v1")
 public class ValueSetsController {
 
-    private static final Logger logger = LoggerFactory.getLogger(ValueSetsController.class);
+    private final ValueSetResponseCache valueSetResponseCache;
 
-    private final ValueSets valueSets;
-    private final ObjectMapper mapper = new ObjectMapper();
-
-    private final ValueSetDataService valueSetDataService;
-
-    public ValueSetsController(ValueSetDataService valueSetDataService) throws IOException {
-        this.valueSetDataService = valueSetDataService;
-        this.valueSets = new ValueSets(getTestValueSet(), getVaccineValueSet());
-    }
-
-    private VaccineValueSets getVaccineValueSet() throws IOException {
-        VaccineValueSets vaccine = new VaccineValueSets();
-        vaccine.setMahManf(readFileAsMap("valuesets/vaccine-mah-manf.json"));
-        vaccine.setMedicinalProduct(readFileAsMap("valuesets/vaccine-medicinal-product.json"));
-        vaccine.setProphylaxis(readFileAsMap("valuesets/vaccine-prophylaxis.json"));
-        return vaccine;
-    }
-
-    private TestValueSets getTestValueSet() throws IOException {
-        TestValueSets test = new TestValueSets();
-        test.setType(readFileAsMap("valuesets/test-type.json"));
-        return test;
-    }
-
-    /**
-     * maps a file to a generic {@link Map}
-     *
-     * @param path relative to classpath
-     * @return
-     */
-    private Map readFileAsMap(String path) throws IOException {
-        File file = new ClassPathResource(path).getFile();
-        return mapper.readValue(file, Map.class);
+    public ValueSetsController(ValueSetResponseCache valueSetResponseCache) {
+        this.valueSetResponseCache = valueSetResponseCache;
     }
 
     @Documentation(
             description = "get value sets",
-            responses = {"200 => value sets", "304 => no changes since last request"},
-            responseHeaders = {"ETag:etag to set for next request:string"})
+            responses = {
+                "200 => value sets",
+                "304 => no changes since last request",
+                "406 => neither JSON nor JWS accepted"
+            },
+            responseHeaders = {
+                "ETag:etag to set for next request:string",
+                "Content-Encoding:gzip if accepted by the client:string"
+            },
+            serializedClass = ValueSets.class)
     @GetMapping(value = "/metadata")
-    public @ResponseBody ResponseEntity<ValueSets> getValueSets(WebRequest request)
-            throws JsonProcessingException {
-        // load test manufacturers from db
-        final Map testManf =
-                mapper.readValue(
-                        valueSetDataService.findLatestValueSet(
-                                "covid-19-lab-test-manufacturer-and-name"),
-                        Map.class);
-        valueSets.getTest().setManf(testManf);
-
-        String etag = "";
-        try {
-            etag = EtagUtil.getSha1HashForStrings(true, mapper.writeValueAsString(valueSets));
-        } catch (Exception e) {
-            logger.error("Failed to calculate ETag for value sets", e);
+    public @ResponseBody ResponseEntity<byte[]> getValueSets(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                    String acceptEncoding,
+            WebRequest request) {
+        MediaType mediaType = MediaTypeUtil.getResponseMediaType(accept);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
         }
+        boolean gzip = GzipUtil.acceptsGzip(acceptEncoding);
+        RenderedVariant valueSets =
+                valueSetResponseCache
+                        .get()
+                        .getMetadata(JwsMessageConverter.JWS_MEDIA_TYPE.equals(mediaType), gzip);
 
-        if (request.checkNotModified(etag)) {
+        if (request.checkNotModified(EtagUtil.toStrongEtag(valueSets.getSha256()))) {
             return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
         }
 
-        return ResponseEntity.ok()
-                .cacheControl(CacheControl.maxAge(CacheUtil.VALUE_SETS_MAX_AGE))
-                .body(valueSets);
+        ResponseEntity.BodyBuilder response =
+                ResponseEntity.ok()
+                        .cacheControl(CacheControl.maxAge(CacheUtil.VALUE_SETS_MAX_AGE))
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                        .contentType(mediaType);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, GzipUtil.GZIP_ENCODING);
+        }
+        return response.body(valueSets.getBody());
     }
 }
@@ -10,29 +10,23 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
-import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RenderedVariant;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.VerificationRulesCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.GzipUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.MediaTypeUtil;
 import ch.ubique.openapi.docannotations.Documentation;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import java.io.IOException;
-import java.io.InputStream;
-import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.context.request.WebRequest;
@@ -41,96 +35,51 @@ import org.springframework.web.context.request.WebRequest;
 @RequestMapping("trust/v2")
 public class VerificationRulesControllerV2 {
 
-    private static final Logger logger = LoggerFactory.getLogger(VerificationRulesControllerV2.class);
-    private static final String VALUE_SETS_KEY = "valueSets";
-    public static final String MODE_RULES = "modeRules";
+    private final VerificationRulesCache verificationRulesCache;
 
-    private final Map verificationRules;
-    private final ValueSetDataService valueSetDataService;
-
-    public VerificationRulesControllerV2(
-            ValueSetDataService valueSetDataService, String[] disabledVerificationModes)
-            throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        InputStream verificationRulesFile =
-                new ClassPathResource("verificationRulesV2.json").getInputStream();
-        JsonNode rules = mapper.readTree(verificationRulesFile);
-
-        ArrayNode modes = (ArrayNode) rules.get(MODE_RULES).get("activeModes");
-        removeModes(modes, disabledVerificationModes);
-
-        ArrayNode verifierModes = (ArrayNode) rules.get(MODE_RULES).get("verifierActiveModes");
-        removeModes(verifierModes, disabledVerificationModes);
-
-        ArrayNode walletModes = (ArrayNode) rules.get("modeRules").get("walletActiveModes");
-        removeModes(walletModes, disabledVerificationModes);
-
-        this.verificationRules = mapper.treeToValue(rules, Map.class);
-
-        this.valueSetDataService = valueSetDataService;
-    }
-
-    private void removeModes(ArrayNode modes, String[] modesToRemove) {
-        var modesIter = modes.iterator();
-        while (modesIter.hasNext()) {
-            var mode = modesIter.next();
-            for (String disabledMode : modesToRemove) {
-                if (disabledMode.equals(mode.get("id").asText())) {
-                    modesIter.remove();
-                    break;
-                }
-            }
-        }
+    public VerificationRulesControllerV2(VerificationRulesCache verificationRulesCache) {
+        this.verificationRulesCache = verificationRulesCache;
     }
 
     @Documentation(
             description = "get list of verification rules (uses the new format)",
             responses = {
                 "200 => list of verification rules",
-                "304 => no changes since last request"
+                "304 => no changes since last request",
+                "406 => neither JSON nor JWS accepted"
+            },
+            responseHeaders = {
+                "ETag:etag to set for next request:string",
+                "Content-Encoding:gzip if accepted by the client:string"
             },
-            responseHeaders = {"ETag:etag to set for next request:string"})
+            serializedClass = Map.class)
     @GetMapping(value = "/verificationRules")
-    public @ResponseBody ResponseEntity<Map> getVerificationRules(WebRequest request)
-            throws NoSuchAlgorithmException {
+    public @ResponseBody ResponseEntity<byte[]> getVerificationRules(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                    String acceptEncoding,
+            WebRequest request) {
         Instant now = Instant.now();
-        var allIds = valueSetDataService.findAllValueSetIds();
-        HashMap<String, ArrayList<String>> valueSets = new HashMap<>();
-        ObjectMapper mapper = new ObjectMapper();
-        for (var id : allIds) {
-            var valueSet = valueSetDataService.findLatestValueSet(id);
-            if (valueSet != null) {
-                try {
-                    var entryJson = mapper.readTree(valueSet);
-                    var fieldNameIterator = entryJson.get("valueSetValues").fieldNames();
-                    var valueSetValues = new ArrayList<String>();
-                    while (fieldNameIterator.hasNext()) {
-                        valueSetValues.add(fieldNameIterator.next());
-                    }
-                    valueSets.put(id, valueSetValues);
-                } catch (Exception ex) {
-                    logger.error("Serving Rules failed", ex);
-                }
-            }
+        MediaType mediaType = MediaTypeUtil.getResponseMediaType(accept);
+        if (mediaType == null) {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
         }
+        boolean gzip = GzipUtil.acceptsGzip(acceptEncoding);
+        RenderedVariant rules =
+                verificationRulesCache
+                        .get()
+                        .get(JwsMessageConverter.JWS_MEDIA_TYPE.equals(mediaType), gzip);
 
-        verificationRules.put(VALUE_SETS_KEY, valueSets);
-
-        String etag = "";
-        try {
-            etag =
-                    EtagUtil.getSha1HashForStrings(
-                            true, mapper.writeValueAsString(verificationRules));
-        } catch (JsonProcessingException e) {
-            logger.error("Failed to calculate ETag for rules", e);
-        }
-        if (request.checkNotModified(etag)) {
+        if (request.checkNotModified(EtagUtil.toStrongEtag(rules.getSha256()))) {
             return ResponseEntity.status(HttpStatus.NOT_MODIFIED).build();
         }
 
-        return ResponseEntity.ok()
-                .headers(getVerificationRulesHeaders(now))
-                .body(verificationRules);
+        HttpHeaders headers = getVerificationRulesHeaders(now);
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            headers.add(HttpHeaders.CONTENT_ENCODING, GzipUtil.GZIP_ENCODING);
+        }
+        return ResponseEntity.ok().headers(headers).contentType(mediaType).body(rules.getBody());
     }
 
     private HttpHeaders getVerificationRulesHeaders(Instant now) {
@@ -86,16 +86,17 @@ public class JwsMessageConverter extends AbstractGenericHttpMessageConverter<Obj
     @Override
     protected void writeInternal(Object t, Type type, HttpOutputMessage outputMessage)
             throws IOException, HttpMessageNotWritableException {
+        StreamUtils.copy(sign(t), StandardCharsets.UTF_8, outputMessage.getBody());
+    }
+
+    /** returns the compact JWS of the given object, exactly as it is written by this converter */
+    public String sign(Object t) {
         @SuppressWarnings("unchecked")
         Map<String, Object> claims = objectMapper.convertValue(t, Map.class);
-        String signature;
-        signature =
-                Jwts.builder()
-                        .setHeaderParam("x5c", this.certificateChain)
-                        .setClaims(claims)
-                        .signWith(this.privateKey)
-                        .compact();
-
-        StreamUtils.copy(signature, StandardCharsets.UTF_8, outputMessage.getBody());
+        return Jwts.builder()
+                .setHeaderParam("x5c", this.certificateChain)
+                .setClaims(claims)
+                .signWith(this.privateKey)
+                .compact();
     }
 }
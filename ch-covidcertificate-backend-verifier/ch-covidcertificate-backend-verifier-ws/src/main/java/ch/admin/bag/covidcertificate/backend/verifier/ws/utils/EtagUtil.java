@@ -27,6 +27,7 @@ public class EtagUtil {
 
     private static final String WEAK_PREFIX = "W/";
     private static final String SHA_1 = "SHA-1";
+    private static final String SHA_256 = "SHA-256";
 
     /**
      * generates a weak etag for a list that does not depend on element order
@@ -74,7 +75,28 @@ public class EtagUtil {
         return asWeakEtag ? toWeakEtag(hash) : hash;
     }
 
+    public static String getSha256HashForStrings(boolean asWeakEtag, String... strings) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance(SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        for (String string : strings) {
+            sha256.update(string.getBytes(StandardCharsets.UTF_8));
+            // separator so ("ab", "c") and ("a", "bc") don't collide
+            sha256.update((byte) 0);
+        }
+        String hash = Hex.encodeHexString(sha256.digest());
+        return asWeakEtag ? toWeakEtag(hash) : hash;
+    }
+
     public static String toWeakEtag(String hash) {
-        return WEAK_PREFIX + "\"" + hash + "\"";
+        return WEAK_PREFIX + toStrongEtag(hash);
+    }
+
+    public static String toStrongEtag(String hash) {
+        return "\"" + hash + "\"";
     }
 }
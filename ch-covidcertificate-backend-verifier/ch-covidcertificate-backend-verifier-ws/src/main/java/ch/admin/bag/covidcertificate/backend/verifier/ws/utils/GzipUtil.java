@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+public class GzipUtil {
+
+    public static final String GZIP_ENCODING = "gzip";
+
+    private GzipUtil() {}
+
+    public static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * returns whether the Accept-Encoding header value allows a gzip encoded response, i.e. lists
+     * gzip (or x-gzip) or, if gzip isn't listed, the * wildcard with a non-zero quality value
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean acceptable = getQuality(parts) > 0;
+            if (coding.equals(GZIP_ENCODING) || coding.equals("x-" + GZIP_ENCODING)) {
+                return acceptable;
+            }
+            if (coding.equals("*")) {
+                wildcard = acceptable;
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    /** returns the q parameter of a split Accept-Encoding element, 1 if there is none */
+    private static double getQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.length() > 1 && (param.charAt(0) == 'q' || param.charAt(0) == 'Q')) {
+                String value = param.substring(1).trim();
+                if (value.startsWith("=")) {
+                    try {
+                        return Double.parseDouble(value.substring(1).trim());
+                    } catch (NumberFormatException e) {
+                        // malformed weights are ignored like a missing one
+                        return 1;
+                    }
+                }
+            }
+        }
+        return 1;
+    }
+}
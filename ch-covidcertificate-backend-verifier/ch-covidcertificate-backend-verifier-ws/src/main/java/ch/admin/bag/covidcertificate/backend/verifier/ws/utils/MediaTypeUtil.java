@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.utils;
+
+import ch.admin.bag.covidcertificate.backend.verifier.ws.security.signature.JwsMessageConverter;
+import java.util.List;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+public class MediaTypeUtil {
+
+    private MediaTypeUtil() {}
+
+    /**
+     * returns the media type a response written by the controller itself (instead of a message
+     * converter) is served as: JWS if explicitly accepted, JSON otherwise. null if neither is
+     * acceptable
+     */
+    public static MediaType getResponseMediaType(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return MediaType.APPLICATION_JSON;
+        }
+        List<MediaType> acceptedTypes;
+        try {
+            acceptedTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException e) {
+            return null;
+        }
+        if (acceptedTypes.stream()
+                .anyMatch(JwsMessageConverter.JWS_MEDIA_TYPE::equalsTypeAndSubtype)) {
+            return JwsMessageConverter.JWS_MEDIA_TYPE;
+        }
+        if (acceptedTypes.stream().anyMatch(MediaType.APPLICATION_JSON::isCompatibleWith)) {
+            return MediaType.APPLICATION_JSON;
+        }
+        return null;
+    }
+}
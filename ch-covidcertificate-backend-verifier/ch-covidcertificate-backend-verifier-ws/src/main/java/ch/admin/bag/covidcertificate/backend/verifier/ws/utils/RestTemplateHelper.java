@@ -35,6 +35,14 @@ public class RestTemplateHelper {
         return buildRestTemplate();
     }
 
+    /**
+     * returns a rest template without the logging interceptor, for large responses that are
+     * streamed. the interceptor buffers the whole body to log it
+     */
+    public static RestTemplate getStreamingRestTemplate() {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient()));
+    }
+
     private static RestTemplate buildRestTemplate() {
         var rt = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient()));
         List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>();
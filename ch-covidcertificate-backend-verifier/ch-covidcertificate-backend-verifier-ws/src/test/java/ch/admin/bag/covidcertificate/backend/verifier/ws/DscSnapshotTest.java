@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbDsc;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.DscSnapshot;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class DscSnapshotTest {
+
+    // pk ids with gaps, as left behind by deleted dscs
+    private static final long[] PK_IDS = {3, 4, 7, 10, 11, 15};
+
+    private static final String EMPTY_DIGEST =
+            "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private DscSnapshot getSnapshot() {
+        List<ClientCert> dscs = new ArrayList<>();
+        for (int i = 0; i < PK_IDS.length; i++) {
+            ClientCert dsc = new ClientCert();
+            dsc.setPkId(PK_IDS[i]);
+            dsc.setKeyId("kid_" + PK_IDS[i]);
+            dsc.setOrigin(i % 2 == 0 ? "CH" : "DE");
+            // imported at pk id seconds
+            dsc.setImportedAt(Instant.ofEpochSecond(PK_IDS[i]));
+            dscs.add(dsc);
+        }
+        DbDsc removed = new DbDsc();
+        removed.setKeyId("kid_removed");
+        removed.setOrigin("AT");
+        removed.setDeletedAt(Instant.ofEpochSecond(12));
+        return DscSnapshot.of(
+                "fingerprint",
+                "digest_all",
+                Map.of("CH", "digest_ch", "DE", "digest_de", "AT", EMPTY_DIGEST),
+                Map.of(CertFormat.ANDROID, dscs),
+                List.of(removed));
+    }
+
+    private List<Long> pkIds(List<ClientCert> dscs) {
+        return dscs.stream().map(ClientCert::getPkId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testPage() {
+        DscSnapshot.Partition all = getSnapshot().get(CertFormat.ANDROID);
+        assertEquals(List.of(3L, 4L, 7L, 10L, 11L, 15L), pkIds(all.page(0, null, 100)));
+        assertEquals(List.of(3L, 4L), pkIds(all.page(0, null, 2)));
+        // since is exclusive, upTo is inclusive
+        assertEquals(List.of(7L, 10L), pkIds(all.page(4, 10L, 100)));
+        assertEquals(List.of(7L, 10L), pkIds(all.page(5, 12L, 2)));
+        assertEquals(List.of(11L), pkIds(all.page(10, 14L, 100)));
+        assertTrue(all.page(15, null, 100).isEmpty());
+        assertTrue(all.page(10, 10L, 100).isEmpty());
+        assertTrue(all.page(0, 2L, 100).isEmpty());
+        assertEquals(15L, all.getMaxPkId());
+    }
+
+    @Test
+    public void testOriginPartitions() {
+        DscSnapshot snapshot = getSnapshot();
+        DscSnapshot.Partition ch = snapshot.get(CertFormat.ANDROID, "CH");
+        assertEquals(List.of("kid_3", "kid_7", "kid_11"), ch.getKeyIds());
+        assertEquals(11L, ch.getMaxPkId());
+        assertEquals(List.of(7L, 11L), pkIds(ch.page(3, null, 100)));
+        assertEquals(15L, snapshot.get(CertFormat.ANDROID, "DE").getMaxPkId());
+
+        DscSnapshot.Partition unknown = snapshot.get(CertFormat.ANDROID, "XX");
+        assertTrue(unknown.getKeyIds().isEmpty());
+        assertEquals(0L, unknown.getMaxPkId());
+        assertEquals(0L, snapshot.get(CertFormat.IOS).getMaxPkId());
+    }
+
+    @Test
+    public void testDelta() {
+        DscSnapshot snapshot = getSnapshot();
+        assertEquals(15_000L, snapshot.getGeneration());
+
+        DscSnapshot.Partition all = snapshot.get(CertFormat.ANDROID);
+        assertEquals(List.of("kid_11", "kid_15"), all.getKeyIdsImportedAfter(10_000L));
+        assertEquals(List.of("kid_removed"), all.getKeyIdsRemovedAfter(10_000L));
+        assertTrue(all.getKeyIdsRemovedAfter(12_000L).isEmpty());
+        assertTrue(all.getKeyIdsImportedAfter(15_000L).isEmpty());
+
+        // removals are only part of their origin's partition
+        assertTrue(snapshot.get(CertFormat.ANDROID, "CH").getKeyIdsRemovedAfter(0L).isEmpty());
+        DscSnapshot.Partition at = snapshot.get(CertFormat.ANDROID, "AT");
+        assertEquals(List.of("kid_removed"), at.getKeyIdsRemovedAfter(0L));
+        assertTrue(at.getKeyIds().isEmpty());
+
+        // every origin has its own generation
+        assertEquals(11_000L, snapshot.getGeneration("CH"));
+        assertEquals(15_000L, snapshot.getGeneration("DE"));
+        assertEquals(12_000L, snapshot.getGeneration("AT"));
+        assertEquals(0L, snapshot.getGeneration("XX"));
+        assertEquals(15_000L, snapshot.getGeneration(null));
+    }
+
+    @Test
+    public void testDigest() {
+        DscSnapshot snapshot = getSnapshot();
+        assertEquals("digest_all", snapshot.getDigest(null));
+        assertEquals("digest_ch", snapshot.getDigest("CH"));
+        assertEquals(EMPTY_DIGEST, snapshot.getDigest("AT"));
+        assertEquals(EMPTY_DIGEST, snapshot.getDigest("XX"));
+    }
+
+    @Test
+    public void testKidIndex() {
+        // 8 byte kids, the second one contains base64 characters that differ in base64url
+        String kid1 = "AAECAwQFBgc=";
+        String kid2 = "+/7+/v7+/v4=";
+        List<ClientCert> dscs = new ArrayList<>();
+        long pkId = 1;
+        for (String kid : List.of(kid2, kid1, kid2, "keyid_1")) {
+            ClientCert dsc = new ClientCert();
+            dsc.setPkId(pkId++);
+            dsc.setKeyId(kid);
+            dsc.setOrigin("CH");
+            dsc.setImportedAt(Instant.ofEpochSecond(pkId));
+            dscs.add(dsc);
+        }
+        DscSnapshot snapshot =
+                DscSnapshot.of(
+                        "fingerprint",
+                        "digest",
+                        Map.of(),
+                        Map.of(CertFormat.ANDROID, dscs),
+                        List.of());
+
+        assertEquals(List.of(2L), pkIds(snapshot.findByKeyId(CertFormat.ANDROID, kid1)));
+        assertEquals(
+                List.of(1L, 3L),
+                pkIds(snapshot.findByKeyId(CertFormat.ANDROID, kid2)).stream()
+                        .sorted()
+                        .collect(Collectors.toList()));
+        // base64url without padding, as used in the path
+        assertEquals(2, snapshot.findByKeyId(CertFormat.ANDROID, "-_7-_v7-_v4").size());
+        // non standard kids are found by their exact value
+        assertEquals(List.of(4L), pkIds(snapshot.findByKeyId(CertFormat.ANDROID, "keyid_1")));
+
+        assertTrue(snapshot.findByKeyId(CertFormat.ANDROID, "AAECAwQFBgg=").isEmpty());
+        assertTrue(snapshot.findByKeyId(CertFormat.ANDROID, "not base64!").isEmpty());
+        assertTrue(snapshot.findByKeyId(CertFormat.IOS, kid1).isEmpty());
+    }
+}
@@ -61,4 +61,17 @@ public class EtagUtilTest {
                         true, pathsToValueSets.toArray(new String[pathsToValueSets.size()]));
         assertEquals(expected, sha1);
     }
+
+    @Test
+    public void testSha256HashForStrings() {
+        String expected =
+                EtagUtil.toWeakEtag(
+                        "2b9514dc1bc76050f65f93083a356d86c289b1355d0bf1e319eac059784b4ddc");
+        assertEquals(expected, EtagUtil.getSha256HashForStrings(true, "abc", "1000"));
+        assertNotEquals(expected, EtagUtil.getSha256HashForStrings(true, "abc", "1001"));
+        // components are separated
+        assertNotEquals(
+                EtagUtil.getSha256HashForStrings(false, "ab", "c"),
+                EtagUtil.getSha256HashForStrings(false, "a", "bc"));
+    }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.DscJsonUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.Algorithm;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertsResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbDsc;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.KeyPageCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+public class KeyPageCacheTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = Jackson2ObjectMapperBuilder.json().build();
+
+    @Test
+    public void testGenerationInvalidation() {
+        KeyPageCache cache = new KeyPageCache(null, OBJECT_MAPPER, 10);
+        AtomicInteger renderCount = new AtomicInteger();
+        byte[] first = cache.get(1L, "0:10", false, () -> body(renderCount, "a"));
+        assertEquals("{\"value\":\"a\"}", new String(first, StandardCharsets.UTF_8));
+        assertSame(first, cache.get(1L, "0:10", false, () -> body(renderCount, "b")));
+        assertEquals(1, renderCount.get());
+
+        byte[] second = cache.get(2L, "0:10", false, () -> body(renderCount, "b"));
+        assertEquals("{\"value\":\"b\"}", new String(second, StandardCharsets.UTF_8));
+        assertEquals(2, renderCount.get());
+    }
+
+    @Test
+    public void testOlderGeneration() {
+        KeyPageCache cache = new KeyPageCache(null, OBJECT_MAPPER, 10);
+        AtomicInteger renderCount = new AtomicInteger();
+        byte[] current = cache.get(2L, "0:10", false, () -> body(renderCount, "b"));
+
+        // a request still on the previous snapshot neither drops nor replaces the current pages
+        byte[] older = cache.get(1L, "0:10", false, () -> body(renderCount, "a"));
+        assertEquals("{\"value\":\"a\"}", new String(older, StandardCharsets.UTF_8));
+        cache.get(1L, "0:10", false, () -> body(renderCount, "a"));
+        assertEquals(3, renderCount.get());
+        assertSame(current, cache.get(2L, "0:10", false, () -> body(renderCount, "c")));
+        assertEquals(3, renderCount.get());
+    }
+
+    @Test
+    public void testPreRenderedCerts() throws Exception {
+        List<ClientCert> certs = new ArrayList<>();
+        for (CertFormat certFormat : CertFormat.values()) {
+            for (Algorithm alg : Algorithm.values()) {
+                DbDsc dsc = dsc(alg);
+                ClientCert cert = DscJsonUtil.toClientCert(dsc, certFormat);
+                cert.setJson(DscJsonUtil.toJson(dsc, certFormat));
+                certs.add(cert);
+            }
+        }
+        // certs without pre-rendered json are serialized on the fly
+        certs.add(DscJsonUtil.toClientCert(dsc(Algorithm.ES256), CertFormat.IOS));
+
+        byte[] expected = OBJECT_MAPPER.writeValueAsBytes(new CertsResponse(certs));
+        byte[] page =
+                new KeyPageCache(null, OBJECT_MAPPER, 10)
+                        .get(1L, "page", false, () -> new CertsResponse(certs));
+        assertEquals(
+                new String(expected, StandardCharsets.UTF_8),
+                new String(page, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        KeyPageCache cache = new KeyPageCache(null, OBJECT_MAPPER, 10);
+        AtomicInteger renderCount = new AtomicInteger();
+        byte[] plain = cache.get(1L, "page", false, false, () -> body(renderCount, "a"));
+        byte[] gzipped = cache.get(1L, "page", false, true, () -> body(renderCount, "a"));
+        assertEquals(2, renderCount.get());
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            assertArrayEquals(plain, in.readAllBytes());
+        }
+        assertSame(gzipped, cache.get(1L, "page", false, true, () -> body(renderCount, "b")));
+    }
+
+    @Test
+    public void testLruEviction() {
+        KeyPageCache cache = new KeyPageCache(null, OBJECT_MAPPER, 2);
+        AtomicInteger renderCount = new AtomicInteger();
+        cache.get(1L, "a", false, () -> body(renderCount, "a"));
+        cache.get(1L, "b", false, () -> body(renderCount, "b"));
+        // touch a so b is the eldest entry
+        cache.get(1L, "a", false, () -> body(renderCount, "a"));
+        cache.get(1L, "c", false, () -> body(renderCount, "c"));
+        assertEquals(3, renderCount.get());
+        cache.get(1L, "a", false, () -> body(renderCount, "a"));
+        assertEquals(3, renderCount.get());
+        cache.get(1L, "b", false, () -> body(renderCount, "b"));
+        assertEquals(4, renderCount.get());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        KeyPageCache cache = new KeyPageCache(null, OBJECT_MAPPER, 10);
+        AtomicInteger renderCount = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(
+                        executor.submit(
+                                () ->
+                                        cache.get(
+                                                1L,
+                                                "page",
+                                                false,
+                                                () -> {
+                                                    await(release);
+                                                    return body(renderCount, "a");
+                                                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            byte[] expected = results.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<byte[]> result : results) {
+                assertSame(expected, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, renderCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static DbDsc dsc(Algorithm alg) {
+        DbDsc dsc = new DbDsc();
+        dsc.setId(1L);
+        dsc.setKeyId("keyId" + alg);
+        dsc.setOrigin("CH");
+        dsc.setUse("sig");
+        dsc.setAlg(alg);
+        dsc.setN("n");
+        dsc.setE("e");
+        dsc.setSubjectPublicKeyInfo("spki");
+        dsc.setCrv("P-256");
+        dsc.setX("x");
+        dsc.setY("y");
+        return dsc;
+    }
+
+    private static Object body(AtomicInteger renderCount, String value) {
+        renderCount.incrementAndGet();
+        return Map.of("value", value);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class RevocationFilterTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(RevocationFilterTest.class);
+
+    private static final double FALSE_POSITIVE_RATE = 0.001;
+
+    @Test
+    public void testMembership() throws IOException {
+        int count = 20000;
+        RevocationFilter.Builder builder = RevocationFilter.builder(count, FALSE_POSITIVE_RATE);
+        for (int i = 0; i < count; i++) {
+            builder.add("URN:UVCI:01:CH:" + i);
+        }
+        RevocationFilter filter = builder.build(count);
+        assertEquals(count, filter.size());
+        assertEquals(count, filter.getMaxPkId());
+
+        // no false negatives
+        for (int i = 0; i < count; i++) {
+            assertTrue(filter.mightContain("URN:UVCI:01:CH:" + i));
+        }
+
+        // false positives close to the expected rate (filled up to the capacity headroom only)
+        int falsePositives = 0;
+        int probes = 200000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain("URN:UVCI:01:XX:" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(filter.getFalsePositiveRate() < FALSE_POSITIVE_RATE);
+        assertTrue((double) falsePositives / probes < 2 * FALSE_POSITIVE_RATE);
+
+        ByteBuffer serialized =
+                ByteBuffer.wrap(filter.asResource().getInputStream().readAllBytes());
+        assertEquals(filter.getSizeInBytes(), serialized.capacity());
+        assertEquals(RevocationFilter.VERSION, serialized.getInt(0));
+        assertEquals(filter.getNumHashFunctions(), serialized.getInt(4));
+        assertEquals((filter.getSizeInBytes() - 16) / 64, serialized.getInt(8));
+        assertEquals(count, serialized.getInt(12));
+    }
+
+    @Test
+    public void testExtend() throws IOException {
+        RevocationFilter.Builder builder = RevocationFilter.builder(100, FALSE_POSITIVE_RATE);
+        RevocationFilter full = builder.add("uvci_1").add("uvci_2").add("uvci_3").build(3);
+        RevocationFilter initial =
+                RevocationFilter.builder(100, FALSE_POSITIVE_RATE)
+                        .add("uvci_1")
+                        .add("uvci_2")
+                        .build(2);
+        RevocationFilter extended = RevocationFilter.builder(initial).add("uvci_3").build(3);
+
+        assertFalse(initial.mightContain("uvci_3"));
+        assertTrue(extended.mightContain("uvci_3"));
+        assertEquals(3, extended.size());
+        assertEquals(initial.getCapacity(), extended.getCapacity());
+        // an extended filter is bit for bit the same as one built from scratch
+        assertArrayEquals(
+                full.asResource().getInputStream().readAllBytes(),
+                extended.asResource().getInputStream().readAllBytes());
+    }
+
+    /**
+     * times building a filter over a realistic amount of revoked certs and looking up revoked and
+     * unknown UVCIs in it. Excluded from the default test run, run it with {@code
+     * -Dsurefire.excludedGroups=none -Dgroups=benchmark}
+     */
+    @Test
+    @Tag("benchmark")
+    public void filterBenchmark() {
+        int count = 1000000;
+        String[] revoked = new String[count];
+        String[] unknown = new String[count];
+        for (int i = 0; i < count; i++) {
+            revoked[i] = "URN:UVCI:01:CH:" + i;
+            unknown[i] = "URN:UVCI:01:XX:" + i;
+        }
+
+        int iterations = 5;
+        RevocationFilter filter = null;
+        int hits = 0;
+        long buildNanos = 0;
+        long lookupNanos = 0;
+        // the first round only warms up the jit
+        for (int round = 0; round <= iterations; round++) {
+            long start = System.nanoTime();
+            RevocationFilter.Builder builder = RevocationFilter.builder(count, FALSE_POSITIVE_RATE);
+            for (String uvci : revoked) {
+                builder.add(uvci);
+            }
+            filter = builder.build(count);
+            long buildEnd = System.nanoTime();
+            hits = 0;
+            for (int i = 0; i < count; i++) {
+                if (filter.mightContain(revoked[i])) {
+                    hits++;
+                }
+                if (filter.mightContain(unknown[i])) {
+                    hits++;
+                }
+            }
+            long lookupEnd = System.nanoTime();
+            if (round > 0) {
+                buildNanos += buildEnd - start;
+                lookupNanos += lookupEnd - buildEnd;
+            }
+        }
+        logger.info(
+                "filter over {} uvcis ({} bytes): build {} ms, mightContain {} ns",
+                count,
+                filter.getSizeInBytes(),
+                buildNanos / iterations / 1000000,
+                lookupNanos / iterations / (2L * count));
+        assertTrue(hits >= count);
+        assertTrue(hits - count < 2 * FALSE_POSITIVE_RATE * count);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationHashIndex;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class RevocationHashIndexTest {
+
+    private static byte[] hash(int... bytes) {
+        byte[] hash = new byte[4];
+        for (int i = 0; i < bytes.length; i++) {
+            hash[i] = (byte) bytes[i];
+        }
+        return hash;
+    }
+
+    @Test
+    public void testBuckets() {
+        // more hashes than the initial buffer capacity, 0x80 and above sort after 0x7f (unsigned)
+        RevocationHashIndex.Builder builder = RevocationHashIndex.builder(4);
+        for (int i = 0; i < 256; i++) {
+            for (int j = 0; j < 8; j++) {
+                builder.add(hash(i, j));
+            }
+        }
+        RevocationHashIndex index = builder.build();
+        assertEquals(256 * 8, index.size());
+
+        List<byte[]> bucket = index.getBucket(new byte[] {(byte) 0x80});
+        assertEquals(8, bucket.size());
+        for (int j = 0; j < 8; j++) {
+            assertArrayEquals(hash(0x80, j), bucket.get(j));
+        }
+        bucket = index.getBucket(new byte[] {(byte) 0xff, 3});
+        assertEquals(1, bucket.size());
+        assertArrayEquals(hash(0xff, 3), bucket.get(0));
+        assertTrue(index.getBucket(new byte[] {0, 8}).isEmpty());
+        assertEquals(256 * 8, index.getBucket(new byte[0]).size());
+    }
+
+    @Test
+    public void testEmpty() {
+        RevocationHashIndex index = RevocationHashIndex.builder(4).build();
+        assertTrue(index.getBucket(new byte[] {1}).isEmpty());
+    }
+
+    @Test
+    public void testUnordered() {
+        RevocationHashIndex.Builder builder = RevocationHashIndex.builder(4).add(hash(0x80));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(hash(0x7f)));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(new byte[3]));
+    }
+}
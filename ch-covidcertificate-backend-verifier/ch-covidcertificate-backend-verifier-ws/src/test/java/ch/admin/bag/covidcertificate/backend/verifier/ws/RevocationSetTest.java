@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSet;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSnapshot;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+public class RevocationSetTest {
+
+    @Test
+    public void testContains() {
+        int count = 5000;
+        RevocationSnapshot.Builder builder = RevocationSnapshot.builder(Instant.EPOCH);
+        for (int i = 1; i <= count; i++) {
+            builder.add(i, "URN:UVCI:01:CH:" + i);
+        }
+        RevocationSet set = RevocationSet.of(builder.build());
+
+        for (int i = 1; i <= count; i++) {
+            assertTrue(set.contains("URN:UVCI:01:CH:" + i));
+        }
+        assertFalse(set.contains("URN:UVCI:01:CH:0"));
+        assertFalse(set.contains("URN:UVCI:01:CH:" + (count + 1)));
+        // prefixes and case variants are different uvcis
+        assertFalse(set.contains("URN:UVCI:01:CH:1" + count));
+        assertFalse(set.contains("urn:uvci:01:ch:1"));
+        assertFalse(set.contains(""));
+    }
+
+    @Test
+    public void testEmpty() {
+        RevocationSet set = RevocationSet.of(RevocationSnapshot.builder(Instant.EPOCH).build());
+        assertFalse(set.contains("URN:UVCI:01:CH:1"));
+    }
+}
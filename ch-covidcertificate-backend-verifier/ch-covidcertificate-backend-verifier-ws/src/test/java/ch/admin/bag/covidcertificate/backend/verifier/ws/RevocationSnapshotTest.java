@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSnapshot;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class RevocationSnapshotTest {
+
+    private static final Instant RELEASED_UP_TO = Instant.ofEpochSecond(0);
+
+    @Test
+    public void testPaging() {
+        // pk ids with gaps and more entries than the initial buffer capacity
+        int count = 5000;
+        RevocationSnapshot.Builder builder = RevocationSnapshot.builder(RELEASED_UP_TO);
+        for (int i = 1; i <= count; i++) {
+            builder.add(2L * i, "URN:UVCI:01:CH:" + i);
+        }
+        RevocationSnapshot snapshot = builder.build();
+        assertEquals(count, snapshot.size());
+        assertEquals(2L * count, snapshot.getMaxPkId());
+
+        RevocationSnapshot.Page page = snapshot.getPage(0, 3);
+        assertEquals(
+                List.of("URN:UVCI:01:CH:1", "URN:UVCI:01:CH:2", "URN:UVCI:01:CH:3"),
+                page.getUvcis());
+        assertEquals(6L, page.getNextSince());
+        assertFalse(page.isUpToDate());
+
+        // since in a gap
+        page = snapshot.getPage(7, 2);
+        assertEquals(List.of("URN:UVCI:01:CH:4", "URN:UVCI:01:CH:5"), page.getUvcis());
+        assertEquals(10L, page.getNextSince());
+
+        // last page
+        page = snapshot.getPage(2L * (count - 2), 10);
+        assertEquals(List.of("URN:UVCI:01:CH:4999", "URN:UVCI:01:CH:5000"), page.getUvcis());
+        assertEquals(2L * count, page.getNextSince());
+        assertTrue(page.isUpToDate());
+
+        // up to date
+        page = snapshot.getPage(2L * count, 10);
+        assertTrue(page.getUvcis().isEmpty());
+        assertEquals(2L * count, page.getNextSince());
+        assertTrue(page.isUpToDate());
+    }
+
+    @Test
+    public void testEmpty() {
+        RevocationSnapshot snapshot = RevocationSnapshot.builder(RELEASED_UP_TO).build();
+        RevocationSnapshot.Page page = snapshot.getPage(0, 10);
+        assertTrue(page.getUvcis().isEmpty());
+        assertEquals(0L, page.getNextSince());
+        assertTrue(page.isUpToDate());
+    }
+
+    @Test
+    public void testDelta() {
+        Instant bucket1 = RELEASED_UP_TO.minusSeconds(7200);
+        Instant bucket2 = RELEASED_UP_TO.minusSeconds(3600);
+        RevocationSnapshot snapshot =
+                RevocationSnapshot.builder(RELEASED_UP_TO)
+                        .add(1, "uvci_1", bucket1)
+                        .add(2, "uvci_2", bucket1)
+                        .add(4, "uvci_4", bucket2)
+                        .add(5, "uvci_5", RELEASED_UP_TO)
+                        .add(7, "uvci_7", RELEASED_UP_TO)
+                        .build();
+
+        // clients are moved back to the last bucket boundary they passed
+        assertEquals(0L, snapshot.getDeltaBase(0));
+        assertEquals(0L, snapshot.getDeltaBase(1));
+        assertEquals(2L, snapshot.getDeltaBase(2));
+        assertEquals(2L, snapshot.getDeltaBase(3));
+        assertEquals(4L, snapshot.getDeltaBase(6));
+        assertEquals(7L, snapshot.getDeltaBase(7));
+        assertEquals(7L, snapshot.getDeltaBase(100));
+
+        assertEquals(List.of("uvci_4", "uvci_5", "uvci_7"), snapshot.getDelta(2, 7));
+        assertEquals(List.of("uvci_4"), snapshot.getDelta(2, 4));
+        assertEquals(List.of("uvci_1", "uvci_2"), snapshot.getDelta(0, 3));
+        assertTrue(snapshot.getDelta(7, 7).isEmpty());
+        assertTrue(snapshot.getDelta(7, 2).isEmpty());
+
+        assertTrue(snapshot.isBucketBoundary(2));
+        assertTrue(snapshot.isBucketBoundary(4));
+        assertTrue(snapshot.isBucketBoundary(7));
+        assertFalse(snapshot.isBucketBoundary(0));
+        assertFalse(snapshot.isBucketBoundary(5));
+    }
+
+    @Test
+    public void testUnordered() {
+        RevocationSnapshot.Builder builder =
+                RevocationSnapshot.builder(RELEASED_UP_TO).add(2, "uvci_2");
+        assertThrows(IllegalArgumentException.class, () -> builder.add(1, "uvci_1"));
+    }
+}
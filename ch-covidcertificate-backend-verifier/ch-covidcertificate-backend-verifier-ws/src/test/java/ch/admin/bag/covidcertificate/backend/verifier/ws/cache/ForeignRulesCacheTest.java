@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.ForeignRule;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+public class ForeignRulesCacheTest {
+
+    private static final Instant NOW = Instant.parse("2021-11-01T12:00:00Z");
+
+    @Test
+    public void testExpiredVersionIsDropped() {
+        ForeignRule expired = rule("GR-AT-0001", "1.0.0", days(-10), days(-1));
+        ForeignRule current = rule("GR-AT-0002", "1.0.0", days(-10), days(10));
+        assertEquals(
+                List.of("GR-AT-0002:1.0.0"),
+                versions(ForeignRulesCache.selectRulesInForce(List.of(expired, current), NOW)));
+    }
+
+    @Test
+    public void testSupersededVersionIsDropped() {
+        ForeignRule old = rule("GR-AT-0001", "1.0.0", days(-10), days(10));
+        ForeignRule latest = rule("GR-AT-0001", "1.0.1", days(-1), days(10));
+        assertEquals(
+                List.of("GR-AT-0001:1.0.1"),
+                versions(ForeignRulesCache.selectRulesInForce(List.of(latest, old), NOW)));
+    }
+
+    @Test
+    public void testFutureVersionIsKept() {
+        ForeignRule current = rule("GR-AT-0001", "1.0.0", days(-10), days(10));
+        ForeignRule future = rule("GR-AT-0001", "1.0.1", days(1), days(10));
+        assertEquals(
+                List.of("GR-AT-0001:1.0.0", "GR-AT-0001:1.0.1"),
+                versions(ForeignRulesCache.selectRulesInForce(List.of(future, current), NOW)));
+    }
+
+    @Test
+    public void testOffsetIsRespected() {
+        // 13:30+02:00 is 11:30Z, i.e. before NOW, so the version is in force and supersedes
+        ForeignRule old = rule("GR-AT-0001", "1.0.0", days(-10), days(10));
+        ForeignRule latest =
+                rule(
+                        "GR-AT-0001",
+                        "1.0.1",
+                        OffsetDateTime.parse("2021-11-01T13:30:00+02:00").toInstant(),
+                        days(10));
+        assertEquals(
+                List.of("GR-AT-0001:1.0.1"),
+                versions(ForeignRulesCache.selectRulesInForce(List.of(old, latest), NOW)));
+    }
+
+    private static Instant days(int days) {
+        return NOW.plus(Duration.ofDays(days));
+    }
+
+    private static ForeignRule rule(
+            String id, String version, Instant validFrom, Instant validUntil) {
+        ForeignRule rule = new ForeignRule();
+        rule.setCountry("AT");
+        rule.setId(id);
+        rule.setVersion(version);
+        rule.setContent("{}");
+        rule.setValidFrom(validFrom);
+        rule.setValidUntil(validUntil);
+        return rule;
+    }
+
+    private static List<String> versions(List<ForeignRule> rules) {
+        return rules.stream()
+                .map(rule -> rule.getId() + ":" + rule.getVersion())
+                .collect(Collectors.toList());
+    }
+}
@@ -19,7 +19,9 @@ import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcForeignRules
 import ch.admin.bag.covidcertificate.backend.verifier.data.impl.JdbcRevokedCertDataServiceImpl;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
 import ch.admin.bag.covidcertificate.backend.verifier.model.ForeignRule;
-import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.RevocationListController;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationDbGenerator;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationPageCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSnapshotCache;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.controller.RevocationListControllerV2;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.util.MockForeignRuleDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.RestTemplateHelper;
@@ -58,14 +60,9 @@ public class TestConfig extends WsBaseConfig {
         return flyway;
     }
 
-    @Bean
-    public RevocationListController revocationListController() {
-        return new RevocationListController(baseurl);
-    }
-
     @Bean
     public RestTemplate restTemplate() {
-        logger.info("Instantiated RevocationListController with baseurl: {}", baseurl);
+        logger.info("Instantiated RestTemplate for revocation list baseurl: {}", baseurl);
         return RestTemplateHelper.getRestTemplate();
     }
 
@@ -89,7 +86,10 @@ public class TestConfig extends WsBaseConfig {
 
     @Bean
     public RevocationListControllerV2 revocationListControllerV2(
-            RevokedCertDataService revokedCertDataService) {
-        return new RevocationListControllerV2(revokedCertDataService);
+            RevocationSnapshotCache revocationSnapshotCache,
+            RevocationPageCache revocationPageCache,
+            RevocationDbGenerator revocationDbGenerator) {
+        return new RevocationListControllerV2(
+                revocationSnapshotCache, revocationPageCache, revocationDbGenerator);
     }
 }
@@ -11,13 +11,17 @@
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
 import static ch.admin.bag.covidcertificate.backend.verifier.ws.util.TestHelper.SECURITY_HEADERS;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import ch.admin.bag.covidcertificate.backend.verifier.ws.util.TestHelper;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
 import javax.validation.constraints.NotNull;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -26,6 +30,7 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.context.ApplicationContextInitializer;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.ActiveProfiles;
@@ -89,6 +94,31 @@ public abstract class BaseControllerTest {
         }
     }
 
+    /**
+     * requests the gzip variant of `url` and asserts it has the same content as the uncompressed
+     * `response` but its own etag
+     */
+    protected void assertGzipVariant(
+            String url, MediaType mediaType, MockHttpServletResponse response) throws Exception {
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        MockHttpServletResponse gzipResponse =
+                mockMvc.perform(
+                                get(url)
+                                        .accept(mediaType)
+                                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                        .andExpect(status().is2xxSuccessful())
+                        .andReturn()
+                        .getResponse();
+        assertEquals("gzip", gzipResponse.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertNotEquals(etag, gzipResponse.getHeader(HttpHeaders.ETAG));
+        try (GZIPInputStream in =
+                new GZIPInputStream(
+                        new ByteArrayInputStream(gzipResponse.getContentAsByteArray()))) {
+            assertArrayEquals(response.getContentAsByteArray(), in.readAllBytes());
+        }
+    }
+
     protected abstract String getUrlForSecurityHeadersTest();
 
     protected MediaType getSecurityHeadersRequestMediaType() {
@@ -10,16 +10,19 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import ch.admin.bag.covidcertificate.backend.verifier.ws.util.TestHelper;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.util.Map;
-import org.junit.jupiter.api.Disabled;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockHttpServletResponse;
 
@@ -63,18 +66,16 @@ public class ForeignRulesControllerV2Test extends BaseControllerTest {
         assertNotNull(response);
         ObjectNode rules = objectMapper.valueToTree(testHelper.verifyAndReadValue(
                 response, acceptMediaType, TestHelper.PATH_TO_CA_PEM, Map.class));
-        assertNotNull(rules.get("rules").get(0));
+        // the version in force and the one coming into force tomorrow
+        assertEquals(2, rules.get("rules").size());
     }
 
     @Test
-    @Disabled
     public void notModifiedTest() throws Exception {
-        /*String expectedEtag = EtagUtil.getSha1HashForStrings()
-
         // get current etag
         MockHttpServletResponse response =
                 mockMvc.perform(
-                                get(verificationRulesUrl)
+                                get(atRulesUrl)
                                         .accept(acceptMediaType)
                                         .header(HttpHeaders.IF_NONE_MATCH, "random"))
                         .andExpect(status().is2xxSuccessful())
@@ -83,16 +84,26 @@ public class ForeignRulesControllerV2Test extends BaseControllerTest {
 
         // verify etag
         String etag = response.getHeader(HttpHeaders.ETAG);
-        assertEquals(expectedEtag, etag);
+        assertEquals(
+                EtagUtil.toStrongEtag(DigestUtils.sha256Hex(response.getContentAsByteArray())),
+                etag);
 
         // test not modified
         mockMvc.perform(
-                        get(verificationRulesUrl)
+                        get(atRulesUrl)
                                 .accept(acceptMediaType)
                                 .header(HttpHeaders.IF_NONE_MATCH, etag))
                 .andExpect(status().isNotModified())
                 .andReturn()
-                .getResponse();*/
+                .getResponse();
+    }
+
+    @Test
+    public void noRulesTest() throws Exception {
+        mockMvc.perform(get("/trust/v2/foreignRules/DE").accept(acceptMediaType))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/trust/v2/foreignRules/XX").accept(acceptMediaType))
+                .andExpect(status().isNotFound());
     }
 
     @Override
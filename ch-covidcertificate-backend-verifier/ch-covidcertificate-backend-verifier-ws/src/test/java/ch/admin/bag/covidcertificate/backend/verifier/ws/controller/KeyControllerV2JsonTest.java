@@ -10,12 +10,28 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertsResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.DscSnapshot;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.DscSnapshotCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.KeyPageCache;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
 
 @ActiveProfiles({"actuator-security"})
 @SpringBootTest(
@@ -28,9 +44,99 @@ import org.springframework.test.context.ActiveProfiles;
 @TestInstance(Lifecycle.PER_CLASS)
 public class KeyControllerV2JsonTest extends KeyControllerV2Test {
 
+    private static final Logger logger = LoggerFactory.getLogger(KeyControllerV2JsonTest.class);
+
+    @Autowired private DscSnapshotCache dscSnapshotCache;
+    @Autowired private KeyPageCache keyPageCache;
+
     @BeforeAll
     public void setup() {
         super.setup();
         this.acceptMediaType = MediaType.APPLICATION_JSON;
     }
+
+    /**
+     * times paging through keys/updates with a db query and serialization per page, as the
+     * endpoint used to, against cutting the pages from the {@link DscSnapshot} and serving them
+     * from the {@link KeyPageCache}. Excluded from the default test run, run it with {@code
+     * -Dsurefire.excludedGroups=none -Dgroups=benchmark}
+     */
+    @Test
+    @Tag("benchmark")
+    @Transactional
+    public void keysUpdatesBenchmark() throws Exception {
+        int batchSize = verifierDataService.getDscBatchSize();
+        insertNDscs(insertCsca(), 4 * batchSize);
+        long upTo = verifierDataService.findMaxDscPkId();
+
+        int iterations = 20;
+        List<byte[]> dbPages = null;
+        List<byte[]> snapshotPages = null;
+        long dbNanos = 0;
+        long snapshotNanos = 0;
+        // the first round only warms up the connection pool, the jit and the page cache
+        for (int round = 0; round <= iterations; round++) {
+            long start = System.nanoTime();
+            dbPages = getPagesFromDb(upTo);
+            long dbEnd = System.nanoTime();
+            snapshotPages = getPagesFromSnapshot(upTo, batchSize);
+            long snapshotEnd = System.nanoTime();
+            if (round > 0) {
+                dbNanos += dbEnd - start;
+                snapshotNanos += snapshotEnd - dbEnd;
+            }
+        }
+        logger.info(
+                "keys/updates in {} pages: db query per page {} us, dsc snapshot {} us",
+                dbPages.size(),
+                dbNanos / iterations / 1000,
+                snapshotNanos / iterations / 1000);
+        assertEquals(getKeyIds(dbPages), getKeyIds(snapshotPages));
+    }
+
+    private List<byte[]> getPagesFromDb(long upTo) throws Exception {
+        List<byte[]> pages = new ArrayList<>();
+        long since = 0;
+        while (since < upTo) {
+            List<ClientCert> dscs = verifierDataService.findDscs(since, CertFormat.ANDROID, upTo);
+            if (dscs.isEmpty()) {
+                break;
+            }
+            pages.add(objectMapper.writeValueAsBytes(new CertsResponse(dscs)));
+            since = dscs.get(dscs.size() - 1).getPkId();
+        }
+        return pages;
+    }
+
+    private List<byte[]> getPagesFromSnapshot(long upTo, int batchSize) {
+        List<byte[]> pages = new ArrayList<>();
+        DscSnapshot snapshot = dscSnapshotCache.get();
+        DscSnapshot.Partition partition = snapshot.get(CertFormat.ANDROID, null);
+        long since = 0;
+        while (since < upTo) {
+            List<ClientCert> dscs = partition.page(since, upTo, batchSize);
+            if (dscs.isEmpty()) {
+                break;
+            }
+            // same page id as the controller
+            pages.add(
+                    keyPageCache.get(
+                            snapshot.getFingerprintGeneration(),
+                            since + ":" + upTo + ":" + CertFormat.ANDROID + ":null",
+                            false,
+                            () -> new CertsResponse(dscs)));
+            since = dscs.get(dscs.size() - 1).getPkId();
+        }
+        return pages;
+    }
+
+    private List<String> getKeyIds(List<byte[]> pages) throws Exception {
+        List<String> keyIds = new ArrayList<>();
+        for (byte[] page : pages) {
+            for (ClientCert dsc : objectMapper.readValue(page, CertsResponse.class).getCerts()) {
+                keyIds.add(dsc.getKeyId());
+            }
+        }
+        return keyIds;
+    }
 }
@@ -13,30 +13,42 @@ package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 import static ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil.getDefaultCsca;
 import static ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil.getEcDsc;
 import static ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil.getRsaDsc;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import ch.admin.bag.covidcertificate.backend.verifier.data.VerifierDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ActiveCertsDeltaResponse;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ActiveCertsResponse;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertsResponse;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.ClientCert;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.KeyLookupRequest;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.KeysBundleResponse;
 import ch.admin.bag.covidcertificate.backend.verifier.model.cert.db.DbDsc;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.util.TestHelper;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 import org.apache.http.HttpHeaders;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -55,6 +67,9 @@ public abstract class KeyControllerV2Test extends BaseControllerTest {
     private static final String BASE_URL = "/trust/v2/keys/";
     private static final String UPDATES_ENDPOINT = "updates";
     private static final String LIST_ENDPOINT = "list";
+    private static final String LIST_DELTA_ENDPOINT = "list/delta";
+    private static final String BUNDLE_ENDPOINT = "bundle";
+    private static final String LOOKUP_ENDPOINT = "lookup";
 
     private static final String NEXT_SINCE_HEADER = "X-Next-Since";
     private static final String UP_TO_DATE_HEADER = "up-to-date";
@@ -63,6 +78,7 @@ public abstract class KeyControllerV2Test extends BaseControllerTest {
     private static final String UP_TO_QUERY_PARAM = "upTo";
     private static final String CERT_FORMAT_QUERY_PARAM = "certFormat";
     private static final String SINCE_QUERY_PARAM = "since";
+    private static final String SINCE_GENERATION_QUERY_PARAM = "sinceGeneration";
 
     private static final String ORIGIN_CH = "CH";
     private static final String ORIGIN_DE = "DE";
@@ -380,6 +396,67 @@ public abstract class KeyControllerV2Test extends BaseControllerTest {
         assertEquals(String.valueOf((int) verifierDataService.findMaxDscPkId()), upTo);
     }
 
+    @Test
+    @Transactional
+    public void keysListDeltaTest() throws Exception {
+        // fill db
+        final Long cscaId = insertCsca();
+        List<DbDsc> dscs = insertSomeDscs(cscaId);
+
+        // generation too old, full list expected
+        ActiveCertsDeltaResponse delta = getKeysListDelta(0L);
+        assertTrue(delta.isFullList());
+        assertTrue(delta.getRemovedKeyIds().isEmpty());
+        List<String> expectedActiveKeyIds =
+                dscs.stream().map(DbDsc::getKeyId).collect(Collectors.toList());
+        assertEquals(expectedActiveKeyIds.size(), delta.getAddedKeyIds().size());
+        assertTrue(expectedActiveKeyIds.containsAll(delta.getAddedKeyIds()));
+        assertEquals(verifierDataService.findMaxDscPkId(), delta.getUpTo());
+        long generation = delta.getGeneration();
+
+        // add new dscs and remove one of the old ones
+        List<DbDsc> newDscs = insertSomeDscs(cscaId);
+        String removedKeyId = dscs.get(0).getKeyId();
+        List<String> keyIdsToKeep =
+                Stream.concat(dscs.stream(), newDscs.stream())
+                        .map(DbDsc::getKeyId)
+                        .filter(kid -> !kid.equals(removedKeyId))
+                        .collect(Collectors.toList());
+        verifierDataService.removeDscsNotIn(keyIdsToKeep);
+
+        delta = getKeysListDelta(generation);
+        assertFalse(delta.isFullList());
+        assertTrue(
+                delta.getAddedKeyIds()
+                        .containsAll(
+                                newDscs.stream()
+                                        .map(DbDsc::getKeyId)
+                                        .collect(Collectors.toList())));
+        assertFalse(delta.getAddedKeyIds().contains(removedKeyId));
+        assertTrue(delta.getRemovedKeyIds().contains(removedKeyId));
+        assertTrue(delta.getGeneration() > generation);
+    }
+
+    private ActiveCertsDeltaResponse getKeysListDelta(long sinceGeneration) throws Exception {
+        MockHttpServletResponse response =
+                mockMvc.perform(
+                                get(BASE_URL + LIST_DELTA_ENDPOINT)
+                                        .queryParam(
+                                                SINCE_GENERATION_QUERY_PARAM,
+                                                String.valueOf(sinceGeneration))
+                                        .accept(acceptMediaType))
+                        .andExpect(status().is2xxSuccessful())
+                        .andReturn()
+                        .getResponse();
+        assertNotNull(response);
+        assertExpiry(response, CacheUtil.KEYS_BUCKET_DURATION);
+        return testHelper.verifyAndReadValue(
+                response,
+                acceptMediaType,
+                TestHelper.PATH_TO_CA_PEM,
+                ActiveCertsDeltaResponse.class);
+    }
+
     @Test
     @Transactional
     public void keysListByCountryTest() throws Exception {
@@ -429,6 +506,219 @@ public abstract class KeyControllerV2Test extends BaseControllerTest {
         assertExpiry(response, CacheUtil.KEYS_BUCKET_DURATION);
     }
 
+    @Test
+    @Transactional
+    public void keysUpdatesByCountryTest() throws Exception {
+        // fill db with certs from CH and DE
+        final Long cscaId = insertCsca();
+        List<DbDsc> dscs = insertMultiCountryDscs(cscaId);
+
+        for (String country : List.of(ORIGIN_CH, ORIGIN_DE)) {
+            long upTo = verifierDataService.findMaxDscPkIdForCountry(country);
+            MockHttpServletResponse response =
+                    mockMvc.perform(
+                                    get(BASE_URL + UPDATES_ENDPOINT)
+                                            .queryParam(UP_TO_QUERY_PARAM, String.valueOf(upTo))
+                                            .queryParam(
+                                                    CERT_FORMAT_QUERY_PARAM,
+                                                    CertFormat.ANDROID.name())
+                                            .queryParam("country", country)
+                                            .accept(acceptMediaType))
+                            .andExpect(status().is2xxSuccessful())
+                            .andReturn()
+                            .getResponse();
+            List<ClientCert> certs =
+                    testHelper
+                            .verifyAndReadValue(
+                                    response,
+                                    acceptMediaType,
+                                    TestHelper.PATH_TO_CA_PEM,
+                                    CertsResponse.class)
+                            .getCerts();
+
+            // only the certs of the requested country are returned
+            List<String> expectedKeyIds =
+                    dscs.stream()
+                            .filter(dsc -> dsc.getOrigin().equals(country))
+                            .map(DbDsc::getKeyId)
+                            .collect(Collectors.toList());
+            assertEquals(
+                    expectedKeyIds,
+                    certs.stream().map(ClientCert::getKeyId).collect(Collectors.toList()));
+            assertEquals("true", response.getHeader(UP_TO_DATE_HEADER));
+            assertEquals(String.valueOf(upTo), response.getHeader(NEXT_SINCE_HEADER));
+        }
+    }
+
+    @Test
+    @Transactional
+    public void keysBundleTest() throws Exception {
+        final Long cscaId = insertCsca();
+        List<DbDsc> dscs = insertMultiCountryDscs(cscaId);
+
+        MockHttpServletResponse response =
+                mockMvc.perform(
+                                get(BASE_URL + BUNDLE_ENDPOINT)
+                                        .queryParam(
+                                                CERT_FORMAT_QUERY_PARAM, CertFormat.ANDROID.name())
+                                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                                        .accept(acceptMediaType))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        assertEquals("gzip", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertExpiry(response, CacheUtil.KEYS_BUCKET_DURATION);
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        assertFalse(etag.startsWith("W/"));
+
+        byte[] gzipped = response.getContentAsByteArray();
+        String content;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            content = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        KeysBundleResponse bundle =
+                testHelper.verifyAndReadValue(
+                        content,
+                        acceptMediaType,
+                        TestHelper.PATH_TO_CA_PEM,
+                        KeysBundleResponse.class);
+        assertEquals(
+                dscs.stream().map(DbDsc::getKeyId).collect(Collectors.toList()),
+                bundle.getCerts().stream().map(ClientCert::getKeyId).collect(Collectors.toList()));
+        assertEquals(verifierDataService.findMaxDscPkId(), bundle.getNextSince());
+
+        // unchanged bundle
+        mockMvc.perform(
+                        get(BASE_URL + BUNDLE_ENDPOINT)
+                                .queryParam(CERT_FORMAT_QUERY_PARAM, CertFormat.ANDROID.name())
+                                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                                .accept(acceptMediaType))
+                .andExpect(status().isNotModified());
+
+        // resume an interrupted download
+        response =
+                mockMvc.perform(
+                                get(BASE_URL + BUNDLE_ENDPOINT)
+                                        .queryParam(
+                                                CERT_FORMAT_QUERY_PARAM, CertFormat.ANDROID.name())
+                                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                                        .header(HttpHeaders.RANGE, "bytes=10-")
+                                        .header(HttpHeaders.IF_RANGE, etag)
+                                        .accept(acceptMediaType))
+                        .andExpect(status().isPartialContent())
+                        .andReturn()
+                        .getResponse();
+        assertArrayEquals(
+                Arrays.copyOfRange(gzipped, 10, gzipped.length), response.getContentAsByteArray());
+
+        // the bundle changed since the interrupted download started, so it is sent whole
+        response =
+                mockMvc.perform(
+                                get(BASE_URL + BUNDLE_ENDPOINT)
+                                        .queryParam(
+                                                CERT_FORMAT_QUERY_PARAM, CertFormat.ANDROID.name())
+                                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                                        .header(HttpHeaders.RANGE, "bytes=10-")
+                                        .header(HttpHeaders.IF_RANGE, "\"outdated\"")
+                                        .accept(acceptMediaType))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        assertArrayEquals(gzipped, response.getContentAsByteArray());
+
+        // country scoped bundle, uncompressed
+        response =
+                mockMvc.perform(
+                                get(BASE_URL + BUNDLE_ENDPOINT)
+                                        .queryParam(
+                                                CERT_FORMAT_QUERY_PARAM, CertFormat.ANDROID.name())
+                                        .queryParam("country", ORIGIN_DE)
+                                        .accept(acceptMediaType))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertNotEquals(etag, response.getHeader(HttpHeaders.ETAG));
+        bundle =
+                testHelper.verifyAndReadValue(
+                        response,
+                        acceptMediaType,
+                        TestHelper.PATH_TO_CA_PEM,
+                        KeysBundleResponse.class);
+        assertEquals(1, bundle.getCerts().size());
+        assertEquals(
+                verifierDataService.findMaxDscPkIdForCountry(ORIGIN_DE),
+                (long) bundle.getNextSince());
+    }
+
+    @Test
+    @Transactional
+    public void keysLookupTest() throws Exception {
+        final Long cscaId = insertCsca();
+        List<DbDsc> dscs = insertMultiCountryDscs(cscaId);
+        DbDsc dsc = dscs.get(dscs.size() - 1);
+
+        // single key
+        MockHttpServletResponse response =
+                mockMvc.perform(
+                                get(BASE_URL + dsc.getKeyId())
+                                        .queryParam(
+                                                CERT_FORMAT_QUERY_PARAM, CertFormat.ANDROID.name())
+                                        .accept(acceptMediaType))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        List<ClientCert> certs =
+                testHelper
+                        .verifyAndReadValue(
+                                response,
+                                acceptMediaType,
+                                TestHelper.PATH_TO_CA_PEM,
+                                CertsResponse.class)
+                        .getCerts();
+        assertEquals(1, certs.size());
+        assertEquals(dsc.getKeyId(), certs.get(0).getKeyId());
+        assertNotNull(certs.get(0).getN());
+
+        mockMvc.perform(
+                        get(BASE_URL + "unknown")
+                                .queryParam(CERT_FORMAT_QUERY_PARAM, CertFormat.ANDROID.name())
+                                .accept(acceptMediaType))
+                .andExpect(status().isNotFound());
+
+        // batch of keys, unknown ones are skipped
+        List<String> keyIds =
+                List.of(dscs.get(0).getKeyId(), "unknown", dsc.getKeyId(), dsc.getKeyId());
+        response =
+                mockMvc.perform(
+                                post(BASE_URL + LOOKUP_ENDPOINT)
+                                        .queryParam(
+                                                CERT_FORMAT_QUERY_PARAM, CertFormat.IOS.name())
+                                        .contentType(MediaType.APPLICATION_JSON)
+                                        .content(
+                                                testHelper
+                                                        .getObjectMapper()
+                                                        .writeValueAsString(
+                                                                new KeyLookupRequest(keyIds)))
+                                        .accept(acceptMediaType))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        certs =
+                testHelper
+                        .verifyAndReadValue(
+                                response,
+                                acceptMediaType,
+                                TestHelper.PATH_TO_CA_PEM,
+                                CertsResponse.class)
+                        .getCerts();
+        assertEquals(
+                List.of(dscs.get(0).getKeyId(), dsc.getKeyId()),
+                certs.stream().map(ClientCert::getKeyId).collect(Collectors.toList()));
+    }
+
     @Test
     @Transactional
     public void notModifiedTest() throws Exception {
@@ -477,12 +767,12 @@ public abstract class KeyControllerV2Test extends BaseControllerTest {
                 .getResponse();
     }
 
-    private Long insertCsca() {
+    protected Long insertCsca() {
         verifierDataService.insertCscas(Collections.singletonList(getDefaultCsca(0, ORIGIN_CH)));
         return verifierDataService.findCscas(ORIGIN_CH).get(0).getId();
     }
 
-    private List<DbDsc> insertNDscs(Long cscaId, Integer numToInsert) {
+    protected List<DbDsc> insertNDscs(Long cscaId, Integer numToInsert) {
         List<DbDsc> dscs = new ArrayList<>();
         dscs.addAll(
                 getRandomSuffixes().stream()
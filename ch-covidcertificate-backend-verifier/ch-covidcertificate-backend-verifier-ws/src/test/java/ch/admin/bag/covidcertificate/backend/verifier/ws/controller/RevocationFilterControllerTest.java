@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationFilter;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles({"actuator-security"})
+@SpringBootTest(
+        properties = {
+            "ws.monitor.prometheus.user=prometheus",
+            "ws.monitor.prometheus.password=prometheus",
+            "management.endpoints.enabled-by-default=true",
+            "management.endpoints.web.exposure.include=*"
+        })
+@TestInstance(Lifecycle.PER_CLASS)
+public class RevocationFilterControllerTest extends BaseControllerTest {
+    @Autowired protected RevokedCertDataService revokedCertDataService;
+    @Autowired protected DataSource dataSource;
+
+    private static final String NEXT_SINCE_HEADER = "X-Next-Since";
+    private static final String FILTER_VERSION_HEADER = "X-Filter-Version";
+    private static final String FILTER_ENTRIES_HEADER = "X-Filter-Entries";
+    private static final String FILTER_FALSE_POSITIVE_RATE_HEADER = "X-Filter-False-Positive-Rate";
+
+    private String revocationFilterUrl = "/trust/v2/revocationFilter";
+    private NamedParameterJdbcTemplate jt;
+
+    @BeforeAll
+    public void setup() {
+        this.jt = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @Test
+    public void getRevocationFilterTest() throws Exception {
+        TestUtil.clearRevokedCerts(jt);
+        int releasedRevokedCertCount = 10;
+        revokedCertDataService.replaceRevokedCerts(
+                TestUtil.getRevokedCertUvcis(releasedRevokedCertCount));
+        TestUtil.releaseRevokedCerts(jt, Instant.now());
+        long maxPkId = revokedCertDataService.findMaxReleasedRevokedCertPkId(Instant.now());
+
+        MockHttpServletResponse response =
+                mockMvc.perform(get(revocationFilterUrl))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM_VALUE, response.getContentType());
+        assertEquals(String.valueOf(maxPkId), response.getHeader(NEXT_SINCE_HEADER));
+        assertEquals(
+                String.valueOf(RevocationFilter.VERSION),
+                response.getHeader(FILTER_VERSION_HEADER));
+        assertEquals(
+                String.valueOf(releasedRevokedCertCount),
+                response.getHeader(FILTER_ENTRIES_HEADER));
+        assertNotNull(response.getHeader(FILTER_FALSE_POSITIVE_RATE_HEADER));
+        assertEquals(
+                CacheUtil.formatHeaderDate(
+                        CacheUtil.roundToNextRevocationRetentionBucketStart(Instant.now())),
+                response.getHeader(HttpHeaders.EXPIRES));
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+        assertFalse(etag.startsWith("W/"));
+
+        // version, number of hash functions, number of blocks and entries precede the blocks
+        ByteBuffer filter = ByteBuffer.wrap(response.getContentAsByteArray());
+        assertEquals(RevocationFilter.VERSION, filter.getInt());
+        int numHashFunctions = filter.getInt();
+        int numBlocks = filter.getInt();
+        assertEquals(releasedRevokedCertCount, filter.getInt());
+        assertNotEquals(0, numHashFunctions);
+        assertEquals(numBlocks * 8 * Long.BYTES, filter.remaining());
+
+        // unchanged filter
+        mockMvc.perform(get(revocationFilterUrl).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        // changed filter
+        revokedCertDataService.replaceRevokedCerts(
+                TestUtil.getRevokedCertUvcis(releasedRevokedCertCount + 1));
+        TestUtil.releaseRevokedCerts(jt, Instant.now());
+        response =
+                mockMvc.perform(get(revocationFilterUrl).header(HttpHeaders.IF_NONE_MATCH, etag))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        assertNotEquals(etag, response.getHeader(HttpHeaders.ETAG));
+        assertEquals(
+                String.valueOf(releasedRevokedCertCount + 1),
+                response.getHeader(FILTER_ENTRIES_HEADER));
+    }
+
+    @Test
+    public void getRevocationFilterRangeTest() throws Exception {
+        TestUtil.clearRevokedCerts(jt);
+        revokedCertDataService.replaceRevokedCerts(TestUtil.getRevokedCertUvcis(10));
+        TestUtil.releaseRevokedCerts(jt, Instant.now());
+
+        MockHttpServletResponse response =
+                mockMvc.perform(get(revocationFilterUrl))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        byte[] filter = response.getContentAsByteArray();
+
+        // resumed download of the same filter
+        response =
+                mockMvc.perform(
+                                get(revocationFilterUrl)
+                                        .header(HttpHeaders.RANGE, "bytes=16-")
+                                        .header(HttpHeaders.IF_RANGE, etag))
+                        .andExpect(status().isPartialContent())
+                        .andReturn()
+                        .getResponse();
+        assertArrayEquals(
+                Arrays.copyOfRange(filter, 16, filter.length), response.getContentAsByteArray());
+
+        // resumed download of an outdated filter gets the whole current filter
+        response =
+                mockMvc.perform(
+                                get(revocationFilterUrl)
+                                        .header(HttpHeaders.RANGE, "bytes=16-")
+                                        .header(HttpHeaders.IF_RANGE, "\"outdated\""))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        assertEquals(etag, response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(filter, response.getContentAsByteArray());
+    }
+
+    @Override
+    protected String getUrlForSecurityHeadersTest() {
+        return revocationFilterUrl;
+    }
+
+    @Override
+    protected MediaType getSecurityHeadersRequestMediaType() {
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationHashesResponse;
+import java.time.Instant;
+import java.util.Arrays;
+import javax.sql.DataSource;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.ActiveProfiles;
+
+@ActiveProfiles({"actuator-security"})
+@SpringBootTest(
+        properties = {
+            "ws.monitor.prometheus.user=prometheus",
+            "ws.monitor.prometheus.password=prometheus",
+            "management.endpoints.enabled-by-default=true",
+            "management.endpoints.web.exposure.include=*"
+        })
+@TestInstance(Lifecycle.PER_CLASS)
+public class RevocationHashControllerTest extends BaseControllerTest {
+    @Autowired protected RevokedCertDataService revokedCertDataService;
+    @Autowired protected DataSource dataSource;
+
+    private String revocationHashesUrl = "/trust/v2/revocationHashes/";
+    private NamedParameterJdbcTemplate jt;
+
+    @BeforeAll
+    public void setup() {
+        this.jt = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @Test
+    public void getRevocationHashesTest() throws Exception {
+        TestUtil.clearRevokedCerts(jt);
+        revokedCertDataService.replaceRevokedCerts(TestUtil.getRevokedCertUvcis(10));
+        TestUtil.releaseRevokedCerts(jt, Instant.now());
+        // not released yet
+        revokedCertDataService.replaceRevokedCerts(TestUtil.getRevokedCertUvcis(11));
+
+        String revokedHash = hash("revoked_cert_uvci_3");
+        String unreleasedHash = hash("revoked_cert_uvci_10");
+        for (String prefix :
+                new String[] {revokedHash.substring(0, 2), revokedHash.substring(0, 6)}) {
+            MockHttpServletResponse response =
+                    mockMvc.perform(
+                                    get(revocationHashesUrl + prefix)
+                                            .accept(MediaType.APPLICATION_JSON))
+                            .andExpect(status().isOk())
+                            .andReturn()
+                            .getResponse();
+            RevocationHashesResponse hashes =
+                    testHelper
+                            .getObjectMapper()
+                            .readValue(
+                                    response.getContentAsString(),
+                                    RevocationHashesResponse.class);
+            assertTrue(hashes.getHashes().contains(revokedHash));
+            assertFalse(hashes.getHashes().contains(unreleasedHash));
+            for (String hash : hashes.getHashes()) {
+                assertTrue(hash.startsWith(prefix));
+            }
+            assertEquals(
+                    CacheUtil.formatHeaderDate(
+                            CacheUtil.roundToNextRevocationRetentionBucketStart(Instant.now())),
+                    response.getHeader(HttpHeaders.EXPIRES));
+        }
+
+        // upper case hex is accepted as well
+        mockMvc.perform(
+                        get(revocationHashesUrl + revokedHash.substring(0, 4).toUpperCase())
+                                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void getRevocationHashesBadPrefixTest() throws Exception {
+        for (String prefix : new String[] {"a", "abc", "zz", "aabbccdd"}) {
+            mockMvc.perform(get(revocationHashesUrl + prefix).accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isBadRequest());
+        }
+    }
+
+    private static String hash(String uvci) {
+        byte[] hash =
+                Arrays.copyOf(DigestUtils.sha256(uvci), RevokedCertDataService.UVCI_HASH_LENGTH);
+        return Hex.encodeHexString(hash);
+    }
+
+    @Override
+    protected String getUrlForSecurityHeadersTest() {
+        return revocationHashesUrl + "00";
+    }
+
+    @Override
+    protected MediaType getSecurityHeadersRequestMediaType() {
+        return MediaType.APPLICATION_JSON;
+    }
+}
@@ -10,22 +10,44 @@
 
 package ch.admin.bag.covidcertificate.backend.verifier.ws.controller;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import ch.admin.bag.covidcertificate.backend.verifier.data.RevokedCertDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.CacheUtil;
 import ch.admin.bag.covidcertificate.backend.verifier.data.util.TestUtil;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationCheckRequest;
+import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationCheckResponse;
 import ch.admin.bag.covidcertificate.backend.verifier.model.RevocationResponse;
+import ch.admin.bag.covidcertificate.backend.verifier.model.cert.CertFormat;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationDbFile;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationDbGenerator;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationPageCache;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationPageCache.RenderedPage;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSnapshot;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.cache.RevocationSnapshotCache;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.util.TestHelper;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.sql.DataSource;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.mock.web.MockHttpServletResponse;
@@ -33,6 +55,9 @@ import org.springframework.mock.web.MockHttpServletResponse;
 public abstract class RevocationListControllerV2Test extends BaseControllerTest {
     @Autowired protected RevokedCertDataService revokedCertDataService;
     @Autowired protected DataSource dataSource;
+    @Autowired protected RevocationDbGenerator revocationDbGenerator;
+    @Autowired protected RevocationSnapshotCache revocationSnapshotCache;
+    @Autowired protected RevocationPageCache revocationPageCache;
 
     protected MediaType acceptMediaType;
 
@@ -41,8 +66,12 @@ public abstract class RevocationListControllerV2Test extends BaseControllerTest
     private static final String EXPIRES_HEADER = "Expires";
 
     private static final String SINCE_QUERY_PARAM = "since";
+    private static final String CERT_FORMAT_QUERY_PARAM = "certFormat";
 
     private String revocationListUrl = "/trust/v2/revocationList";
+    private String revocationDbUrl = "/trust/v2/revocationDb";
+    private String revocationListDeltaUrl = "/trust/v2/revocationList/delta";
+    private String revocationCheckUrl = "/trust/v2/revocationCheck";
     private NamedParameterJdbcTemplate jt;
 
     void setup() {
@@ -151,6 +180,262 @@ public abstract class RevocationListControllerV2Test extends BaseControllerTest
         }
     }
 
+    @Test
+    public void prerenderRevocationPagesTest() throws Exception {
+        TestUtil.clearRevokedCerts(jt);
+        int revokedCertCount = 20;
+        revokedCertDataService.replaceRevokedCerts(
+                TestUtil.getRevokedCertUvcis(revokedCertCount));
+        Instant bucketStart = CacheUtil.roundToNextRevocationRetentionBucketStart(Instant.now());
+
+        // nothing to do outside of the lead time
+        assertEquals(0, revocationPageCache.prerender(bucketStart.minus(Duration.ofHours(1))));
+
+        // the certs imported now are released at the next bucket start
+        Instant beforeBucketStart = bucketStart.minusSeconds(1);
+        assertTrue(revocationPageCache.prerender(beforeBucketStart) > 0);
+        assertEquals(0, revocationPageCache.prerender(beforeBucketStart));
+
+        // the prepared snapshot and its pages are swapped in at the bucket start
+        RevocationSnapshot prepared = revocationSnapshotCache.prepare(bucketStart);
+        RevocationSnapshot snapshot = revocationSnapshotCache.get(bucketStart);
+        assertSame(prepared, snapshot);
+        assertEquals(revokedCertCount, snapshot.size());
+        RenderedPage page = revocationPageCache.get(snapshot, 0, false);
+        assertSame(page, revocationPageCache.get(snapshot, 0, false));
+        assertTrue(page.isUpToDate());
+        RevocationResponse revocationList =
+                testHelper
+                        .getObjectMapper()
+                        .readValue(page.getBody(), RevocationResponse.class);
+        assertEquals(revokedCertCount, revocationList.getRevokedCerts().size());
+    }
+
+    @Test
+    public void stalePageRequestKeepsPrerenderedPagesTest() throws Exception {
+        TestUtil.clearRevokedCerts(jt);
+        int revokedCertCount = 20;
+        revokedCertDataService.replaceRevokedCerts(
+                TestUtil.getRevokedCertUvcis(revokedCertCount));
+        RevocationSnapshot previous = revocationSnapshotCache.get(Instant.now());
+        revocationPageCache.get(previous, 0, false);
+        Instant bucketStart = CacheUtil.roundToNextRevocationRetentionBucketStart(Instant.now());
+        assertTrue(revocationPageCache.prerender(bucketStart.minusSeconds(1)) > 0);
+
+        revocationSnapshotCache.prepare(bucketStart);
+        RevocationSnapshot snapshot = revocationSnapshotCache.get(bucketStart);
+        long maxPkId = snapshot.getMaxPkId();
+        RenderedPage prerendered = revocationPageCache.get(snapshot, maxPkId, false);
+        assertTrue(prerendered.isUpToDate());
+
+        // a late request of the previous bucket is served from its own snapshot
+        RenderedPage stale = revocationPageCache.get(previous, 0, false);
+        RevocationResponse staleList =
+                testHelper
+                        .getObjectMapper()
+                        .readValue(stale.getBody(), RevocationResponse.class);
+        assertEquals(previous.size(), staleList.getRevokedCerts().size());
+
+        // without replacing the pages pre-rendered for the current one
+        assertSame(prerendered, revocationPageCache.get(snapshot, maxPkId, false));
+    }
+
+    @Test
+    public void getRevocationDbTest() throws Exception {
+        TestUtil.clearRevokedCerts(jt);
+        revokedCertDataService.replaceRevokedCerts(TestUtil.getRevokedCertUvcis(20));
+        TestUtil.releaseRevokedCerts(jt, Instant.now());
+        revocationDbGenerator.generate();
+
+        MockHttpServletResponse response =
+                mockMvc.perform(
+                                get(revocationDbUrl)
+                                        .queryParam(CERT_FORMAT_QUERY_PARAM, "ANDROID"))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        long maxPkId = revokedCertDataService.findMaxReleasedRevokedCertPkId(Instant.now());
+        assertEquals(String.valueOf(maxPkId), response.getHeader(NEXT_SINCE_HEADER));
+        byte[] db = response.getContentAsByteArray();
+        assertEquals("SQLite format 3\0", new String(db, 0, 16, StandardCharsets.US_ASCII));
+        String etag = response.getHeader(HttpHeaders.ETAG);
+        assertNotNull(etag);
+
+        // the ios variant is a different file
+        String iosEtag =
+                mockMvc.perform(get(revocationDbUrl))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse()
+                        .getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, iosEtag);
+
+        mockMvc.perform(
+                        get(revocationDbUrl)
+                                .queryParam(CERT_FORMAT_QUERY_PARAM, "ANDROID")
+                                .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        // resumed download
+        response =
+                mockMvc.perform(
+                                get(revocationDbUrl)
+                                        .queryParam(CERT_FORMAT_QUERY_PARAM, "ANDROID")
+                                        .header(HttpHeaders.RANGE, "bytes=16-"))
+                        .andExpect(status().isPartialContent())
+                        .andReturn()
+                        .getResponse();
+        assertArrayEquals(
+                Arrays.copyOfRange(db, 16, db.length), response.getContentAsByteArray());
+
+        // resumed download of the same file
+        mockMvc.perform(
+                        get(revocationDbUrl)
+                                .queryParam(CERT_FORMAT_QUERY_PARAM, "ANDROID")
+                                .header(HttpHeaders.RANGE, "bytes=16-")
+                                .header(HttpHeaders.IF_RANGE, etag))
+                .andExpect(status().isPartialContent());
+
+        // resumed download of an outdated file gets the whole current file
+        response =
+                mockMvc.perform(
+                                get(revocationDbUrl)
+                                        .queryParam(CERT_FORMAT_QUERY_PARAM, "ANDROID")
+                                        .header(HttpHeaders.RANGE, "bytes=16-")
+                                        .header(HttpHeaders.IF_RANGE, "\"outdated\""))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        assertArrayEquals(db, response.getContentAsByteArray());
+
+        // another instance generates the very same file
+        RevocationDbGenerator otherInstance =
+                new RevocationDbGenerator(
+                        revocationSnapshotCache,
+                        Files.createTempDirectory("revocation-db"),
+                        Duration.ofHours(48));
+        otherInstance.init();
+        otherInstance.generate();
+        RevocationDbFile otherDbFile = otherInstance.get(CertFormat.ANDROID);
+        assertEquals(etag, EtagUtil.toStrongEtag(otherDbFile.getSha256()));
+        assertArrayEquals(db, Files.readAllBytes(otherInstance.getPath(otherDbFile)));
+    }
+
+    @Test
+    public void getRevokedCertsDeltaTest() throws Exception {
+        TestUtil.clearRevokedCerts(jt);
+        int releasedRevokedCertCount = 20;
+        revokedCertDataService.replaceRevokedCerts(
+                TestUtil.getRevokedCertUvcis(releasedRevokedCertCount));
+        TestUtil.releaseRevokedCerts(jt, Instant.now());
+        long maxPkId = revokedCertDataService.findMaxReleasedRevokedCertPkId(Instant.now());
+
+        // clients behind the first bucket boundary are redirected to the full delta
+        for (long since : new long[] {0, maxPkId - 5}) {
+            MockHttpServletResponse response =
+                    mockMvc.perform(
+                                    get(revocationListDeltaUrl)
+                                            .queryParam(SINCE_QUERY_PARAM, String.valueOf(since)))
+                            .andExpect(status().isFound())
+                            .andReturn()
+                            .getResponse();
+            assertEquals("delta/0/" + maxPkId, response.getHeader(HttpHeaders.LOCATION));
+            assertEquals(String.valueOf(maxPkId), response.getHeader(NEXT_SINCE_HEADER));
+            assertExpires(
+                    response, CacheUtil.roundToNextRevocationRetentionBucketStart(Instant.now()));
+        }
+
+        MockHttpServletResponse response =
+                mockMvc.perform(
+                                get(revocationListDeltaUrl + "/0/" + maxPkId)
+                                        .accept(acceptMediaType))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        RevocationResponse delta =
+                testHelper.verifyAndReadValue(
+                        response,
+                        acceptMediaType,
+                        TestHelper.PATH_TO_CA_PEM,
+                        RevocationResponse.class);
+        assertEquals(releasedRevokedCertCount, delta.getRevokedCerts().size());
+        assertEquals(String.valueOf(maxPkId), response.getHeader(NEXT_SINCE_HEADER));
+        assertTrue(response.getHeader(HttpHeaders.CACHE_CONTROL).contains("immutable"));
+        assertEquals(HttpHeaders.ACCEPT, response.getHeader(HttpHeaders.VARY));
+
+        // up to date
+        response =
+                mockMvc.perform(
+                                get(revocationListDeltaUrl)
+                                        .queryParam(SINCE_QUERY_PARAM, String.valueOf(maxPkId)))
+                        .andExpect(status().isNoContent())
+                        .andReturn()
+                        .getResponse();
+        assertEquals("true", response.getHeader(UP_TO_DATE_HEADER));
+
+        // not released yet
+        mockMvc.perform(get(revocationListDeltaUrl + "/0/" + (maxPkId + 1)))
+                .andExpect(status().isNotFound());
+        // not a bucket boundary
+        mockMvc.perform(get(revocationListDeltaUrl + "/0/" + (maxPkId - 1)))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get(revocationListDeltaUrl + "/" + (maxPkId - 5) + "/" + maxPkId))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void checkRevokedCertsTest() throws Exception {
+        TestUtil.clearRevokedCerts(jt);
+        revokedCertDataService.replaceRevokedCerts(TestUtil.getRevokedCertUvcis(10));
+        TestUtil.releaseRevokedCerts(jt, Instant.now());
+        // not released yet
+        revokedCertDataService.replaceRevokedCerts(TestUtil.getRevokedCertUvcis(11));
+
+        List<String> uvcis =
+                List.of(
+                        "revoked_cert_uvci_3",
+                        "unknown",
+                        "revoked_cert_uvci_10",
+                        "revoked_cert_uvci_1");
+        MockHttpServletResponse response =
+                mockMvc.perform(
+                                post(revocationCheckUrl)
+                                        .contentType(MediaType.APPLICATION_JSON)
+                                        .content(
+                                                testHelper
+                                                        .getObjectMapper()
+                                                        .writeValueAsString(
+                                                                new RevocationCheckRequest(uvcis)))
+                                        .accept(acceptMediaType))
+                        .andExpect(status().isOk())
+                        .andReturn()
+                        .getResponse();
+        RevocationCheckResponse checked =
+                testHelper.verifyAndReadValue(
+                        response,
+                        acceptMediaType,
+                        TestHelper.PATH_TO_CA_PEM,
+                        RevocationCheckResponse.class);
+        assertEquals(
+                List.of("revoked_cert_uvci_3", "revoked_cert_uvci_1"), checked.getRevokedCerts());
+
+        // too many uvcis
+        List<String> tooMany = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++) {
+            tooMany.add("uvci_" + i);
+        }
+        mockMvc.perform(
+                        post(revocationCheckUrl)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .content(
+                                        testHelper
+                                                .getObjectMapper()
+                                                .writeValueAsString(
+                                                        new RevocationCheckRequest(tooMany)))
+                                .accept(acceptMediaType))
+                .andExpect(status().isBadRequest());
+    }
+
     private MockHttpServletResponse getNextRevocationListBatch(String since) throws Exception {
         return mockMvc.perform(
                         get(revocationListUrl)
@@ -18,10 +18,12 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 import ch.admin.bag.covidcertificate.backend.verifier.data.ValueSetDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.model.valuesets.ValueSets;
 import ch.admin.bag.covidcertificate.backend.verifier.ws.util.TestHelper;
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.EtagUtil;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.http.HttpHeaders;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -136,8 +138,13 @@ public abstract class ValueSetsControllerTest extends BaseControllerTest {
                         .andReturn()
                         .getResponse();
 
-        // test not modified
+        // verify etag
         String etag = response.getHeader(HttpHeaders.ETAG);
+        assertEquals(
+                EtagUtil.toStrongEtag(DigestUtils.sha256Hex(response.getContentAsByteArray())),
+                etag);
+
+        // test not modified
         mockMvc.perform(
                         get(valueSetsUrl)
                                 .accept(acceptMediaType)
@@ -145,6 +152,9 @@ public abstract class ValueSetsControllerTest extends BaseControllerTest {
                 .andExpect(status().isNotModified())
                 .andReturn()
                 .getResponse();
+
+        // the gzip variant has the same content but its own etag
+        assertGzipVariant(valueSetsUrl, acceptMediaType, response);
     }
 
     @Override
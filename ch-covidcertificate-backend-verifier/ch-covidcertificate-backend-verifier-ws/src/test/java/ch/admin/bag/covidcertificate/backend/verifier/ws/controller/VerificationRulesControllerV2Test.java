@@ -21,9 +21,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.util.Map;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.http.HttpHeaders;
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -40,7 +40,6 @@ public abstract class VerificationRulesControllerV2Test extends BaseControllerTe
     @Value("${testing.disabledModes}")
     private String[] disabledModes;
 
-    private static final String PATH_TO_VERIFICATION_RULES = "classpath:verificationRulesV2.json";
     @Test
     public void verificationRulesTest() throws Exception {
         // get verification rules
@@ -115,10 +114,7 @@ public abstract class VerificationRulesControllerV2Test extends BaseControllerTe
     }
 
     @Test
-    @Disabled("calculating expected ETag from the file doesn't work for V2")
     public void notModifiedTest() throws Exception {
-        String expectedEtag = EtagUtil.getSha1HashForFiles(true, PATH_TO_VERIFICATION_RULES);
-
         // get current etag
         MockHttpServletResponse response =
                 mockMvc.perform(
@@ -129,8 +125,10 @@ public abstract class VerificationRulesControllerV2Test extends BaseControllerTe
                         .andReturn()
                         .getResponse();
 
-        // verify etag
+        // verify etag, a strong etag of the served bytes
         String etag = response.getHeader(HttpHeaders.ETAG);
+        String expectedEtag =
+                EtagUtil.toStrongEtag(DigestUtils.sha256Hex(response.getContentAsByteArray()));
         assertEquals(expectedEtag, etag);
 
         // test not modified
@@ -141,6 +139,9 @@ public abstract class VerificationRulesControllerV2Test extends BaseControllerTe
                 .andExpect(status().isNotModified())
                 .andReturn()
                 .getResponse();
+
+        // the gzip variant has the same content but its own etag
+        assertGzipVariant(verificationRulesUrl, acceptMediaType, response);
     }
 
     @Override
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2021 Ubique Innovation AG <https://www.ubique.ch>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ *
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package ch.admin.bag.covidcertificate.backend.verifier.ws.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import ch.admin.bag.covidcertificate.backend.verifier.ws.utils.GzipUtil;
+import org.junit.jupiter.api.Test;
+
+public class GzipUtilTest {
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(GzipUtil.acceptsGzip("gzip"));
+        assertTrue(GzipUtil.acceptsGzip("deflate, gzip, br"));
+        assertTrue(GzipUtil.acceptsGzip("GZIP;Q=0.5"));
+        assertTrue(GzipUtil.acceptsGzip("x-gzip"));
+        assertTrue(GzipUtil.acceptsGzip("identity, *;q=0.5"));
+    }
+
+    @Test
+    public void testRejectsGzip() {
+        assertFalse(GzipUtil.acceptsGzip(null));
+        assertFalse(GzipUtil.acceptsGzip("deflate, br"));
+        assertFalse(GzipUtil.acceptsGzip("gzip;q=0"));
+        assertFalse(GzipUtil.acceptsGzip("gzip; q=0.000, *"));
+        assertFalse(GzipUtil.acceptsGzip("*;q=0"));
+        assertFalse(GzipUtil.acceptsGzip("gzipped"));
+    }
+}
@@ -5,7 +5,7 @@ import static ch.admin.bag.covidcertificate.backend.verifier.ws.util.MockRulesCo
 
 import ch.admin.bag.covidcertificate.backend.verifier.data.ForeignRulesDataService;
 import ch.admin.bag.covidcertificate.backend.verifier.model.ForeignRule;
-import java.time.LocalDateTime;
+import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -19,15 +19,15 @@ public class MockForeignRuleDataService implements ForeignRulesDataService {
         at1.setId("GR-AT-0039");
         at1.setVersion("0.0.1");
         at1.setCountry("AT");
-        at1.setValidUntil(LocalDateTime.now().plus(1, ChronoUnit.YEARS));
-        at1.setValidFrom(LocalDateTime.now().minus(1, ChronoUnit.DAYS));
+        at1.setValidUntil(Instant.now().plus(365, ChronoUnit.DAYS));
+        at1.setValidFrom(Instant.now().minus(1, ChronoUnit.DAYS));
         at1.setContent(AT1_CONTENT);
 
         at2.setId("GR-AT-0039");
         at2.setVersion("0.0.2");
         at2.setCountry("AT");
-        at2.setValidUntil(LocalDateTime.now().plus(1, ChronoUnit.YEARS));
-        at2.setValidFrom(LocalDateTime.now().plus(1, ChronoUnit.DAYS));
+        at2.setValidUntil(Instant.now().plus(365, ChronoUnit.DAYS));
+        at2.setValidFrom(Instant.now().plus(1, ChronoUnit.DAYS));
         at2.setContent(AT2_CONTENT);
     }
 
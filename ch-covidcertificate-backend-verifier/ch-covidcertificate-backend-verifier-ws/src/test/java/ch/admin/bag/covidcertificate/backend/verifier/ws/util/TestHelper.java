@@ -49,7 +49,13 @@ public class TestHelper {
     public <T> T verifyAndReadValue(
             MockHttpServletResponse result, MediaType mediaType, String pathToCaPem, Class<T> clazz)
             throws JsonProcessingException, UnsupportedEncodingException {
-        String responseStr = result.getContentAsString(StandardCharsets.UTF_8);
+        return verifyAndReadValue(
+                result.getContentAsString(StandardCharsets.UTF_8), mediaType, pathToCaPem, clazz);
+    }
+
+    public <T> T verifyAndReadValue(
+            String responseStr, MediaType mediaType, String pathToCaPem, Class<T> clazz)
+            throws JsonProcessingException {
         if (MediaType.APPLICATION_JSON.equalsTypeAndSubtype(mediaType)) {
             return objectMapper.readValue(responseStr, clazz);
         } else if (JwsMessageConverter.JWS_MEDIA_TYPE.equalsTypeAndSubtype(mediaType)) {